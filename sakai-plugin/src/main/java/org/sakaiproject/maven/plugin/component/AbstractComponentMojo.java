@@ -30,13 +30,18 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
@@ -58,7 +63,7 @@ import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
-import org.codehaus.plexus.util.InterpolationFilterReader;
+import org.codehaus.plexus.util.SelectorUtils;
 import org.codehaus.plexus.util.StringUtils;
 
 public abstract class AbstractComponentMojo extends AbstractMojo {
@@ -130,6 +135,25 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	 */
 	private List filters;
 
+	/**
+	 * The properties given to the build with <code>-D</code>. Filtered web
+	 * resources are filtered again when these change, but not when any of the
+	 * properties the JVM sets itself change.
+	 * 
+	 * @parameter expression="${session.userProperties}"
+	 * @readonly
+	 */
+	private Properties userProperties;
+
+	/**
+	 * The prefixes of the system properties set by the JVM and the Maven
+	 * launcher, which are left out of the filter signature when the user
+	 * properties of the session cannot be told from the system properties.
+	 */
+	private static final String[] RUNTIME_PROPERTY_PREFIXES = { "java.", "javax.",
+			"sun.", "jdk.", "os.", "user.", "file.", "line.", "path.", "awt.",
+			"classworlds.", "library.", "maven.home", "maven.conf", "env." };
+
 	/**
 	 * The path to the web.xml file to use.
 	 * 
@@ -181,6 +205,66 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	 */
 	protected ArchiverManager archiverManager;
 
+	/**
+	 * The comma separated list of archive types, such as
+	 * <code>war,zip</code>, which are unpacked by the built in zip extractor
+	 * instead of the plexus unarchiver. The built in extractor inflates
+	 * entries on several threads.
+	 * 
+	 * @parameter expression="${sakai.unpack.native}"
+	 */
+	private String nativeUnpackTypes;
+
+	/**
+	 * The number of threads used to inflate the entries of an archive handled
+	 * by the built in zip extractor. Zero uses one thread per processor.
+	 * 
+	 * @parameter expression="${sakai.unpack.threads}" default-value="0"
+	 */
+	private int unpackThreads = 0;
+
+	/**
+	 * Whether to wait at the end of the goal until directories moved to the
+	 * trash have been deleted. If not, whatever is left in the trash is
+	 * purged by a later build.
+	 * 
+	 * @parameter expression="${sakai.trash.wait}" default-value="true"
+	 */
+	private boolean waitForTrash = true;
+
+	private TrashCan trash;
+
+	/**
+	 * The directory the JSON metrics report of the goal is written to, as
+	 * <code>sakai-&lt;goal&gt;-metrics.json</code>. Without it no report is
+	 * written, and archives unpacked by plexus are not read a second time to
+	 * measure what they wrote.
+	 * 
+	 * @parameter expression="${sakai.metrics.directory}" default-value="${project.build.directory}"
+	 */
+	private File metricsDirectory;
+
+	private BuildMetrics metrics = new BuildMetrics();
+
+	private ReflectionProperties projectProperties;
+
+	/**
+	 * Whether to keep the state of each build of the exploded webapp, so the
+	 * next build only lists the source directories which changed, copies
+	 * the files which changed or whose copies were removed or edited in the
+	 * webapp, and removes the copies of files which have gone.
+	 * 
+	 * @parameter expression="${sakai.build.incremental}" default-value="true"
+	 */
+	private boolean incrementalBuild = true;
+
+	/**
+	 * The directory the state of the build is kept in.
+	 * 
+	 * @parameter expression="${project.build.directory}"
+	 */
+	private File buildStateDirectory;
+
 	private static final String WEB_INF = "WEB-INF";
 
 	private static final String META_INF = "META-INF";
@@ -280,6 +364,68 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		this.containerConfigXML = containerConfigXML;
 	}
 
+	public String getNativeUnpackTypes() {
+		return nativeUnpackTypes;
+	}
+
+	public void setNativeUnpackTypes(String nativeUnpackTypes) {
+		this.nativeUnpackTypes = nativeUnpackTypes;
+	}
+
+	public int getUnpackThreads() {
+		return unpackThreads;
+	}
+
+	public void setUnpackThreads(int unpackThreads) {
+		this.unpackThreads = unpackThreads;
+	}
+
+	public boolean isWaitForTrash() {
+		return waitForTrash;
+	}
+
+	public void setWaitForTrash(boolean waitForTrash) {
+		this.waitForTrash = waitForTrash;
+	}
+
+	public boolean isIncrementalBuild() {
+		return incrementalBuild;
+	}
+
+	public void setIncrementalBuild(boolean incrementalBuild) {
+		this.incrementalBuild = incrementalBuild;
+	}
+
+	public File getBuildStateDirectory() {
+		return buildStateDirectory;
+	}
+
+	public void setBuildStateDirectory(File buildStateDirectory) {
+		this.buildStateDirectory = buildStateDirectory;
+	}
+
+	public File getMetricsDirectory() {
+		return metricsDirectory;
+	}
+
+	public void setMetricsDirectory(File metricsDirectory) {
+		this.metricsDirectory = metricsDirectory;
+	}
+
+	/**
+	 * @return the metrics of the current execution of the goal
+	 */
+	protected BuildMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the name of the goal, used to name its metrics report
+	 */
+	protected String getGoalName() {
+		return "component";
+	}
+
 	public boolean isSkip() {
 		return skip;
 	}
@@ -360,12 +506,26 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		return project.getGroupId()+":"+project.getArtifactId()+":"+project.getPackaging()+":"+project.getVersion();
 	}
 
+        /**
+         * Deletes a file or directory tree. When the mojo has a trash
+         * directory the tree is renamed into it and deleted in the
+         * background, otherwise it is deleted straight away.
+         */
         public void deleteAll(File dir) {
+              BuildMetrics.Timer timer = metrics.start("delete", dir.getName());
+              TrashCan trash = getTrash();
+              if ( trash == null || !dir.exists() || !trash.discard(dir) ) {
+                 deleteNow(dir);
+              }
+              timer.stop();
+        }
+
+        private void deleteNow(File dir) {
               if ( dir.isDirectory() ) {
                  File[] files = dir.listFiles();
                  for ( int i = 0;i < files.length; i++ ) {
 		      if ( files[i].isDirectory() ) {
-                         deleteAll(files[i]);
+                         deleteNow(files[i]);
                       } else {
                          files[i].delete();
                       }
@@ -374,14 +534,68 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	      dir.delete();
         }
 
+	/**
+	 * Returns the directory that deleted trees are renamed into. It has to be
+	 * on the same filesystem as the files being deleted and outside any
+	 * directory the container scans. By default there is none and trees are
+	 * deleted in the foreground.
+	 * 
+	 * @return the trash directory, or null
+	 */
+	protected File getTrashDirectory() {
+		return null;
+	}
+
+	private synchronized TrashCan getTrash() {
+		if (trash == null) {
+			File directory = getTrashDirectory();
+			if (directory != null) {
+				trash = new TrashCan(directory);
+			}
+		}
+		return trash;
+	}
+
+	private void emptyTrash() throws MojoExecutionException {
+		TrashCan trash;
+		synchronized (this) {
+			trash = this.trash;
+			this.trash = null;
+		}
+		if (trash == null) {
+			return;
+		}
+		if (!waitForTrash) {
+			trash.release();
+			return;
+		}
+		long start = System.currentTimeMillis();
+		BuildMetrics.Timer timer = metrics.start("trash", trash.getDirectory().getName());
+		try {
+			while (!trash.await(10000)) {
+				getLog().info("Waiting for " + trash.getDirectory() + " to be purged");
+			}
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Interrupted while purging "
+					+ trash.getDirectory(), e);
+		}
+		timer.stop(0, 0, trash.getDiscardedCount());
+		if (trash.getDiscardedCount() > 0) {
+			getLog().info("Purged " + trash.getDiscardedCount() + " deleted trees in "
+					+ (System.currentTimeMillis() - start) + " ms after the deploy");
+		}
+	}
+
 	public void buildExplodedWebapp(File webappDirectory)
 			throws MojoExecutionException, MojoFailureException {
 		getLog().info("Exploding webapp...");
 
 		webappDirectory.mkdirs();
 
+		BuildMetrics.Timer timer = metrics.start("explode", webappDirectory.getName());
 		try {
 			buildWebapp(project, webappDirectory);
+			timer.stop();
 		} catch (IOException e) {
 			throw new MojoExecutionException("Could not explode webapp...", e);
 		}
@@ -412,9 +626,21 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		}
 
 		// can't putAll, as ReflectionProperties doesn't enumerate - so we make
-		// a composite map with the project variables as dominant
-		return new CompositeMap(new ReflectionProperties(project),
-				filterProperties);
+		// a composite map with the project variables as dominant. Neither map
+		// locks on lookups, so files can be filtered in parallel
+		return new CompositeMap(getProjectProperties(), new HashMap(
+				filterProperties));
+	}
+
+	/**
+	 * Returns the project expressions of this build, which keeps the values
+	 * looked up by one filtering for the next.
+	 */
+	private synchronized ReflectionProperties getProjectProperties() {
+		if (projectProperties == null || projectProperties.getProject() != project) {
+			projectProperties = new ReflectionProperties(project);
+		}
+		return projectProperties;
 	}
 
 	/**
@@ -539,6 +765,8 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 				"Assembling webapp " + project.getArtifactId() + " in "
 						+ webappDirectory);
 
+		BuildState state = loadBuildState(webappDirectory);
+
 		File webinfDir = new File(webappDirectory, WEB_INF);
 		webinfDir.mkdirs();
 
@@ -549,13 +777,28 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 				.asList(this.webResources) : null;
 		if (webResources != null && webResources.size() > 0) {
 			Map filterProperties = getBuildFilterProperties();
+			String signature = (state == null) ? null : getFilterSignature();
 			for (Iterator it = webResources.iterator(); it.hasNext();) {
 				Resource resource = (Resource) it.next();
-				copyResources(resource, webappDirectory, filterProperties);
+				if (state == null) {
+					copyResources(resource, webappDirectory, filterProperties);
+				} else if (!resource.getDirectory().equals(webappDirectory.getPath())) {
+					String targetPath = (resource.getTargetPath() == null) ? ""
+							: resource.getTargetPath();
+					BuildState.Input input = state.getInput(new File(resource.getDirectory()),
+							new File(webappDirectory, targetPath), getIncludes(resource),
+							getExcludes(resource), true, resource.isFiltering() ? signature : null);
+					copyChanged(input, resource.isFiltering() ? filterProperties : null);
+				}
 			}
 		}
 
-		copyResources(warSourceDirectory, webappDirectory);
+		if (state == null) {
+			copyResources(warSourceDirectory, webappDirectory);
+		} else if (!warSourceDirectory.equals(webappDirectory)) {
+			copyChanged(state.getInput(warSourceDirectory, webappDirectory, getIncludes(),
+					getExcludes(), true, null), null);
+		}
 
 		if (webXml != null && StringUtils.isNotEmpty(webXml.getName())) {
 			if (!webXml.exists()) {
@@ -587,6 +830,9 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 				&& !classesDirectory.equals(webappClassesDirectory)) {
 			if (archiveClasses) {
 				createJarArchive(libDirectory);
+			} else if (state != null) {
+				copyChanged(state.getInput(classesDirectory, webappClassesDirectory, null,
+						null, false, null), null);
 			} else {
 				copyDirectoryStructureIfModified(classesDirectory,
 						webappClassesDirectory);
@@ -617,12 +863,12 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 			if (!artifact.isOptional() && filter.include(artifact)) {
 				String type = artifact.getType();
 				if ("tld".equals(type)) {
-					copyFileIfModified(artifact.getFile(), new File(
+					copyArtifactIfModified(artifact, new File(
 							tldDirectory, targetFileName));
 				} else {
 					if ("jar".equals(type) || "ejb".equals(type)
 							|| "ejb-client".equals(type)) {
-						copyFileIfModified(artifact.getFile(), new File(
+						copyArtifactIfModified(artifact, new File(
 								libDirectory, targetFileName));
 					} else {
 						if ("par".equals(type)) {
@@ -637,7 +883,7 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 											+ new File(libDirectory,
 													targetFileName));
 
-							copyFileIfModified(artifact.getFile(), new File(
+							copyArtifactIfModified(artifact, new File(
 									libDirectory, targetFileName));
 						} else {
 							if ("war".equals(type)) {
@@ -666,6 +912,362 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 				copyDependentWarContents((File) iter.next(), webappDirectory);
 			}
 		}
+
+		if (state != null) {
+			saveBuildState(state);
+		}
+	}
+
+	private File getBuildStateFile(File webappDirectory) {
+		return new File(buildStateDirectory, "sakai-build-" + webappDirectory.getName()
+				+ ".state");
+	}
+
+	/**
+	 * Reads what the last build of a webapp copied. When the webapp has been
+	 * removed since, the state is dropped and everything is copied again.
+	 * 
+	 * @return the state, or null if the build is not incremental
+	 */
+	private BuildState loadBuildState(File webappDirectory) {
+		if (!incrementalBuild || buildStateDirectory == null) {
+			return null;
+		}
+		File stateFile = getBuildStateFile(webappDirectory);
+		if (!new File(webappDirectory, WEB_INF + "/web.xml").isFile()) {
+			stateFile.delete();
+		}
+		try {
+			return BuildState.load(stateFile, webappDirectory);
+		} catch (IOException e) {
+			getLog().warn("Ignoring the build state in " + stateFile + ": " + e.getMessage());
+			stateFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the copies of sources which have gone and keeps the state for
+	 * the next build.
+	 */
+	private void saveBuildState(BuildState state) throws IOException {
+		int removed = 0;
+		for (File file : state.end()) {
+			if (file.delete()) {
+				getLog().debug("Removed " + file);
+				removed++;
+			}
+		}
+		state.save();
+		metrics.count("build.listed", state.getListedCount());
+		metrics.count("build.copied", state.getCopiedCount());
+		metrics.count("build.removed", removed);
+		getLog().info("Copied " + state.getCopiedCount() + " changed files, removed " + removed
+				+ ", listed " + state.getListedCount() + " changed directories");
+	}
+
+	/**
+	 * Copies the files of an input which changed since the last build.
+	 * 
+	 * @param filterProperties the properties to filter with, or null to copy
+	 *            the files as they are
+	 */
+	private void copyChanged(BuildState.Input input, Map filterProperties)
+			throws IOException {
+		for (String name : input.scan()) {
+			if (!input.isChanged(name)) {
+				continue;
+			}
+			File source = input.getSource(name);
+			File target = input.getTarget(name);
+			if (filterProperties != null) {
+				copyFilteredFile(source, target, null, getFilterWrappers(), filterProperties);
+			} else {
+				target.getParentFile().mkdirs();
+				FileTransfer.copy(source.getCanonicalFile(), target);
+				target.setLastModified(source.lastModified());
+			}
+			input.copied(name);
+		}
+	}
+
+	/**
+	 * Sums up what filtered web resources depend on besides their sources,
+	 * the project properties, the properties given with <code>-D</code>, the
+	 * filter files and the pom, so they are filtered again when any of it
+	 * changes. Properties the JVM sets, such as the command line it was
+	 * started with, are left out as they change from one build to the next.
+	 */
+	private String getFilterSignature() throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(project.getProperties());
+		properties.putAll(getUserProperties());
+		Map<String, String> sorted = new TreeMap<String, String>();
+		for (Enumeration names = properties.propertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			sorted.put(name, properties.getProperty(name));
+		}
+		StringBuffer sb = new StringBuffer();
+		for (Map.Entry<String, String> property : sorted.entrySet()) {
+			sb.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+		}
+		List<File> files = new ArrayList<File>();
+		if (filters != null) {
+			for (Iterator i = filters.iterator(); i.hasNext();) {
+				files.add(new File((String) i.next()));
+			}
+		}
+		if (project.getFile() != null) {
+			files.add(project.getFile());
+		}
+		for (File file : files) {
+			sb.append(file.getAbsolutePath()).append(' ').append(file.lastModified())
+					.append(' ').append(file.length()).append('\n');
+		}
+		MessageDigest digest = DeployJournal.createDigest();
+		digest.update(sb.toString().getBytes("UTF-8"));
+		return DeployJournal.toHex(digest.digest());
+	}
+
+	/**
+	 * @return the properties given to the build with <code>-D</code>, or the
+	 *         system properties not set by the JVM on Maven versions whose
+	 *         session does not keep them apart
+	 */
+	private Properties getUserProperties() {
+		if (userProperties != null) {
+			return userProperties;
+		}
+		Properties properties = new Properties();
+		Properties system = System.getProperties();
+		for (Enumeration names = system.propertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			if (!isRuntimeProperty(name)) {
+				properties.setProperty(name, system.getProperty(name));
+			}
+		}
+		return properties;
+	}
+
+	private static boolean isRuntimeProperty(String name) {
+		for (int i = 0; i < RUNTIME_PROPERTY_PREFIXES.length; i++) {
+			if (name.startsWith(RUNTIME_PROPERTY_PREFIXES[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the web resources, web sources and classes which changed since
+	 * the last pass into a deployed webapp, using the same includes, excludes
+	 * and filtering as {@link #buildWebapp(MavenProject, File)}. Copies of
+	 * sources which were removed are deleted. Dependencies are not synced.
+	 * 
+	 * @param state what the previous passes saw, updated by this one
+	 * @return the files written or deleted
+	 */
+	public List<File> syncWebapp(File webappDirectory, SyncState state)
+			throws MojoExecutionException, IOException {
+		return syncWebapp(webappDirectory, state, null);
+	}
+
+	/**
+	 * Syncs a deployed webapp, looking only at the files directly in the
+	 * source directories which are known to have changed, such as those
+	 * reported by a {@link SourceWatcher}.
+	 * 
+	 * @param changed the directories to look at, or null to scan all the
+	 *            sources
+	 */
+	public List<File> syncWebapp(File webappDirectory, SyncState state,
+			Collection<File> changed) throws MojoExecutionException, IOException {
+		List<File> synced = new ArrayList<File>();
+		state.begin();
+		if (webResources != null && webResources.length > 0) {
+			Map filterProperties = null;
+			for (int r = 0; r < webResources.length; r++) {
+				Resource resource = webResources[r];
+				if (resource.getDirectory().equals(webappDirectory.getPath())
+						|| !new File(resource.getDirectory()).isDirectory()) {
+					continue;
+				}
+				String targetPath = (resource.getTargetPath() == null) ? ""
+						: resource.getTargetPath();
+				File destination = new File(webappDirectory, targetPath);
+				String[] fileNames = (changed == null) ? getWarFiles(resource)
+						: getChangedFiles(new File(resource.getDirectory()), getIncludes(resource),
+								getExcludes(resource), true, changed);
+				for (int i = 0; i < fileNames.length; i++) {
+					File source = new File(resource.getDirectory(), fileNames[i]);
+					File target = new File(destination, fileNames[i]);
+					if (!state.isChanged(source, target)) {
+						continue;
+					}
+					if (resource.isFiltering() && filterProperties == null) {
+						filterProperties = getBuildFilterProperties();
+					}
+					syncFile(source, target, resource.isFiltering() ? filterProperties : null);
+					synced.add(target);
+				}
+			}
+		}
+
+		if (warSourceDirectory.isDirectory() && !warSourceDirectory.equals(webappDirectory)) {
+			String[] fileNames = (changed == null) ? getWarFiles(warSourceDirectory)
+					: getChangedFiles(warSourceDirectory, getIncludes(), getExcludes(), true, changed);
+			for (int i = 0; i < fileNames.length; i++) {
+				File source = new File(warSourceDirectory, fileNames[i]);
+				File target = new File(webappDirectory, fileNames[i]);
+				if (state.isChanged(source, target)) {
+					syncFile(source, target, null);
+					synced.add(target);
+				}
+			}
+		}
+
+		File webappClassesDirectory = new File(webappDirectory, WEB_INF + "/classes");
+		if (classesDirectory.isDirectory() && !archiveClasses
+				&& !classesDirectory.equals(webappClassesDirectory)) {
+			String[] fileNames;
+			if (changed == null) {
+				DirectoryScanner scanner = new DirectoryScanner();
+				scanner.setBasedir(classesDirectory);
+				scanner.scan();
+				fileNames = scanner.getIncludedFiles();
+			} else {
+				fileNames = getChangedFiles(classesDirectory, null, null, false, changed);
+			}
+			for (int i = 0; i < fileNames.length; i++) {
+				File source = new File(classesDirectory, fileNames[i]);
+				File target = new File(webappClassesDirectory, fileNames[i]);
+				if (state.isChanged(source, target)) {
+					syncFile(source, target, null);
+					synced.add(target);
+				}
+			}
+		}
+
+		for (File removed : state.end(changed)) {
+			if (removed.delete()) {
+				synced.add(removed);
+			}
+		}
+		return synced;
+	}
+
+	/**
+	 * @return the source directories {@link #syncWebapp(File, SyncState)}
+	 *         copies from into a deployed webapp
+	 */
+	public List<File> getSyncDirectories(File webappDirectory) {
+		List<File> directories = new ArrayList<File>();
+		if (webResources != null) {
+			for (int r = 0; r < webResources.length; r++) {
+				if (!webResources[r].getDirectory().equals(webappDirectory.getPath())) {
+					directories.add(new File(webResources[r].getDirectory()));
+				}
+			}
+		}
+		if (!warSourceDirectory.equals(webappDirectory)) {
+			directories.add(warSourceDirectory);
+		}
+		if (!archiveClasses) {
+			directories.add(classesDirectory);
+		}
+		return directories;
+	}
+
+	/**
+	 * Lists the files directly in the changed directories below a source
+	 * directory which the includes and excludes select, the way a
+	 * {@link DirectoryScanner} of the whole source directory would.
+	 * 
+	 * @param includes the include patterns, or null for all files
+	 * @param excludes the exclude patterns, or null
+	 * @return the names of the files relative to the source directory
+	 */
+	private static String[] getChangedFiles(File sourceDir, String[] includes,
+			String[] excludes, boolean defaultExcludes, Collection<File> changed) {
+		String base = sourceDir.getAbsolutePath();
+		List<String> names = new ArrayList<String>();
+		for (File directory : changed) {
+			String path = directory.getAbsolutePath();
+			String prefix;
+			if (path.equals(base)) {
+				prefix = "";
+			} else if (path.startsWith(base + File.separator)) {
+				prefix = path.substring(base.length() + 1) + File.separator;
+			} else {
+				continue;
+			}
+			File[] files = directory.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (int i = 0; i < files.length; i++) {
+				String name = prefix + files[i].getName();
+				if (files[i].isFile() && matchesAny(name, includes == null ? DEFAULT_INCLUDES : includes)
+						&& (excludes == null || !matchesAny(name, excludes))
+						&& (!defaultExcludes || !matchesAny(name, DirectoryScanner.DEFAULTEXCLUDES))) {
+					names.add(name);
+				}
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Matches a relative file name against patterns written the way a
+	 * {@link DirectoryScanner} accepts them.
+	 */
+	private static boolean matchesAny(String name, String[] patterns) {
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i].trim().replace('/', File.separatorChar)
+					.replace('\\', File.separatorChar);
+			if (pattern.endsWith(File.separator)) {
+				pattern += "**";
+			}
+			if (SelectorUtils.matchPath(pattern, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes a file of a deployed webapp through a temporary file, as the
+	 * deployed file may be a link shared with an earlier release.
+	 * 
+	 * @param filterProperties the properties to filter with, or null to copy
+	 *            the file as it is
+	 */
+	private void syncFile(File source, File target, Map filterProperties)
+			throws IOException {
+		target.getParentFile().mkdirs();
+		File tmp = new File(target.getParentFile(), "." + target.getName() + ".tmp");
+		if (filterProperties != null) {
+			copyFilteredFile(source, tmp, null, getFilterWrappers(), filterProperties);
+		} else {
+			FileUtils.copyFile(source, tmp);
+		}
+		ZipExtractor.replace(tmp, target);
+	}
+
+	/**
+	 * Copies the file of an artifact into the webapp if it is newer, adding
+	 * the copy to the metrics.
+	 */
+	private void copyArtifactIfModified(Artifact artifact, File destination)
+			throws IOException {
+		BuildMetrics.Timer timer = metrics.start("copy", artifact.getId());
+		File source = artifact.getFile();
+		if (destination.lastModified() < source.lastModified()) {
+			copyFileIfModified(source, destination);
+			timer.stop(source.length(), source.length(), 1);
+		} else {
+			timer.stop();
+		}
 	}
 
 	/**
@@ -754,13 +1356,26 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	protected void unpack(File file, File location, String archiveExt, boolean overwrite)
 		throws MojoExecutionException, NoSuchArchiverException {
 
-
+		if (isNativeUnpack(archiveExt)) {
+			unpackNative(file, location, overwrite);
+			return;
+		}
 		try {
+			BuildMetrics.Timer timer = metrics.start("unpack", file.getName());
 			UnArchiver unArchiver = archiverManager.getUnArchiver(archiveExt);
 			unArchiver.setSourceFile(file);
 			unArchiver.setDestDirectory(location);
 			unArchiver.setOverwrite(overwrite);
 			unArchiver.extract();
+			// the unarchiver does not say what it wrote, assume the lot, but
+			// only read the archive again when there is a report to fill in
+			long[] size = (metricsDirectory == null) ? null : DeployPlan
+					.getUnpackedSize(file);
+			if (size == null) {
+				timer.stop(file.length(), 0, 0);
+			} else {
+				timer.stop(file.length(), size[0], (int) size[1]);
+			}
 		} catch (IOException e) {
 			throw new MojoExecutionException("Error unpacking file: " + file
 					+ "to: " + location, e);
@@ -770,6 +1385,78 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		}
 	}
 
+	/**
+	 * @return true if archives of the given type are unpacked by the built in
+	 *         zip extractor
+	 */
+	protected boolean isNativeUnpack(String archiveExt) {
+		if (StringUtils.isEmpty(nativeUnpackTypes) || archiveExt == null) {
+			return false;
+		}
+		String[] types = StringUtils.split(nativeUnpackTypes, ",");
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].trim().equalsIgnoreCase(archiveExt)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of threads to inflate archive entries with
+	 */
+	protected int getUnpackThreadCount() {
+		return unpackThreads > 0 ? unpackThreads : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	private void unpackNative(File file, File location, boolean overwrite)
+		throws MojoExecutionException {
+		int threads = getUnpackThreadCount();
+		try {
+			BuildMetrics.Timer timer = metrics.start("unpack", file.getName());
+			ZipExtractor extractor = new ZipExtractor(file);
+			extractor.extract(location, overwrite, threads);
+			timer.stop(file.length(), extractor.getWrittenBytes(),
+					extractor.getWrittenCount());
+			getLog().debug(
+					"Unpacked " + file + " to " + location + ": "
+							+ extractor.getWrittenCount() + " written, "
+							+ extractor.getUnchangedCount() + " up to date");
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error unpacking file: " + file
+					+ "to: " + location, e);
+		}
+	}
+
+	/**
+	 * Unpacks a zip based archive over a previous unpack of it. Only the
+	 * entries whose size or CRC differ from the existing files are written and
+	 * files which are no longer in the archive are removed.
+	 * 
+	 * @param file the file to be unpacked
+	 * @param location the location holding the previous unpack
+	 * @throws MojoExecutionException
+	 */
+	protected void unpackDelta(File file, File location)
+		throws MojoExecutionException {
+		try {
+			BuildMetrics.Timer timer = metrics.start("unpack", file.getName());
+			ZipExtractor extractor = new ZipExtractor(file);
+			extractor.extractDelta(location);
+			timer.stop(file.length(), extractor.getWrittenBytes(),
+					extractor.getWrittenCount());
+			getLog().info(
+					"Updated " + location + ": " + extractor.getWrittenCount()
+							+ " written, " + extractor.getUnchangedCount()
+							+ " unchanged, " + extractor.getRemovedCount()
+							+ " removed");
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error unpacking file: " + file
+					+ "to: " + location, e);
+		}
+	}
+
 	/**
 	 * Recursively copies contents of <tt>srcDir</tt> into <tt>targetDir</tt>.
 	 * This will not overwrite any existing files.
@@ -845,15 +1532,10 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	private String[] getWarFiles(Resource resource) {
 		DirectoryScanner scanner = new DirectoryScanner();
 		scanner.setBasedir(resource.getDirectory());
-		if (resource.getIncludes() != null && !resource.getIncludes().isEmpty()) {
-			scanner.setIncludes((String[]) resource.getIncludes().toArray(
-					EMPTY_STRING_ARRAY));
-		} else {
-			scanner.setIncludes(DEFAULT_INCLUDES);
-		}
-		if (resource.getExcludes() != null && !resource.getExcludes().isEmpty()) {
-			scanner.setExcludes((String[]) resource.getExcludes().toArray(
-					EMPTY_STRING_ARRAY));
+		scanner.setIncludes(getIncludes(resource));
+		String[] excludes = getExcludes(resource);
+		if (excludes != null) {
+			scanner.setExcludes(excludes);
 		}
 
 		scanner.addDefaultExcludes();
@@ -863,6 +1545,20 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		return scanner.getIncludedFiles();
 	}
 
+	private static String[] getIncludes(Resource resource) {
+		if (resource.getIncludes() != null && !resource.getIncludes().isEmpty()) {
+			return (String[]) resource.getIncludes().toArray(EMPTY_STRING_ARRAY);
+		}
+		return DEFAULT_INCLUDES;
+	}
+
+	private static String[] getExcludes(Resource resource) {
+		if (resource.getExcludes() != null && !resource.getExcludes().isEmpty()) {
+			return (String[]) resource.getExcludes().toArray(EMPTY_STRING_ARRAY);
+		}
+		return null;
+	}
+
 	/**
 	 * Copy file from source to destination only if source is newer than the
 	 * target file. If <code>destinationDirectory</code> does not exist, it
@@ -900,20 +1596,12 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 
 	private FilterWrapper[] getFilterWrappers() {
 		return new FilterWrapper[] {
-		// support ${token}
+		// support ${token} and @token@ in one pass
 				new FilterWrapper() {
 					public Reader getReader(Reader fileReader,
 							Map filterProperties) {
-						return new InterpolationFilterReader(fileReader,
-								filterProperties, "${", "}");
-					}
-				},
-				// support @token@
-				new FilterWrapper() {
-					public Reader getReader(Reader fileReader,
-							Map filterProperties) {
-						return new InterpolationFilterReader(fileReader,
-								filterProperties, "@", "@");
+						return new TokenFilterReader(fileReader,
+								filterProperties);
 					}
 				} };
 	}
@@ -991,7 +1679,8 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		// Maven 2 changes
 		// to plexus-utils 1.2.
 		if (destination.lastModified() < source.lastModified()) {
-			FileUtils.copyFile(source.getCanonicalFile(), destination);
+			destination.getParentFile().mkdirs();
+			FileTransfer.copy(source.getCanonicalFile(), destination);
 			// preserve timestamp
 			destination.setLastModified(source.lastModified());
 		}
@@ -1081,7 +1770,38 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		if (skip) {
 			getLog().info("Skipped plugin");
 		} else {
-			doExecute();
+			metrics = new BuildMetrics();
+			projectProperties = null;
+			try {
+				doExecute();
+			} finally {
+				try {
+					emptyTrash();
+				} finally {
+					reportMetrics();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Logs a summary of the metrics of the goal and writes the full report.
+	 */
+	private void reportMetrics() {
+		if (metrics.getSamples().isEmpty() && metrics.getCounters().isEmpty()) {
+			return;
+		}
+		for (String line : metrics.getSummary()) {
+			getLog().info(line);
+		}
+		if (metricsDirectory != null) {
+			File report = new File(metricsDirectory, "sakai-" + getGoalName() + "-metrics.json");
+			try {
+				metrics.writeJson(report, getGoalName());
+				getLog().info("Metrics written to " + report);
+			} catch (IOException e) {
+				getLog().warn("Failed to write metrics to " + report + ": " + e.getMessage());
+			}
 		}
 	}
 
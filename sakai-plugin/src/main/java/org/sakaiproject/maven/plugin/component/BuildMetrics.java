@@ -0,0 +1,326 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Collects timings and sizes of the work done by a goal, such as resolving,
+ * deleting, copying and unpacking artifacts, along with cache hit and miss
+ * counters. The figures can be written as a JSON report for dashboards and
+ * summarised as a table in the build log.
+ * <p/>
+ * Samples may be recorded from several threads at once. Phase times are
+ * the sum over all threads, so with a worker pool they can add up to more
+ * than the wall time of the goal.
+ */
+public class BuildMetrics {
+
+	/**
+	 * A single timed piece of work.
+	 */
+	public static class Sample {
+
+		private final String phase;
+
+		private final String subject;
+
+		private final long nanos;
+
+		private final long bytesRead;
+
+		private final long bytesWritten;
+
+		private final int files;
+
+		private final int count;
+
+		Sample(String phase, String subject, long nanos, long bytesRead,
+				long bytesWritten, int files, int count) {
+			this.phase = phase;
+			this.subject = subject;
+			this.nanos = nanos;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.files = files;
+			this.count = count;
+		}
+
+		public String getPhase() {
+			return phase;
+		}
+
+		public String getSubject() {
+			return subject;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		/**
+		 * @return the number of pieces of work the sample adds up
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Measures a piece of work from its creation until it is stopped.
+	 */
+	public class Timer {
+
+		private final String phase;
+
+		private final String subject;
+
+		private final long start = System.nanoTime();
+
+		Timer(String phase, String subject) {
+			this.phase = phase;
+			this.subject = subject;
+		}
+
+		public void stop() {
+			stop(0, 0, 0);
+		}
+
+		public void stop(long bytesRead, long bytesWritten, int files) {
+			record(phase, subject, System.nanoTime() - start, bytesRead,
+					bytesWritten, files);
+		}
+	}
+
+	private static final int SLOWEST = 5;
+
+	private final long start = System.nanoTime();
+
+	private final List<Sample> samples = new ArrayList<Sample>();
+
+	private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Starts timing a piece of work.
+	 *
+	 * @param phase the kind of work, for example <code>unpack</code>
+	 * @param subject what the work is done on, usually an artifact
+	 */
+	public Timer start(String phase, String subject) {
+		return new Timer(phase, subject);
+	}
+
+	public synchronized void record(String phase, String subject, long nanos,
+			long bytesRead, long bytesWritten, int files) {
+		samples.add(new Sample(phase, subject, nanos, bytesRead, bytesWritten, files, 1));
+	}
+
+	/**
+	 * Adds to a counter, such as the hits of a cache.
+	 */
+	public synchronized void count(String counter, long amount) {
+		Long value = counters.get(counter);
+		counters.put(counter, Long.valueOf((value == null ? 0 : value.longValue()) + amount));
+	}
+
+	public synchronized List<Sample> getSamples() {
+		return new ArrayList<Sample>(samples);
+	}
+
+	public synchronized Map<String, Long> getCounters() {
+		return new LinkedHashMap<String, Long>(counters);
+	}
+
+	/**
+	 * Adds up the samples of each phase.
+	 *
+	 * @return a sample per phase, without a subject, in the order the phases
+	 *         were first seen
+	 */
+	public synchronized List<Sample> getPhaseTotals() {
+		Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+		for (Sample sample : samples) {
+			long[] total = totals.get(sample.getPhase());
+			if (total == null) {
+				total = new long[5];
+				totals.put(sample.getPhase(), total);
+			}
+			total[0] += sample.getNanos();
+			total[1] += sample.getBytesRead();
+			total[2] += sample.getBytesWritten();
+			total[3] += sample.getFiles();
+			total[4]++;
+		}
+		List<Sample> result = new ArrayList<Sample>();
+		for (Map.Entry<String, long[]> total : totals.entrySet()) {
+			long[] t = total.getValue();
+			result.add(new Sample(total.getKey(), null, t[0], t[1], t[2], (int) t[3], (int) t[4]));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the samples taking the longest, slowest first
+	 */
+	public List<Sample> getSlowest(int count) {
+		List<Sample> sorted = getSamples();
+		Collections.sort(sorted, new Comparator<Sample>() {
+			public int compare(Sample a, Sample b) {
+				return (a.getNanos() < b.getNanos()) ? 1 : (a.getNanos() == b.getNanos() ? 0 : -1);
+			}
+		});
+		return sorted.subList(0, Math.min(count, sorted.size()));
+	}
+
+	/**
+	 * Returns a short table of the phases, the slowest items and the
+	 * counters, one line per row.
+	 */
+	public List<String> getSummary() {
+		List<String> lines = new ArrayList<String>();
+		lines.add(pad("phase", 12) + pad("items", 8) + pad("ms", 10) + pad("read", 10)
+				+ pad("written", 10) + "files");
+		for (Sample total : getPhaseTotals()) {
+			lines.add(pad(total.getPhase(), 12)
+					+ pad(String.valueOf(total.getCount()), 8)
+					+ pad(String.valueOf(total.getNanos() / 1000000), 10)
+					+ pad(DeployPlan.formatBytes(total.getBytesRead()), 10)
+					+ pad(DeployPlan.formatBytes(total.getBytesWritten()), 10)
+					+ total.getFiles());
+		}
+		for (Sample sample : getSlowest(SLOWEST)) {
+			lines.add("slowest: " + sample.getPhase() + " " + sample.getSubject() + " "
+					+ sample.getNanos() / 1000000 + " ms");
+		}
+		for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+			lines.add(counter.getKey() + ": " + counter.getValue());
+		}
+		return lines;
+	}
+
+	/**
+	 * Writes all the samples, the phase totals and the counters as JSON.
+	 *
+	 * @param goal the goal the metrics were collected for
+	 */
+	public void writeJson(File file, String goal) throws IOException {
+		long wall = System.nanoTime() - start;
+		StringBuffer json = new StringBuffer();
+		json.append("{\n  \"goal\": ").append(quote(goal));
+		json.append(",\n  \"wallMillis\": ").append(wall / 1000000);
+		json.append(",\n  \"phases\": [");
+		appendSamples(json, getPhaseTotals(), false);
+		json.append("],\n  \"items\": [");
+		appendSamples(json, getSamples(), true);
+		json.append("],\n  \"counters\": {");
+		boolean first = true;
+		for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+			json.append(first ? "\n" : ",\n");
+			json.append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue());
+			first = false;
+		}
+		json.append(first ? "}\n}\n" : "\n  }\n}\n");
+
+		file.getParentFile().mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(json.toString());
+		} finally {
+			IOUtil.close(out);
+		}
+	}
+
+	private static void appendSamples(StringBuffer json, List<Sample> samples,
+			boolean withSubject) {
+		boolean first = true;
+		for (Sample sample : samples) {
+			json.append(first ? "\n" : ",\n");
+			json.append("    {\"phase\": ").append(quote(sample.getPhase()));
+			if (withSubject) {
+				json.append(", \"subject\": ").append(quote(sample.getSubject()));
+			} else {
+				json.append(", \"count\": ").append(sample.getCount());
+			}
+			json.append(", \"millis\": ").append(sample.getNanos() / 1000000);
+			json.append(", \"bytesRead\": ").append(sample.getBytesRead());
+			json.append(", \"bytesWritten\": ").append(sample.getBytesWritten());
+			json.append(", \"files\": ").append(sample.getFiles()).append('}');
+			first = false;
+		}
+		if (!first) {
+			json.append("\n  ");
+		}
+	}
+
+	static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuffer sb = new StringBuffer("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				String hex = Integer.toHexString(c);
+				sb.append("\\u");
+				for (int j = hex.length(); j < 4; j++) {
+					sb.append('0');
+				}
+				sb.append(hex);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String pad(String value, int width) {
+		StringBuffer sb = new StringBuffer(value);
+		while (sb.length() < width) {
+			sb.append(' ');
+		}
+		return sb.append(' ').toString();
+	}
+}
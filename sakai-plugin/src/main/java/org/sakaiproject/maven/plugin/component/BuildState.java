@@ -0,0 +1,484 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * What the previous build of an exploded webapp read and wrote, kept in a
+ * file under the build directory so the next build only looks at what
+ * changed.
+ * <p/>
+ * Each input, a source directory copied into the webapp with its includes
+ * and excludes, keeps the timestamps of its directories and, for each file
+ * copied, the timestamp and size of the source and of the copy at the time.
+ * A directory whose timestamp has not moved has had no files added, removed
+ * or renamed, so only directories which moved are listed again. Each source
+ * file and its copy in the webapp still have their timestamps read, so a
+ * copy which was removed or edited in the webapp is copied again. Files
+ * which disappeared from an input, and all files of an input no longer
+ * built, are returned by {@link #end()} for removal.
+ * <p/>
+ * An input can carry a signature of what else goes into its copies, such
+ * as the filter properties, a different signature has all its files copied
+ * again.
+ */
+public class BuildState {
+
+	private static final String WEBAPP = "webapp";
+
+	private static final String INPUT = "input.";
+
+	private static final String TARGET = ".target";
+
+	private static final String SIGNATURE = ".signature";
+
+	private static final String DIR = ".dir.";
+
+	private static final String FILE = ".file.";
+
+	/** The stamp of a file found but not copied yet. */
+	private static final String NEW = "";
+
+	private final File stateFile;
+
+	private final File webappDirectory;
+
+	private final Map<String, Input> loaded = new LinkedHashMap<String, Input>();
+
+	private final Map<String, Input> inputs = new LinkedHashMap<String, Input>();
+
+	private int listed;
+
+	private int copied;
+
+	private BuildState(File stateFile, File webappDirectory) {
+		this.stateFile = stateFile;
+		this.webappDirectory = webappDirectory;
+	}
+
+	/**
+	 * Reads the state of the last build of a webapp.
+	 *
+	 * @param stateFile the file the state is kept in
+	 * @param webappDirectory the webapp, a state written for another one is
+	 *            ignored
+	 * @throws IOException if the state could not be read
+	 */
+	public static BuildState load(File stateFile, File webappDirectory) throws IOException {
+		BuildState state = new BuildState(stateFile, webappDirectory);
+		if (!stateFile.isFile()) {
+			return state;
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(stateFile);
+		try {
+			properties.load(in);
+		} finally {
+			IOUtil.close(in);
+		}
+		if (!webappDirectory.getAbsolutePath().equals(properties.getProperty(WEBAPP))) {
+			return state;
+		}
+		Map<String, Input> byId = new HashMap<String, Input>();
+		for (Enumeration names = properties.propertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			if (name.startsWith(INPUT) && name.indexOf('.', INPUT.length()) == -1) {
+				Input input = state.new Input(properties.getProperty(name));
+				byId.put(name, input);
+				state.loaded.put(input.key, input);
+			}
+		}
+		for (Enumeration names = properties.propertyNames(); names.hasMoreElements();) {
+			String name = (String) names.nextElement();
+			int dot = name.indexOf('.', INPUT.length());
+			Input input = (dot == -1) ? null : byId.get(name.substring(0, dot));
+			if (input == null) {
+				continue;
+			}
+			String value = properties.getProperty(name);
+			String field = name.substring(dot);
+			if (field.equals(TARGET)) {
+				input.target = new File(value);
+			} else if (field.equals(SIGNATURE)) {
+				input.signature = value;
+			} else if (field.startsWith(DIR)) {
+				input.dirs.put(field.substring(DIR.length()), Long.valueOf(value));
+			} else if (field.startsWith(FILE)) {
+				input.files.put(field.substring(FILE.length()), value);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Returns an input of this build, with what the last build saw of it.
+	 *
+	 * @param source the directory copied
+	 * @param target the directory it is copied to
+	 * @param includes the patterns of the files copied, null for all
+	 * @param excludes the patterns of the files not copied, may be null
+	 * @param defaultExcludes whether to leave out the files of version
+	 *            control systems and editors too
+	 * @param signature anything else the copies depend on, null for nothing
+	 */
+	public Input getInput(File source, File target, String[] includes, String[] excludes,
+			boolean defaultExcludes, String signature) {
+		Matcher matcher = new Matcher(includes, excludes, defaultExcludes);
+		String key = source.getAbsolutePath() + "|" + target.getAbsolutePath() + "|"
+				+ matcher.getKey();
+		Input input = inputs.get(key);
+		if (input == null) {
+			input = loaded.remove(key);
+			if (input == null) {
+				input = new Input(key);
+			}
+			input.init(source, target, matcher, signature);
+			inputs.put(key, input);
+		}
+		return input;
+	}
+
+	/**
+	 * Ends the build, forgetting the inputs it did not use.
+	 *
+	 * @return the copies of source files which have gone, except those
+	 *         another input still writes
+	 */
+	public List<File> end() {
+		Set<File> live = new HashSet<File>();
+		List<File> removed = new ArrayList<File>();
+		for (Input input : inputs.values()) {
+			for (String name : input.files.keySet()) {
+				live.add(input.getTarget(name));
+			}
+			removed.addAll(input.removed);
+			input.removed.clear();
+		}
+		for (Input input : loaded.values()) {
+			for (String name : input.files.keySet()) {
+				removed.add(input.getTarget(name));
+			}
+		}
+		loaded.clear();
+		for (Iterator<File> i = removed.iterator(); i.hasNext();) {
+			if (live.contains(i.next())) {
+				i.remove();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the number of directories listed by this build
+	 */
+	public int getListedCount() {
+		return listed;
+	}
+
+	/**
+	 * @return the number of files copied by this build
+	 */
+	public int getCopiedCount() {
+		return copied;
+	}
+
+	/**
+	 * Writes the state of the inputs used by this build.
+	 *
+	 * @throws IOException if the state could not be written
+	 */
+	public void save() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(WEBAPP, webappDirectory.getAbsolutePath());
+		int id = 0;
+		for (Input input : inputs.values()) {
+			String prefix = INPUT + id++;
+			properties.setProperty(prefix, input.key);
+			properties.setProperty(prefix + TARGET, input.target.getAbsolutePath());
+			if (input.signature != null) {
+				properties.setProperty(prefix + SIGNATURE, input.signature);
+			}
+			for (Map.Entry<String, Long> dir : input.dirs.entrySet()) {
+				properties.setProperty(prefix + DIR + dir.getKey(), dir.getValue().toString());
+			}
+			for (Map.Entry<String, String> file : input.files.entrySet()) {
+				properties.setProperty(prefix + FILE + file.getKey(), file.getValue());
+			}
+		}
+		stateFile.getParentFile().mkdirs();
+		File tmp = new File(stateFile.getParentFile(), "." + stateFile.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, "Build state of " + webappDirectory);
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, stateFile);
+	}
+
+	/**
+	 * A source directory copied into the webapp.
+	 */
+	public class Input {
+
+		private final String key;
+
+		private File source;
+
+		private File target;
+
+		private Matcher matcher;
+
+		private String signature;
+
+		/** The timestamps of the directories, by path in the source. */
+		private final TreeMap<String, Long> dirs = new TreeMap<String, Long>();
+
+		/**
+		 * The stamps of the files and their copies when last copied, by path
+		 * in the source.
+		 */
+		private final TreeMap<String, String> files = new TreeMap<String, String>();
+
+		private final Map<String, String> pending = new HashMap<String, String>();
+
+		private final List<File> removed = new ArrayList<File>();
+
+		private Input(String key) {
+			this.key = key;
+		}
+
+		private void init(File source, File target, Matcher matcher, String signature) {
+			this.source = source;
+			this.target = target;
+			this.matcher = matcher;
+			if (signature == null ? this.signature != null : !signature.equals(this.signature)) {
+				for (Map.Entry<String, String> file : files.entrySet()) {
+					file.setValue(NEW);
+				}
+			}
+			this.signature = signature;
+		}
+
+		public File getSource(String name) {
+			return new File(source, name);
+		}
+
+		public File getTarget(String name) {
+			return new File(target, name);
+		}
+
+		/**
+		 * Lists the files of the input, listing again only the directories
+		 * which changed since the last build.
+		 *
+		 * @return the paths of the files in the source directory
+		 */
+		public List<String> scan() {
+			if (dirs.isEmpty()) {
+				if (source.isDirectory()) {
+					list("", source);
+				}
+			} else {
+				for (String path : new ArrayList<String>(dirs.keySet())) {
+					Long recorded = dirs.get(path);
+					if (recorded == null) {
+						// went with its parent
+						continue;
+					}
+					File dir = (path.length() == 0) ? source : new File(source, path);
+					if (dir.lastModified() != recorded.longValue()) {
+						if (dir.isDirectory()) {
+							list(path, dir);
+						} else {
+							forget(path);
+						}
+					}
+				}
+			}
+			return new ArrayList<String>(files.keySet());
+		}
+
+		/**
+		 * Lists a directory, and every directory under it not seen before.
+		 */
+		private void list(String path, File dir) {
+			long modified = dir.lastModified();
+			String[] names = dir.list();
+			listed++;
+			if (names == null) {
+				forget(path);
+				return;
+			}
+			dirs.put(path, Long.valueOf(modified));
+			String prefix = (path.length() == 0) ? "" : path + File.separator;
+			Set<String> found = new HashSet<String>();
+			for (int i = 0; i < names.length; i++) {
+				String name = prefix + names[i];
+				File file = new File(dir, names[i]);
+				if (file.isDirectory()) {
+					if (!dirs.containsKey(name)) {
+						list(name, file);
+					}
+				} else if (matcher.matches(name)) {
+					found.add(name);
+					if (!files.containsKey(name)) {
+						files.put(name, NEW);
+					}
+				}
+			}
+			for (Iterator<String> i = files.tailMap(prefix).keySet().iterator(); i.hasNext();) {
+				String name = i.next();
+				if (!name.startsWith(prefix)) {
+					break;
+				}
+				if (name.indexOf(File.separatorChar, prefix.length()) == -1 && !found.contains(name)) {
+					removed.add(getTarget(name));
+					i.remove();
+				}
+			}
+		}
+
+		/**
+		 * Forgets a directory which has gone, with everything under it.
+		 */
+		private void forget(String path) {
+			String prefix = (path.length() == 0) ? "" : path + File.separator;
+			dirs.remove(path);
+			for (Iterator<String> i = dirs.tailMap(prefix).keySet().iterator(); i.hasNext();) {
+				if (!i.next().startsWith(prefix)) {
+					break;
+				}
+				i.remove();
+			}
+			for (Iterator<String> i = files.tailMap(prefix).keySet().iterator(); i.hasNext();) {
+				String name = i.next();
+				if (!name.startsWith(prefix)) {
+					break;
+				}
+				removed.add(getTarget(name));
+				i.remove();
+			}
+		}
+
+		/**
+		 * Checks whether a file has to be copied, because the source changed
+		 * or its copy is no longer the one the last build wrote.
+		 */
+		public boolean isChanged(String name) {
+			String stamp = getStamp(getSource(name));
+			pending.put(name, stamp);
+			String recorded = files.get(name);
+			if (recorded == null || !recorded.startsWith(stamp + "|")) {
+				return true;
+			}
+			File target = getTarget(name);
+			return !target.isFile()
+					|| !recorded.equals(stamp + "|" + getStamp(target));
+		}
+
+		/**
+		 * Records that a file was copied, with the stamp it had when checked
+		 * and the stamp of the copy.
+		 */
+		public void copied(String name) {
+			String stamp = pending.remove(name);
+			if (stamp != null) {
+				files.put(name, stamp + "|" + getStamp(getTarget(name)));
+				copied++;
+			}
+		}
+
+		private String getStamp(File file) {
+			return file.lastModified() + ":" + file.length();
+		}
+	}
+
+	/**
+	 * Matches paths against includes and excludes the same way the
+	 * directory scanner does.
+	 */
+	private static class Matcher extends DirectoryScanner {
+
+		private final String key;
+
+		Matcher(String[] includes, String[] excludes, boolean defaultExcludes) {
+			setIncludes(includes);
+			setExcludes(excludes);
+			if (defaultExcludes) {
+				addDefaultExcludes();
+			}
+			StringBuffer sb = new StringBuffer();
+			append(sb, this.includes);
+			sb.append('|');
+			append(sb, this.excludes);
+			key = sb.toString();
+		}
+
+		private static void append(StringBuffer sb, String[] patterns) {
+			if (patterns == null) {
+				return;
+			}
+			for (int i = 0; i < patterns.length; i++) {
+				sb.append(i == 0 ? "" : ",").append(patterns[i]);
+			}
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		boolean matches(String name) {
+			return matches(includes, name, true) && !matches(excludes, name, false);
+		}
+
+		private boolean matches(String[] patterns, String name, boolean all) {
+			if (patterns == null) {
+				return all;
+			}
+			for (int i = 0; i < patterns.length; i++) {
+				if (matchPath(patterns[i], name, isCaseSensitive)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The class data sharing archive of a container, which lets the JVM map the
+ * classes of the deployed jars from a file rather than load and verify them
+ * from the jars at every start.
+ * <p/>
+ * Tomcat loads shared/lib and the components through its own class
+ * loaders, which a static class list only covers for the classes on the
+ * application class path. So the archive is recorded by a training start of
+ * the container, with <code>-XX:ArchiveClassesAtExit</code>, and mapped by
+ * later starts with <code>-XX:SharedArchiveFile</code>. Both options are
+ * added by a snippet sourced from the <code>setenv.sh</code> of the
+ * container: a start without the archive records it, a start with it maps
+ * it.
+ * <p/>
+ * The jars the archive was recorded for are kept next to it, one line of
+ * path, size and timestamp for each, followed by the home, version and
+ * options of the JVM it was recorded with. When they no longer match the
+ * deployed jars or the JVM the archive is removed so the next start records
+ * it again.
+ * The JVM checks every class it maps against the jar it would load it from,
+ * so a stale archive only costs start time, it is never wrong.
+ */
+public class CdsArchive {
+
+	public static final String SNIPPET_NAME = "sakai-cds.sh";
+
+	private static final String JARS_SUFFIX = ".jars";
+
+	private final File root;
+
+	private final String archivePath;
+
+	private final List<File> jars = new ArrayList<File>();
+
+	private String javaHome = System.getProperty("java.home");
+
+	private String vmVersion = System.getProperty("java.vm.version");
+
+	private String jvmOptions = "";
+
+	/**
+	 * @param root the container, the directory Tomcat knows as
+	 *            <code>CATALINA_BASE</code>
+	 * @param archivePath the path of the archive in the container
+	 */
+	public CdsArchive(File root, String archivePath) {
+		this.root = root;
+		this.archivePath = archivePath;
+	}
+
+	public File getArchive() {
+		return new File(root, archivePath);
+	}
+
+	private File getJarsFile() {
+		return new File(root, archivePath + JARS_SUFFIX);
+	}
+
+	/**
+	 * Adds the jars of a lib directory, in name order.
+	 */
+	public void addLibDirectory(File directory) {
+		String[] names = directory.list();
+		if (names == null) {
+			return;
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			File jar = new File(directory, names[i]);
+			if (names[i].endsWith(".jar") && jar.isFile() && !jars.contains(jar)) {
+				jars.add(jar);
+			}
+		}
+	}
+
+	/**
+	 * Adds the jars in <code>WEB-INF/lib</code> of each component.
+	 */
+	public void addComponents(File directory) {
+		String[] names = directory.list();
+		if (names == null) {
+			return;
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			addLibDirectory(new File(directory, names[i] + "/WEB-INF/lib"));
+		}
+	}
+
+	/**
+	 * @return the jars added, in the order they were added
+	 */
+	public List<File> getJars() {
+		return jars;
+	}
+
+	/**
+	 * Sets the JVM the archive is recorded with, the JVM running the plugin
+	 * without options by default.
+	 *
+	 * @param javaHome the <code>java.home</code> of the JVM
+	 * @param vmVersion the <code>java.vm.version</code> of the JVM
+	 * @param jvmOptions the options the container is started with
+	 */
+	public void setJvm(String javaHome, String vmVersion, String jvmOptions) {
+		this.javaHome = javaHome;
+		this.vmVersion = vmVersion;
+		this.jvmOptions = (jvmOptions == null) ? "" : jvmOptions.trim();
+	}
+
+	/**
+	 * @return a line of path in the container, size and timestamp for each
+	 *         jar, then a line each for the home, version and options of the
+	 *         JVM
+	 */
+	public String getFingerprint() {
+		String base = root.getAbsolutePath() + File.separator;
+		StringBuffer sb = new StringBuffer();
+		for (File jar : jars) {
+			String path = jar.getAbsolutePath();
+			if (path.startsWith(base)) {
+				path = path.substring(base.length());
+			}
+			sb.append(path.replace(File.separatorChar, '/')).append(' ')
+					.append(jar.length()).append(' ').append(jar.lastModified())
+					.append('\n');
+		}
+		sb.append("java.home ").append(javaHome).append('\n');
+		sb.append("java.vm.version ").append(vmVersion).append('\n');
+		sb.append("options ").append(jvmOptions).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * @return true if the archive exists and was recorded for the jars added
+	 * @throws IOException if the list of recorded jars could not be read
+	 */
+	public boolean isCurrent() throws IOException {
+		File recorded = getJarsFile();
+		return getArchive().isFile() && recorded.isFile()
+				&& getFingerprint().equals(FileUtils.fileRead(recorded));
+	}
+
+	/**
+	 * Removes an archive recorded for other jars and keeps the jars added as
+	 * the ones the next recording is for.
+	 *
+	 * @return true if an archive was removed
+	 * @throws IOException if the archive could not be removed
+	 */
+	public boolean reset() throws IOException {
+		File archive = getArchive();
+		boolean removed = false;
+		if (archive.isFile()) {
+			if (!archive.delete()) {
+				throw new IOException("Unable to remove " + archive);
+			}
+			removed = true;
+		}
+		write(getJarsFile(), getFingerprint());
+		return removed;
+	}
+
+	/**
+	 * Writes the snippet setting the options and has the
+	 * <code>setenv.sh</code> of the container source it, adding the line to
+	 * the end of an existing one.
+	 *
+	 * @param setenvPath the path of <code>setenv.sh</code> in the container
+	 * @return true if either file changed
+	 * @throws IOException if a file could not be written
+	 */
+	public boolean wire(String setenvPath) throws IOException {
+		File setenv = new File(root, setenvPath);
+		File snippet = new File(setenv.getParentFile(), SNIPPET_NAME);
+		boolean changed = write(snippet, formatSnippet());
+
+		String parent = new File(setenvPath).getParent();
+		String snippetPath = (parent == null) ? SNIPPET_NAME
+				: parent.replace(File.separatorChar, '/') + "/" + SNIPPET_NAME;
+		String source = ". \"$CATALINA_BASE/" + snippetPath + "\"";
+		String content = setenv.isFile() ? FileUtils.fileRead(setenv) : "#!/bin/sh\n";
+		if (content.indexOf(source) == -1) {
+			if (content.length() > 0 && !content.endsWith("\n")) {
+				content += "\n";
+			}
+			content += "# class data sharing for the deployed jars\n" + source + "\n";
+			changed |= write(setenv, content);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the shell snippet choosing between recording and mapping the
+	 * archive. The options are ignored by JVMs which do not know them.
+	 */
+	public String formatSnippet() {
+		String archive = "$CATALINA_BASE/" + archivePath.replace(File.separatorChar, '/');
+		return "# Written by the cds goal of the Sakai plugin, changes are overwritten.\n"
+				+ "SAKAI_CDS_ARCHIVE=\"" + archive + "\"\n"
+				+ "if [ -f \"$SAKAI_CDS_ARCHIVE\" ]; then\n"
+				+ "  CATALINA_OPTS=\"$CATALINA_OPTS -XX:+IgnoreUnrecognizedVMOptions"
+				+ " -XX:SharedArchiveFile=$SAKAI_CDS_ARCHIVE -Xshare:auto\"\n"
+				+ "else\n"
+				+ "  mkdir -p \"`dirname \"$SAKAI_CDS_ARCHIVE\"`\"\n"
+				+ "  CATALINA_OPTS=\"$CATALINA_OPTS -XX:+IgnoreUnrecognizedVMOptions"
+				+ " -XX:ArchiveClassesAtExit=$SAKAI_CDS_ARCHIVE\"\n"
+				+ "fi\n";
+	}
+
+	/**
+	 * @return true if the file changed
+	 */
+	private static boolean write(File file, String content) throws IOException {
+		if (file.isFile() && content.equals(FileUtils.fileRead(file))) {
+			return false;
+		}
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, file);
+		return true;
+	}
+}
@@ -0,0 +1,116 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Installs a bundle written by the bundle goal into a container, without
+ * needing the project or the artifacts it was built from.
+ *
+ * @goal apply
+ * @requiresProject false
+ */
+public class ComponentApplyMojo
+    extends AbstractMojo
+{
+    /**
+     * The container to install the bundle into.
+     *
+     * @parameter expression="${maven.tomcat.home}"
+     * @required
+     */
+    private File deployDirectory;
+
+    /**
+     * The bundle to install.
+     *
+     * @parameter expression="${sakai.bundle.file}"
+     * @required
+     */
+    private File bundleFile;
+
+    /**
+     * The number of files to decompress at the same time. 0 uses one thread
+     * per available processor.
+     *
+     * @parameter expression="${sakai.unpack.threads}" default-value="0"
+     */
+    private int unpackThreads = 0;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !bundleFile.isFile() )
+        {
+            throw new MojoFailureException( "Bundle " + bundleFile + " does not exist" );
+        }
+        int threads = ( unpackThreads > 0 ) ? unpackThreads : Runtime.getRuntime().availableProcessors();
+        DeployBundle bundle = new DeployBundle( bundleFile );
+        long start = System.currentTimeMillis();
+        try
+        {
+            bundle.apply( deployDirectory, threads );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to apply " + bundleFile + " to " + deployDirectory, e );
+        }
+        getLog().info( "Applied " + bundleFile + " to " + deployDirectory + ": " + bundle.getWrittenCount()
+            + " files written (" + DeployPlan.formatBytes( bundle.getWrittenBytes() ) + "), "
+            + bundle.getUnchangedCount() + " unchanged, " + bundle.getRemovedCount() + " removed in "
+            + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+    public File getDeployDirectory()
+    {
+        return deployDirectory;
+    }
+
+    public void setDeployDirectory( File deployDirectory )
+    {
+        this.deployDirectory = deployDirectory;
+    }
+
+    public File getBundleFile()
+    {
+        return bundleFile;
+    }
+
+    public void setBundleFile( File bundleFile )
+    {
+        this.bundleFile = bundleFile;
+    }
+
+    public int getUnpackThreads()
+    {
+        return unpackThreads;
+    }
+
+    public void setUnpackThreads( int unpackThreads )
+    {
+        this.unpackThreads = unpackThreads;
+    }
+}
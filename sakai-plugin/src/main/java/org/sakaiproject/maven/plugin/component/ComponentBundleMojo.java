@@ -0,0 +1,119 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Runs the deploy into a staging directory and writes the result as a single
+ * bundle, which the apply goal installs into a container.
+ *
+ * @goal bundle
+ * @requiresDependencyResolution runtime
+ */
+public class ComponentBundleMojo
+    extends ComponentDeployMojo
+{
+    /**
+     * The bundle to write.
+     *
+     * @parameter expression="${sakai.bundle.file}" default-value="${project.build.directory}/${project.build.finalName}-deploy.zip"
+     * @required
+     */
+    private File bundleFile;
+
+    /**
+     * The directory the deploy is staged in before it is bundled. It is
+     * emptied first.
+     *
+     * @parameter expression="${sakai.bundle.staging}" default-value="${project.build.directory}/sakai-bundle"
+     * @required
+     */
+    private File stagingDirectory;
+
+    protected String getGoalName()
+    {
+        return "bundle";
+    }
+
+    public void doExecute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( isDryRun() )
+        {
+            super.doExecute();
+            return;
+        }
+        try
+        {
+            FileUtils.deleteDirectory( stagingDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to empty " + stagingDirectory, e );
+        }
+        stagingDirectory.mkdirs();
+        setDeployDirectory( stagingDirectory );
+        // a bundle is always a complete deploy into a plain directory
+        setReleaseMode( false );
+        setUseJournal( false );
+        super.doExecute();
+
+        DeployBundle bundle = new DeployBundle( bundleFile );
+        BuildMetrics.Timer timer = getMetrics().start( "bundle", bundleFile.getName() );
+        try
+        {
+            bundle.create( stagingDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to write bundle " + bundleFile, e );
+        }
+        timer.stop( bundle.getWrittenBytes(), bundleFile.length(), bundle.getWrittenCount() );
+        getLog().info( "Bundled " + bundle.getWrittenCount() + " files ("
+            + DeployPlan.formatBytes( bundle.getWrittenBytes() ) + ") into " + bundleFile + " ("
+            + DeployPlan.formatBytes( bundleFile.length() ) + ")" );
+    }
+
+    public File getBundleFile()
+    {
+        return bundleFile;
+    }
+
+    public void setBundleFile( File bundleFile )
+    {
+        this.bundleFile = bundleFile;
+    }
+
+    public File getStagingDirectory()
+    {
+        return stagingDirectory;
+    }
+
+    public void setStagingDirectory( File stagingDirectory )
+    {
+        this.stagingDirectory = stagingDirectory;
+    }
+}
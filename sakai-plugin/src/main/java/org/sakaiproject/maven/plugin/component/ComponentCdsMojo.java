@@ -0,0 +1,306 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Prepares a class data sharing archive for the jars deployed to the
+ * container, shared/lib, common/lib and the components, and wires it into
+ * the <code>setenv.sh</code> of the container so the next start uses it.
+ * <p/>
+ * When the deployed jars changed since the archive was recorded, the
+ * archive is removed and the next start of the container records it again.
+ * The archive is also recorded again when the JVM running the plugin or the
+ * <code>CATALINA_OPTS</code> and <code>JAVA_OPTS</code> it passes on
+ * change. With training turned on, the container is started once on that
+ * JVM to record the archive and stopped as soon as it is up. Needs a JVM with
+ * dynamic archives, JDK 13 or later, older JVMs ignore the options.
+ *
+ * @goal cds
+ */
+public class ComponentCdsMojo
+    extends ComponentDeployMojo
+{
+    /**
+     * Whether to start the container to record the archive. When off, the
+     * next start of the container records it.
+     *
+     * @parameter expression="${sakai.cds.train}" default-value="false"
+     */
+    private boolean train = false;
+
+    /**
+     * The time the training start may take to come up and stop, in
+     * seconds.
+     *
+     * @parameter expression="${sakai.cds.timeout}" default-value="600"
+     */
+    private int trainingTimeout = 600;
+
+    /**
+     * The line the container logs once it has started.
+     *
+     * @parameter expression="${sakai.cds.startedMessage}" default-value="Server startup in"
+     */
+    private String startedMessage = "Server startup in";
+
+    protected String getGoalName()
+    {
+        return "cds";
+    }
+
+    public void doExecute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        File root = getDeployDirectory();
+        if ( root == null )
+        {
+            throw new MojoFailureException( "deployDirectory has not been set" );
+        }
+        String archivePath = getLayoutProperty( "cds.archive" );
+        String setenvPath = getLayoutProperty( "cds.setenv" );
+        if ( archivePath == null || setenvPath == null )
+        {
+            throw new MojoFailureException( "The " + ( getAppServer() == null ? "default" : getAppServer() )
+                + " layout has no class data sharing settings" );
+        }
+
+        CdsArchive archive = new CdsArchive( root, archivePath );
+        archive.setJvm( System.getProperty( "java.home" ), System.getProperty( "java.vm.version" ),
+                        getJvmOptions() );
+        Set<String> libs = new LinkedHashSet<String>();
+        libs.add( getDeploySubDir( "shared/lib" ) );
+        libs.add( getDeploySubDir( "common/lib" ) );
+        for ( String lib : libs )
+        {
+            archive.addLibDirectory( new File( root, lib ) );
+        }
+        archive.addComponents( new File( root, getDeploySubDir( "components" ) ) );
+        try
+        {
+            if ( archive.wire( setenvPath ) )
+            {
+                getLog().info( "Wired " + archive.getArchive() + " into " + new File( root, setenvPath ) );
+            }
+            if ( archive.isCurrent() )
+            {
+                getLog().info( "The class data sharing archive is up to date with the "
+                    + archive.getJars().size() + " deployed jars" );
+                return;
+            }
+            if ( archive.reset() )
+            {
+                getLog().info( "Removed the class data sharing archive recorded for other jars" );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to prepare the class data sharing archive in " + root, e );
+        }
+
+        if ( !train )
+        {
+            getLog().info( "The next start of " + root + " records the class data sharing archive for "
+                + archive.getJars().size() + " jars" );
+            return;
+        }
+        BuildMetrics.Timer timer = getMetrics().start( "cds", root.getName() );
+        trainContainer( root );
+        File recorded = archive.getArchive();
+        timer.stop( 0, recorded.length(), archive.getJars().size() );
+        if ( !recorded.isFile() )
+        {
+            throw new MojoFailureException( "The training start did not record " + recorded
+                + ", check the container runs on JDK 13 or later" );
+        }
+        getLog().info( "Recorded " + recorded + " (" + recorded.length() / 1024 + " KB) for "
+            + archive.getJars().size() + " jars" );
+    }
+
+    /**
+     * Starts the container with its start script, waits for the started
+     * message and stops it again. The JVM writes the archive as it exits.
+     */
+    private void trainContainer( File root )
+        throws MojoExecutionException, MojoFailureException
+    {
+        String startPath = getLayoutProperty( "cds.start" );
+        File script = ( startPath == null ) ? null : new File( root, startPath );
+        if ( script == null || !script.isFile() )
+        {
+            throw new MojoFailureException( "No start script in " + root + " to record the class data "
+                + "sharing archive with, set sakai.cds.train to false to record it on the next start" );
+        }
+        getLog().info( "Starting " + root + " to record the class data sharing archive" );
+        long deadline = System.currentTimeMillis() + trainingTimeout * 1000L;
+        try
+        {
+            final Process server = runScript( root, script, "run" );
+            final boolean[] started = new boolean[1];
+            Thread reader = new Thread( "cds-training" )
+            {
+                public void run()
+                {
+                    try
+                    {
+                        BufferedReader in = new BufferedReader( new InputStreamReader( server.getInputStream() ) );
+                        for ( String line = in.readLine(); line != null; line = in.readLine() )
+                        {
+                            getLog().debug( line );
+                            if ( line.indexOf( startedMessage ) != -1 )
+                            {
+                                synchronized ( started )
+                                {
+                                    started[0] = true;
+                                    started.notifyAll();
+                                }
+                            }
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        getLog().debug( "Stopped reading the training start", e );
+                    }
+                }
+            };
+            reader.setDaemon( true );
+            reader.start();
+            synchronized ( started )
+            {
+                while ( !started[0] && !hasExited( server ) && System.currentTimeMillis() < deadline )
+                {
+                    started.wait( 500 );
+                }
+            }
+            if ( hasExited( server ) )
+            {
+                throw new MojoFailureException( "The training start of " + root + " exited with "
+                    + server.exitValue() );
+            }
+            if ( !started[0] )
+            {
+                getLog().warn( "The training start did not come up in " + trainingTimeout
+                    + " seconds, stopping it" );
+            }
+            runScript( root, script, "stop" ).waitFor();
+            while ( !hasExited( server ) && System.currentTimeMillis() < deadline + 60000 )
+            {
+                Thread.sleep( 500 );
+            }
+            if ( !hasExited( server ) )
+            {
+                server.destroy();
+                throw new MojoFailureException( "The training start of " + root + " did not stop" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while recording the class data sharing archive", e );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to run " + script, e );
+        }
+    }
+
+    /**
+     * @return the options the container picks up from the environment, which
+     *         the training start passes on
+     */
+    private static String getJvmOptions()
+    {
+        StringBuffer options = new StringBuffer();
+        String[] names = { "JAVA_OPTS", "CATALINA_OPTS" };
+        for ( int i = 0; i < names.length; i++ )
+        {
+            String value = System.getenv( names[i] );
+            if ( value != null && value.trim().length() > 0 )
+            {
+                options.append( names[i] ).append( '=' ).append( value.trim() ).append( ' ' );
+            }
+        }
+        return options.toString();
+    }
+
+    private Process runScript( File root, File script, String command )
+        throws IOException
+    {
+        ProcessBuilder builder = new ProcessBuilder( new String[] { "sh", script.getAbsolutePath(), command } );
+        builder.directory( root );
+        builder.environment().put( "CATALINA_BASE", root.getAbsolutePath() );
+        // record on the JVM the archive is fingerprinted for
+        builder.environment().put( "JAVA_HOME", System.getProperty( "java.home" ) );
+        builder.environment().remove( "JRE_HOME" );
+        builder.redirectErrorStream( true );
+        return builder.start();
+    }
+
+    private static boolean hasExited( Process process )
+    {
+        try
+        {
+            process.exitValue();
+            return true;
+        }
+        catch ( IllegalThreadStateException e )
+        {
+            return false;
+        }
+    }
+
+    public boolean isTrain()
+    {
+        return train;
+    }
+
+    public void setTrain( boolean train )
+    {
+        this.train = train;
+    }
+
+    public int getTrainingTimeout()
+    {
+        return trainingTimeout;
+    }
+
+    public void setTrainingTimeout( int trainingTimeout )
+    {
+        this.trainingTimeout = trainingTimeout;
+    }
+
+    public String getStartedMessage()
+    {
+        return startedMessage;
+    }
+
+    public void setStartedMessage( String startedMessage )
+    {
+        this.startedMessage = startedMessage;
+    }
+}
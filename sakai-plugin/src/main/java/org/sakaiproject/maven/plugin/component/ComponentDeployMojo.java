@@ -22,9 +22,27 @@ package org.sakaiproject.maven.plugin.component;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
@@ -48,10 +66,10 @@ import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 public class ComponentDeployMojo extends AbstractComponentMojo {
 	
 	/**
-	 * The directory where the webapp is built.
+	 * The directory where the webapp is built. Not required by the bundle
+	 * goal, which deploys into its own staging directory.
 	 * 
 	 * @parameter expression="${maven.tomcat.home}"
-	 * @required
 	 */
 	private File deployDirectory;
 
@@ -61,6 +79,137 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 	 * @parameter expression="${sakai.app.server}"
 	 */
 	private String appServer = null;
+
+	/**
+	 * The number of threads used when deploying a distro. With more than one
+	 * thread the dependencies of the distro are resolved and deployed by a
+	 * pool of workers. Their models are still built one at a time, as the
+	 * Maven project builder is not safe to use from several threads, so a
+	 * distro deploy with a cold model cache gains little from more threads.
+	 * 
+	 * @parameter expression="${sakai.deploy.threads}" default-value="1"
+	 */
+	private int deployThreads = 1;
+
+	/**
+	 * Whether to keep a journal of the deployed artifacts in the deploy
+	 * directory. Artifacts which have not changed since they were last
+	 * deployed, and whose files are all still in place, are skipped.
+	 * 
+	 * @parameter expression="${sakai.deploy.journal}" default-value="true"
+	 */
+	private boolean useJournal = true;
+
+	private DeployJournal journal;
+
+	/**
+	 * Whether to update already unpacked components in place. Only the files
+	 * which differ from the component archive are rewritten and files no
+	 * longer in the archive are removed, instead of deleting the component and
+	 * unpacking it again.
+	 * 
+	 * @parameter expression="${sakai.deploy.delta}" default-value="false"
+	 */
+	private boolean deltaUnpack = false;
+
+	/**
+	 * How jars and wars are put in place when they are deployed: copy,
+	 * hardlink or symlink. Links fall back to copying when they cannot be
+	 * made, for example when the local repository is on another filesystem.
+	 * 
+	 * @parameter expression="${sakai.deploy.transfer}" default-value="copy"
+	 */
+	private String transferStrategy = "copy";
+
+	private FileTransfer fileTransfer;
+
+	/**
+	 * Whether an artifact copied from the repository which does not match
+	 * the <code>.sha1</code> checksum next to it fails the deploy. Otherwise
+	 * the mismatch is only logged as a warning, as local repositories often
+	 * hold stale checksums.
+	 * 
+	 * @parameter expression="${sakai.deploy.verifyChecksums}" default-value="false"
+	 */
+	private boolean verifyChecksums = false;
+
+	/**
+	 * Whether to keep a single copy of each distinct jar bundled by the
+	 * unpacked components. The jars are hard linked to a store in the deploy
+	 * directory, so identical libraries share one file on disk and in the
+	 * page cache. Nothing is linked if the filesystem has no hard links.
+	 * 
+	 * @parameter expression="${sakai.deploy.dedupJars}" default-value="false"
+	 */
+	private boolean deduplicateJars = false;
+
+	private JarStore jarStore;
+
+	/**
+	 * Whether to work out which of the deployed jars the servlet container
+	 * has to scan for tag libraries and web fragments, and write the lists of
+	 * jars to skip and to scan to its configuration. The properties and the
+	 * file they go in are given by the <code>sakai.app.server</code> layout,
+	 * for example <code>catalina.properties</code> for tomcat7 and tomcat8.
+	 * 
+	 * @parameter expression="${sakai.deploy.jarScan}" default-value="false"
+	 */
+	private boolean writeJarScan = false;
+
+	/**
+	 * Whether to deploy into a new release instead of the live tree. The
+	 * release is built in <code>releases/</code> under the deploy directory,
+	 * starting from hard links to the current release, and the
+	 * <code>current</code> link is switched to it once the deploy has
+	 * succeeded. The server should reach its components, webapps and lib
+	 * directories through <code>current</code>. Configuration and tomcat
+	 * overlays write outside those directories and cannot be deployed in
+	 * release mode.
+	 * 
+	 * @parameter expression="${sakai.deploy.release}" default-value="false"
+	 */
+	private boolean releaseMode = false;
+
+	/**
+	 * The number of previous releases kept for rolling back.
+	 * 
+	 * @parameter expression="${sakai.deploy.release.keep}" default-value="3"
+	 */
+	private int releasesToKeep = 3;
+
+	/** The release being built, when deploying in release mode. */
+	private File activeRelease;
+
+	/**
+	 * Whether to cache the models of distro dependencies in the local
+	 * repository. A cached model is used as long as the POM of the dependency
+	 * and of its parents are unchanged, which saves building every model
+	 * again on each distro deploy.
+	 * 
+	 * @parameter expression="${sakai.deploy.modelCache}" default-value="true"
+	 */
+	private boolean useModelCache = true;
+
+	private ProjectModelCache modelCache;
+
+	/**
+	 * The number of threads used to resolve the artifacts of a deploy before
+	 * any of them are copied or unpacked.
+	 * 
+	 * @parameter expression="${sakai.deploy.resolveThreads}" default-value="1"
+	 */
+	private int resolveThreads = 1;
+
+	/**
+	 * Whether to only work out and print the deploy plan, without writing
+	 * anything into the deploy directory.
+	 * 
+	 * @parameter expression="${sakai.deploy.dryRun}" default-value="false"
+	 */
+	private boolean dryRun = false;
+
+	/** Nanoseconds spent resolving artifacts, across all threads. */
+	private final AtomicLong resolveTime = new AtomicLong();
 	
 	/**
 	 * The ID of the artifact to use when deploying.
@@ -87,6 +236,9 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 		defaultLocatioMap.setProperty("server/lib", "server/lib/");
 		defaultLocatioMap.setProperty("common/lib", "common/lib/");
 		defaultLocatioMap.setProperty("configuration", "/");
+		defaultLocatioMap.setProperty("cds.archive", "work/sakai-cds.jsa");
+		defaultLocatioMap.setProperty("cds.setenv", "bin/setenv.sh");
+		defaultLocatioMap.setProperty("cds.start", "bin/catalina.sh");
 	}
 
 	public File getDeployDirectory() {
@@ -106,6 +258,16 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 	{
 		this.appServer = appServer;
 	}
+
+	public int getDeployThreads()
+	{
+		return deployThreads;
+	}
+
+	public void setDeployThreads(int deployThreads)
+	{
+		this.deployThreads = deployThreads;
+	}
 	
 	public String getDeployId(MavenProject project)
 	{
@@ -117,8 +279,302 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 		return deployId;
 	}
 
+	public boolean isUseJournal()
+	{
+		return useJournal;
+	}
+
+	public void setUseJournal(boolean useJournal)
+	{
+		this.useJournal = useJournal;
+	}
+
+	public boolean isDeltaUnpack()
+	{
+		return deltaUnpack;
+	}
+
+	public void setDeltaUnpack(boolean deltaUnpack)
+	{
+		this.deltaUnpack = deltaUnpack;
+	}
+
+	public boolean isVerifyChecksums()
+	{
+		return verifyChecksums;
+	}
+
+	public void setVerifyChecksums(boolean verifyChecksums)
+	{
+		this.verifyChecksums = verifyChecksums;
+	}
+
+	public boolean isDeduplicateJars()
+	{
+		return deduplicateJars;
+	}
+
+	public void setDeduplicateJars(boolean deduplicateJars)
+	{
+		this.deduplicateJars = deduplicateJars;
+	}
+
+	public boolean isWriteJarScan()
+	{
+		return writeJarScan;
+	}
+
+	public void setWriteJarScan(boolean writeJarScan)
+	{
+		this.writeJarScan = writeJarScan;
+	}
+
+	public String getTransferStrategy()
+	{
+		return transferStrategy;
+	}
+
+	public void setTransferStrategy(String transferStrategy)
+	{
+		this.transferStrategy = transferStrategy;
+	}
+
+	public boolean isUseModelCache()
+	{
+		return useModelCache;
+	}
+
+	public void setUseModelCache(boolean useModelCache)
+	{
+		this.useModelCache = useModelCache;
+	}
+
+	public int getResolveThreads()
+	{
+		return resolveThreads;
+	}
+
+	public void setResolveThreads(int resolveThreads)
+	{
+		this.resolveThreads = resolveThreads;
+	}
+
+	public boolean isDryRun()
+	{
+		return dryRun;
+	}
+
+	public void setDryRun(boolean dryRun)
+	{
+		this.dryRun = dryRun;
+	}
+
+	public boolean isReleaseMode()
+	{
+		return releaseMode;
+	}
+
+	public void setReleaseMode(boolean releaseMode)
+	{
+		this.releaseMode = releaseMode;
+	}
+
+	public int getReleasesToKeep()
+	{
+		return releasesToKeep;
+	}
+
+	public void setReleasesToKeep(int releasesToKeep)
+	{
+		this.releasesToKeep = releasesToKeep;
+	}
+
+	protected String getGoalName() {
+		return "deploy";
+	}
+
+	/**
+	 * The trash sits at the top of the deploy directory, outside the
+	 * directories the container scans and outside any release.
+	 */
+	protected File getTrashDirectory() {
+		return (getDeployDirectory() == null) ? null : new File(getDeployDirectory(),
+				TrashCan.TRASH_NAME);
+	}
+
+	/**
+	 * @return the directory the deploy writes into, which is the release being
+	 *         built in release mode
+	 */
+	protected File getTargetDirectory() {
+		return (activeRelease != null) ? activeRelease : getDeployDirectory();
+	}
+
 	public void doExecute() throws MojoExecutionException, MojoFailureException {
-		deployToContainer(project);
+		try {
+			fileTransfer = new FileTransfer(FileTransfer.Strategy.parse(transferStrategy));
+		} catch (IllegalArgumentException e) {
+			throw new MojoFailureException(e.getMessage());
+		}
+		fileTransfer.setVerifyChecksums(verifyChecksums);
+		jarStore = null;
+		if (dryRun) {
+			logPlan(createPlan());
+			return;
+		}
+		long start = System.nanoTime();
+		resolveTime.set(0);
+		try {
+			if (releaseMode) {
+				deployRelease();
+			} else {
+				try {
+					deployToContainer(project);
+				} finally {
+					saveJournal();
+				}
+				collectJarStore(getDeployDirectory());
+				writeJarScanConfig(getDeployDirectory());
+			}
+		} finally {
+			saveModelCache();
+		}
+		long total = System.nanoTime() - start;
+		long resolving = resolveTime.get();
+		getLog().info("Deployed files: " + fileTransfer.getSummary());
+		for (String mismatch : fileTransfer.getChecksumMismatches()) {
+			getLog().warn(mismatch);
+		}
+		logJarStore();
+		getLog().info("Resolving artifacts took " + resolving / 1000000 + " ms, "
+				+ "deploying took " + Math.max(0, total - resolving) / 1000000 + " ms");
+	}
+
+	/**
+	 * Builds a new release next to the current one and makes it live once
+	 * the deploy has succeeded. A failed release is thrown away and the
+	 * current release is left untouched.
+	 */
+	private void deployRelease() throws MojoExecutionException,
+			MojoFailureException {
+		if (getDeployDirectory() == null) {
+			throw new MojoFailureException("deployDirectory has not been set");
+		}
+		checkReleasable(Collections.singletonList(project));
+		ReleaseManager releases = new ReleaseManager(getDeployDirectory());
+		boolean deployed = false;
+		try {
+			// several locations may share a directory, e.g. lib/ on tomcat 6
+			Set<String> seedPaths = new LinkedHashSet<String>();
+			seedPaths.add(getDeploySubDir("components"));
+			seedPaths.add(getDeploySubDir("webapps"));
+			seedPaths.add(getDeploySubDir("shared/lib"));
+			seedPaths.add(getDeploySubDir("common/lib"));
+			seedPaths.add(getDeploySubDir("server/lib"));
+			activeRelease = releases.createRelease(seedPaths);
+			getLog().info("Building release " + activeRelease + " ("
+					+ releases.getLinkedCount() + " files linked, "
+					+ releases.getCopiedCount() + " copied)");
+			try {
+				deployToContainer(project);
+			} finally {
+				saveJournal();
+			}
+			collectJarStore(activeRelease);
+			writeJarScanConfig(activeRelease);
+			releases.activate(activeRelease);
+			deployed = true;
+			getLog().info("Switched " + releases.getCurrentLink() + " to " + activeRelease);
+			for (File removed : releases.prune(releasesToKeep)) {
+				getLog().info("Removed old release " + removed);
+			}
+		} catch (IOException e) {
+			getLog().debug("Failed to deploy release ", e);
+			throw new MojoFailureException("Failed to deploy release :"
+					+ e.getMessage());
+		} finally {
+			if (!deployed && activeRelease != null) {
+				getLog().info("Discarding release " + activeRelease);
+				releases.discard(activeRelease);
+			}
+			activeRelease = null;
+			journal = null;
+		}
+	}
+
+	/**
+	 * A release only makes the components, webapps and lib directories live
+	 * through the <code>current</code> link. Configuration and tomcat
+	 * overlays write elsewhere in the container, where switching releases
+	 * would never show them, so they are refused before anything is written.
+	 */
+	private void checkReleasable(List<MavenProject> projects)
+			throws MojoFailureException {
+		if (!releaseMode) {
+			return;
+		}
+		List<String> refused = new ArrayList<String>();
+		for (MavenProject dependentProject : projects) {
+			String packaging = dependentProject.getPackaging();
+			if ("sakai-configuration".equals(packaging)
+					|| ("pom".equals(packaging) && "tomcat-overlay".equals(dependentProject
+							.getProperties().getProperty("deploy.target")))) {
+				refused.add(dependentProject.getId());
+			}
+		}
+		if (!refused.isEmpty()) {
+			throw new MojoFailureException("Configuration and tomcat overlays cannot be "
+					+ "deployed in release mode, as the current link does not cover where they "
+					+ "are written. Deploy " + refused + " without sakai.deploy.release");
+		}
+	}
+
+	/**
+	 * In release mode files may be hard links shared with earlier releases,
+	 * so archives are unpacked into a staging directory and the files renamed
+	 * into place, rather than written over the existing ones.
+	 */
+	protected void unpack(File file, File location, String archiveExt,
+			boolean overwrite) throws MojoExecutionException,
+			NoSuchArchiverException {
+		if (activeRelease == null) {
+			super.unpack(file, location, archiveExt, overwrite);
+			return;
+		}
+		File staging = new File(activeRelease, ".unpack-" + Thread.currentThread().getId()
+				+ "-" + System.nanoTime());
+		try {
+			super.unpack(file, staging, archiveExt, true);
+			moveInto(staging, location, overwrite);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error unpacking file: " + file
+					+ "to: " + location, e);
+		} finally {
+			deleteAll(staging);
+		}
+	}
+
+	/**
+	 * Renames the files of a staging directory into place. Without
+	 * <code>overwrite</code> an existing file is kept when it is at least as
+	 * new as the staged one, as the unarchivers do.
+	 */
+	private void moveInto(File staging, File location, boolean overwrite)
+			throws IOException {
+		location.mkdirs();
+		File[] files = staging.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			File target = new File(location, files[i].getName());
+			if (files[i].isDirectory()) {
+				moveInto(files[i], target, overwrite);
+			} else if (overwrite || !target.exists()
+					|| target.lastModified() < files[i].lastModified()) {
+				ZipExtractor.replace(files[i], target);
+			}
+		}
 	}
 
 	public void deployToContainer(MavenProject project) throws MojoExecutionException,
@@ -130,7 +586,7 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 			// iterate through the this to extract dependencies and deploy
 
 			String packaging = project.getPackaging();
-			File deployDir = getDeployDirectory();
+			File deployDir = getTargetDirectory();
 			if (deployDir == null) {
 				throw new MojoFailureException(
 						"deployDirectory has not been set");
@@ -155,8 +611,7 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				}
 				File artifactFile = artifact.getFile();
 				if (artifactFile == null) {
-					artifactResolver.resolve(artifact, remoteRepositories,
-							artifactRepository);
+					resolve(artifact);
 					artifactFile = artifact.getFile();
 				}
 				if (artifactFile == null) {
@@ -164,11 +619,22 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 							"Artifact File is null for " + getProjectId());
 					throw new MojoFailureException("Artifact File is null ");
 				}
-				getLog().info(
-						"Unpacking " + artifactFile + " to " + destinationDir);
-				deleteAll(destinationDir);
-				destinationDir.mkdirs();
-				unpack(artifactFile, destinationDir, "war", false);
+				if (!isDeployed(destinationDir, artifact, artifactFile)) {
+					getLog().info(
+							"Unpacking " + artifactFile + " to " + destinationDir);
+					if (deltaUnpack && destinationDir.isDirectory()) {
+						unpackDelta(artifactFile, destinationDir);
+					} else {
+						deleteAll(destinationDir);
+						destinationDir.mkdirs();
+						unpack(artifactFile, destinationDir, "war", false);
+					}
+					if (deduplicateJars) {
+						getJarStore().deduplicate(destinationDir);
+					}
+					recordDeployed(destinationDir, artifact, artifactFile,
+							listArchive(artifactFile, destinationDir), null);
+				}
 			}
 			else if ("sakai-configuration".equals(packaging)) {
 				// UseCase: Sakai configuration in a pom
@@ -188,8 +654,7 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				}
 				File artifactFile = artifact.getFile();
 				if (artifactFile == null) {
-					artifactResolver.resolve(artifact, remoteRepositories,
-							artifactRepository);
+					resolve(artifact);
 					artifactFile = artifact.getFile();
 				}
 				if (artifactFile == null) {
@@ -197,11 +662,15 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 							"Artifact File is null for " + getProjectId());
 					throw new MojoFailureException("Artifact File is null ");
 				}
-				getLog().info(
-						"Unpacking " + artifactFile + " to " + destinationDir);
-				destinationDir.mkdirs();
-				// we use a zip unarchiver
-				unpack(artifactFile, destinationDir, "zip" , false);
+				if (!isDeployed(destinationDir, artifact, artifactFile)) {
+					getLog().info(
+							"Unpacking " + artifactFile + " to " + destinationDir);
+					destinationDir.mkdirs();
+					// we use a zip unarchiver
+					unpack(artifactFile, destinationDir, "zip" , false);
+					recordDeployed(destinationDir, artifact, artifactFile,
+							listArchive(artifactFile, destinationDir));
+				}
 			} else if ("war".equals(packaging)) {
 				// UseCase: war webapp
 				// deploy to webapps but dont unpack
@@ -236,19 +705,23 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				// deploy the contents
 				Properties p = project.getProperties();
 				String deployTarget = p.getProperty("deploy.target");
+				if (isLibraryTarget(deployTarget) || "tomcat-overlay".equals(deployTarget)) {
+					prefetch(getDeployedScope(artifacts, "tomcat-overlay".equals(deployTarget)));
+				}
 				if ("shared".equals(deployTarget)) {
 					File destinationDir = new File(deployDir, getDeploySubDir("shared/lib"));
 					destinationDir.mkdirs();
-					deployArtifacts(artifacts, destinationDir);
+					deployArtifacts(artifacts, destinationDir, project);
 				} else if ("common".equals(deployTarget)) {
 					File destinationDir = new File(deployDir, getDeploySubDir("common/lib"));
 					destinationDir.mkdirs();
-					deployArtifacts(artifacts, destinationDir);
+					deployArtifacts(artifacts, destinationDir, project);
 				} else if ("server".equals(deployTarget)) {
 					File destinationDir = new File(deployDir, getDeploySubDir("server/lib"));
 					destinationDir.mkdirs();
-					deployArtifacts(artifacts, destinationDir);
+					deployArtifacts(artifacts, destinationDir, project);
 				} else if ( "tomcat-overlay".equals(deployTarget)) {
+				    if (!isOverlayDeployed(artifacts, deployDir)) {
 				        String cleanTargetPaths = p.getProperty("clean.targets");
 				        String[] cleanPaths = cleanTargetPaths.split(";");
 				        for ( String pathToClean : cleanPaths ) {
@@ -258,19 +731,21 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				        }
 				        deployDir.mkdirs();
 				        deployOverlay(artifacts, deployDir);
+				    }
 				        
 				} else if ("distro".equals(deployTarget)) {
 					// Big deploy of all artifacts....
-					for (Artifact artifact: (Set<Artifact>)artifacts) {
-						try {
-							MavenProject dependentProject = mavenProjectBuilder.buildFromRepository(artifact,
-									remoteRepositories, artifactRepository);
-							dependentProject.setDependencyArtifacts(dependentProject.createArtifacts(artifactFactory, null, null));
+					if (deployThreads > 1) {
+						deployDistro(artifacts);
+					} else {
+						List<MavenProject> dependentProjects = new ArrayList<MavenProject>();
+						for (Artifact artifact: (Set<Artifact>)artifacts) {
+							dependentProjects.add(buildDependentProject(artifact));
+						}
+						checkReleasable(dependentProjects);
+						prefetchProjects(dependentProjects);
+						for (MavenProject dependentProject : dependentProjects) {
 							deployToContainer(dependentProject);
-						} catch (ProjectBuildingException e) {
-							throw new MojoFailureException("Failed to build project for :"+ artifact.getId());
-						} catch (InvalidDependencyVersionException e) {
-							throw new MojoFailureException("Failed to find depdendencies for: "+ artifact.getId());
 						}
 					}
 					
@@ -305,9 +780,29 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 	 * @param string2
 	 * @return
 	 */
-	private String getDeploySubDir(String key)
+	protected synchronized String getDeploySubDir(String key)
+	{
+		String deploySubDir = getLayoutProperty(key);
+		if ( deploySubDir == null || deploySubDir.trim().length() == 0 ) {
+			deploySubDir = defaultLocatioMap.getProperty(key);
+		}
+		if (deploySubDir == null ) {
+		  deploySubDir = key;
+		}
+		if ( !deploySubDir.endsWith("/") ) {
+			deploySubDir = deploySubDir + "/";
+		}
+		return deploySubDir;
+	}
+
+	/**
+	 * Returns a setting of the layout of the app server, such as where a
+	 * location is or which properties configure its jar scanning.
+	 * 
+	 * @return the setting, or null if the layout does not have it
+	 */
+	protected synchronized String getLayoutProperty(String key)
 	{
-		
 		if ( locationMap == null ) {
 			if ( appServer != null  ) {
 				try
@@ -328,22 +823,845 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				locationMap = defaultLocatioMap;
 			}
 		}
-		String deploySubDir = locationMap.getProperty(key);
-		if ( deploySubDir == null || deploySubDir.trim().length() == 0 ) {
-			deploySubDir = defaultLocatioMap.getProperty(key);
+		return locationMap.getProperty(key);
+	}
+
+	/**
+	 * Writes the lists of jars the servlet container should skip and scan at
+	 * startup, from the lib directories and webapps of the container.
+	 * 
+	 * @param root the directory the deploy wrote to, the live tree or the
+	 *            release about to go live
+	 */
+	private void writeJarScanConfig(File root) throws MojoFailureException {
+		if (!writeJarScan) {
+			return;
 		}
-		if (deploySubDir == null ) {
-		  deploySubDir = key;
+		String configPath = getLayoutProperty("jarScan.config");
+		String skipProperty = getLayoutProperty("jarScan.skip");
+		if (configPath == null || skipProperty == null) {
+			getLog().warn("The " + (appServer == null ? "default" : appServer)
+					+ " layout has no jar scan settings, not writing jar scan lists");
+			return;
 		}
-		if ( !deploySubDir.endsWith("/") ) {
-			deploySubDir = deploySubDir + "/";
+		File config = new File(getDeployDirectory(), configPath);
+		if (!config.isFile()) {
+			getLog().warn("No " + config + " to write the jar scan lists to");
+			return;
+		}
+		BuildMetrics.Timer timer = getMetrics().start("jarscan", config.getName());
+		try {
+			JarScanConfig scan = new JarScanConfig(root, getDeployDirectory());
+			Set<String> libs = new LinkedHashSet<String>();
+			libs.add(getDeploySubDir("shared/lib"));
+			libs.add(getDeploySubDir("common/lib"));
+			for (String lib : libs) {
+				scan.scanLibDirectory(new File(root, lib));
+			}
+			scan.scanWebapps(new File(root, getDeploySubDir("webapps")));
+			boolean written = scan.write(config, skipProperty,
+					getLayoutProperty("jarScan.scan"));
+			scan.saveCache();
+			timer.stop(0, 0, scan.getReadCount());
+			getLog().info("Jar scan: " + scan.getJarsToScan().size() + " jars to scan, "
+					+ scan.getJarsToSkip().size() + " to skip"
+					+ (written ? ", updated " + config : ", " + config + " unchanged"));
+		} catch (IOException e) {
+			throw new MojoFailureException("Failed to write the jar scan lists to "
+					+ config + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Builds the project of a distro dependency from the repository.
+	 * 
+	 * @param artifact the dependency of the distro
+	 * @return the project with its dependency artifacts created
+	 * @throws MojoFailureException if the project could not be built
+	 */
+	private MavenProject buildDependentProject(Artifact artifact)
+			throws MojoFailureException {
+		try {
+			ProjectModelCache cache = getModelCache();
+			MavenProject dependentProject = null;
+			// snapshot models are built so their POM is checked for updates
+			if (cache != null && !artifact.isSnapshot()) {
+				try {
+					dependentProject = cache.lookup(artifact.getGroupId(),
+							artifact.getArtifactId(), artifact.getBaseVersion());
+				} catch (IOException e) {
+					getLog().debug("Ignoring cached model of " + artifact.getId(), e);
+				}
+			}
+			if (dependentProject != null) {
+				getLog().debug("Using cached model of " + artifact.getId());
+				dependentProject.setArtifact(artifactFactory.createBuildArtifact(
+						dependentProject.getGroupId(), dependentProject.getArtifactId(),
+						dependentProject.getVersion(), dependentProject.getPackaging()));
+			} else {
+				dependentProject = mavenProjectBuilder.buildFromRepository(artifact,
+						remoteRepositories, artifactRepository);
+				if (cache != null) {
+					try {
+						cache.store(dependentProject);
+					} catch (IOException e) {
+						getLog().debug("Unable to cache the model of " + artifact.getId(), e);
+					}
+				}
+			}
+			dependentProject.setDependencyArtifacts(dependentProject.createArtifacts(artifactFactory, null, null));
+			return dependentProject;
+		} catch (ProjectBuildingException e) {
+			throw new MojoFailureException("Failed to build project for :"+ artifact.getId());
+		} catch (InvalidDependencyVersionException e) {
+			throw new MojoFailureException("Failed to find depdendencies for: "+ artifact.getId());
+		}
+	}
+
+	/**
+	 * Returns the location in the container that a project owns outright, or
+	 * null if it writes into locations shared with other projects.
+	 */
+	protected String getOwnedLocation(MavenProject project) {
+		String packaging = project.getPackaging();
+		if ("sakai-component".equals(packaging)) {
+			return getDeploySubDir("components") + project.getArtifactId();
+		} else if ("war".equals(packaging)) {
+			return getDeploySubDir("webapps") + getDeployId(project);
+		}
+		return null;
+	}
+
+	/**
+	 * Deploys the artifacts of a distro using a pool of
+	 * <code>deployThreads</code> workers. The projects are built first, one
+	 * at a time as the project builder is not thread safe, then resolved and
+	 * deployed by the workers through {@link #deployProjects(List, List)}. A
+	 * failing artifact does not stop the others; all failures are reported
+	 * together at the end.
+	 * 
+	 * @param artifacts the dependencies of the distro
+	 */
+	protected void deployDistro(Set artifacts) throws MojoExecutionException,
+			MojoFailureException {
+		List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+		List<MavenProject> dependentProjects = new ArrayList<MavenProject>();
+		getLog().info("Deploying " + artifacts.size() + " artifacts with "
+				+ deployThreads + " threads");
+		for (Artifact artifact : (Set<Artifact>) artifacts) {
+			try {
+				dependentProjects.add(buildDependentProject(artifact));
+			} catch (MojoFailureException e) {
+				failures.add(artifact.getId() + ": " + e.getMessage());
+			}
+		}
+
+		checkReleasable(dependentProjects);
+		prefetchProjects(dependentProjects);
+		deployProjects(dependentProjects, failures);
+
+		if (!failures.isEmpty()) {
+			for (String failure : failures) {
+				getLog().error("Failed to deploy " + failure);
+			}
+			throw new MojoFailureException("Failed to deploy " + failures.size()
+					+ " artifacts of the distro " + getProjectId());
+		}
+	}
+
+	/**
+	 * Deploys projects in order, running the ones which own their location
+	 * concurrently. Components and webapps own their location. A run of them
+	 * is grouped by location and the groups are deployed by
+	 * <code>deployThreads</code> workers. Everything else, configuration,
+	 * libraries and tomcat overlays, writes into locations shared with other
+	 * projects, or deletes them through <code>clean.targets</code>, so it is
+	 * deployed on its own once the projects before it are done and before
+	 * any project after it starts. The resulting tree is the same as a
+	 * sequential deploy.
+	 * 
+	 * @param failures receives a line for each project which failed
+	 */
+	protected void deployProjects(List<MavenProject> projects, List<String> failures)
+			throws MojoExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, deployThreads));
+		try {
+			Map<String, List<MavenProject>> groups = new LinkedHashMap<String, List<MavenProject>>();
+			for (MavenProject dependentProject : projects) {
+				String location = getOwnedLocation(dependentProject);
+				if (location == null) {
+					deployGroups(executor, groups.values(), failures);
+					groups.clear();
+					deployProject(dependentProject, failures);
+					continue;
+				}
+				List<MavenProject> group = groups.get(location);
+				if (group == null) {
+					group = new ArrayList<MavenProject>();
+					groups.put(location, group);
+				}
+				group.add(dependentProject);
+			}
+			deployGroups(executor, groups.values(), failures);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Deploys groups of projects on the workers, the projects of each group
+	 * in order, and waits until all of them are done.
+	 */
+	private void deployGroups(ExecutorService executor,
+			Collection<List<MavenProject>> groups, final List<String> failures)
+			throws MojoExecutionException {
+		List<Future<?>> deploys = new ArrayList<Future<?>>();
+		for (final List<MavenProject> group : groups) {
+			deploys.add(executor.submit(new Runnable() {
+				public void run() {
+					for (MavenProject dependentProject : group) {
+						deployProject(dependentProject, failures);
+					}
+				}
+			}));
+		}
+		try {
+			for (Future<?> deploy : deploys) {
+				deploy.get();
+			}
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Interrupted while deploying distro", e);
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Failed to deploy distro", e.getCause());
+		}
+	}
+
+	private void deployProject(MavenProject dependentProject, List<String> failures) {
+		try {
+			deployToContainer(dependentProject);
+		} catch (Exception e) {
+			getLog().debug("Failed to deploy " + dependentProject.getId(), e);
+			failures.add(dependentProject.getId() + ": " + e.getMessage());
+		}
+	}
+
+	private synchronized JarStore getJarStore() {
+		if (jarStore == null) {
+			jarStore = new JarStore(getTargetDirectory());
+		}
+		return jarStore;
+	}
+
+	/**
+	 * Reports the space saved by linking the jars of the components.
+	 */
+	private void logJarStore() {
+		if (jarStore == null) {
+			return;
+		}
+		if (jarStore.isLinkFailed()) {
+			getLog().warn("Could not hard link jars in " + jarStore.getDirectory()
+					+ ", the components keep their own copies");
+		}
+		getMetrics().count("dedup.inodes", jarStore.getLinkedCount());
+		getMetrics().count("dedup.bytes", jarStore.getSavedBytes());
+		getLog().info("Linked " + jarStore.getLinkedCount() + " component jars to "
+				+ jarStore.getDirectory() + ", saving "
+				+ DeployPlan.formatBytes(jarStore.getSavedBytes()) + " and "
+				+ jarStore.getLinkedCount() + " inodes");
+	}
+
+	/**
+	 * Removes the stored jars no component links to any more, once the stale
+	 * components of the deploy have been pruned.
+	 */
+	private void collectJarStore(File container) {
+		if (!deduplicateJars || container == null) {
+			return;
+		}
+		List<File> removed = new JarStore(container).collect();
+		for (File file : removed) {
+			getLog().debug("Removed unused stored jar " + file);
+		}
+		getMetrics().count("dedup.collected", removed.size());
+		if (!removed.isEmpty()) {
+			getLog().info("Removed " + removed.size() + " jars no component links to from "
+					+ new File(container, JarStore.STORE_NAME));
+		}
+	}
+
+	private synchronized DeployJournal getJournal() throws IOException {
+		if (useJournal && journal == null) {
+			journal = new DeployJournal(getTargetDirectory());
+		}
+		return journal;
+	}
+
+	/**
+	 * Works out the deploy plan of the project from the artifacts already in
+	 * the local repository, without downloading anything. Artifacts which
+	 * have not been resolved are marked in the plan.
+	 */
+	protected DeployPlan createPlan() throws MojoExecutionException,
+			MojoFailureException {
+		DeployPlan plan = new DeployPlan();
+		try {
+			planDeploy(project, plan);
+		} catch (IOException ex) {
+			getLog().debug("Failed to plan deploy ", ex);
+			throw new MojoFailureException("Failed to plan deploy :"
+					+ ex.getMessage());
+		}
+		return plan;
+	}
+
+	/**
+	 * Adds the steps deploying a project to a plan, following the same rules
+	 * as {@link #deployToContainer(MavenProject)}.
+	 */
+	private void planDeploy(MavenProject project, DeployPlan plan)
+			throws IOException, MojoExecutionException, MojoFailureException {
+		File deployDir = getTargetDirectory();
+		if (deployDir == null) {
+			throw new MojoFailureException("deployDirectory has not been set");
+		}
+		String packaging = project.getPackaging();
+		String deployTarget = project.getProperties().getProperty("deploy.target");
+		if ("sakai-component".equals(packaging)) {
+			File destination = new File(new File(deployDir,
+					getDeploySubDir("components")), project.getArtifactId());
+			planArtifact(plan, project.getArtifact(), DeployPlan.Action.UNPACK, destination, destination);
+		} else if ("sakai-configuration".equals(packaging)) {
+			File destination = new File(deployDir, getDeploySubDir("configuration"));
+			planArtifact(plan, project.getArtifact(), DeployPlan.Action.MERGE, destination, destination);
+		} else if ("war".equals(packaging)) {
+			File destination = new File(deployDir, getDeploySubDir("webapps"));
+			planArtifact(plan, project.getArtifact(), DeployPlan.Action.COPY, destination,
+					new File(destination, getDeployId(project) + "." + packaging));
+		} else if ("jar".equals(packaging) && isLibraryTarget(deployTarget)) {
+			File destination = new File(deployDir, getDeploySubDir(deployTarget + "/lib"));
+			planArtifact(plan, project.getArtifact(), DeployPlan.Action.COPY, destination,
+					new File(destination, getDeployId(project) + "-" + project.getVersion()
+							+ "." + packaging));
+		} else if ("pom".equals(packaging) && isLibraryTarget(deployTarget)) {
+			File destination = new File(deployDir, getDeploySubDir(deployTarget + "/lib"));
+			Set<String> kept = new HashSet<String>();
+			for (Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts()) {
+				if (!isDeployedScope(artifact, false)) {
+					plan.skip(artifact, destination, "scope " + artifact.getScope());
+				} else {
+					kept.add(DeployJournal.getCoordinates(artifact, false));
+					planArtifact(plan, artifact, DeployPlan.Action.COPY, destination,
+							new File(destination, getDefaultFinalName(artifact)), getOwnerId(project));
+				}
+			}
+			plan.prune(destination, getOwnerId(project), kept);
+		} else if ("pom".equals(packaging) && "tomcat-overlay".equals(deployTarget)) {
+			// as in the deploy, the overlays are skipped or unpacked together
+			List<Artifact> overlays = new ArrayList<Artifact>();
+			boolean deployed = true;
+			DeployJournal journal = getJournal();
+			for (Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts()) {
+				if (!isDeployedScope(artifact, true)) {
+					plan.skip(artifact, deployDir, "scope " + artifact.getScope());
+				} else {
+					File file = getPlannedFile(artifact, deployDir);
+					deployed = deployed && file != null && journal != null
+							&& journal.isUpToDate(deployDir, artifact, file);
+					overlays.add(artifact);
+				}
+			}
+			if (deployed && !overlays.isEmpty()) {
+				for (Artifact artifact : overlays) {
+					plan.skip(artifact, deployDir, "unchanged");
+				}
+			} else {
+				String cleanTargets = project.getProperties().getProperty("clean.targets");
+				if (cleanTargets != null) {
+					for (String path : cleanTargets.split(";")) {
+						plan.delete(new File(deployDir, getDeploySubDir(path)));
+					}
+				}
+				for (Artifact artifact : overlays) {
+					if (artifact.getFile() == null) {
+						plan.unresolved(artifact, DeployPlan.Action.OVERLAY, deployDir, deployDir);
+					} else {
+						plan.add(artifact, DeployPlan.Action.OVERLAY, deployDir);
+					}
+				}
+			}
+		} else if ("pom".equals(packaging) && "distro".equals(deployTarget)) {
+			for (Artifact artifact : (Set<Artifact>) project.getDependencyArtifacts()) {
+				if (getLocalFile(artifactFactory.createProjectArtifact(
+						artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion())) != null) {
+					planDeploy(buildDependentProject(artifact), plan);
+				} else {
+					plan.unresolved(artifact, DeployPlan.Action.SKIP, deployDir, deployDir);
+				}
+			}
+		} else {
+			getLog().debug("No deployment specification for "
+					+ project.getId() + ", nothing to plan");
+		}
+	}
+
+	private void planArtifact(DeployPlan plan, Artifact artifact,
+			DeployPlan.Action action, File destination, File target)
+			throws IOException, MojoFailureException {
+		planArtifact(plan, artifact, action, destination, target, null);
+	}
+
+	/**
+	 * @param owner the id of the project the artifact is deployed for, or
+	 *            null if the artifact is the project itself
+	 */
+	private void planArtifact(DeployPlan plan, Artifact artifact,
+			DeployPlan.Action action, File destination, File target, String owner)
+			throws IOException, MojoFailureException {
+		File file = getPlannedFile(artifact, target);
+		DeployJournal journal = getJournal();
+		if (file == null) {
+			plan.unresolved(artifact, action, destination, target);
+		} else if (journal != null && journal.isUpToDate(destination, artifact, file)) {
+			plan.skip(artifact, target, "unchanged");
+		} else {
+			plan.add(artifact, action, destination, target, owner);
+		}
+	}
+
+	/**
+	 * Finds the file of an artifact being planned in the local repository.
+	 * 
+	 * @return the file, or null if the artifact has not been downloaded
+	 */
+	private File getPlannedFile(Artifact artifact, File target)
+			throws MojoFailureException {
+		if (artifact == null) {
+			throw new MojoFailureException("No Artifact found for " + target);
+		}
+		if (artifact.getFile() == null) {
+			File file = getLocalFile(artifact);
+			if (file == null) {
+				return null;
+			}
+			artifact.setFile(file);
+		}
+		return artifact.getFile();
+	}
+
+	/**
+	 * @return the file of an artifact in the local repository, or null if it
+	 *         has not been downloaded
+	 */
+	private File getLocalFile(Artifact artifact) {
+		if (artifactRepository == null) {
+			return null;
+		}
+		File file = new File(artifactRepository.getBasedir(),
+				artifactRepository.pathOf(artifact));
+		return file.isFile() ? file : null;
+	}
+
+	private void logPlan(DeployPlan plan) {
+		getLog().info("Deploy plan for " + getProjectId() + " into " + getTargetDirectory());
+		for (DeployPlan.Step step : plan.getSteps()) {
+			if (step.getAction() == DeployPlan.Action.DELETE) {
+				getLog().info("  DELETE  " + step.getDestination());
+				continue;
+			}
+			if (step.getAction() == DeployPlan.Action.PRUNE) {
+				getLog().debug("  PRUNE   " + step.getDestination() + " (artifacts "
+						+ step.getOwner() + " no longer deploys)");
+				continue;
+			}
+			Artifact artifact = step.getArtifact();
+			String name = DeployJournal.getCoordinates(artifact, true);
+			if (!step.isResolved()) {
+				if (step.getAction() == DeployPlan.Action.SKIP) {
+					getLog().info("  SKIP    " + name + " (POM not resolved, would be downloaded)");
+					continue;
+				}
+				String action = step.getAction().name();
+				while (action.length() < 8) {
+					action = action + " ";
+				}
+				getLog().info("  " + action + name + " -> " + step.getDestination()
+						+ " (not resolved, would be downloaded)");
+			} else if (step.getAction() == DeployPlan.Action.SKIP) {
+				getLog().info("  SKIP    " + name + " (" + step.getReason() + ")");
+			} else {
+				String action = step.getAction().name();
+				while (action.length() < 8) {
+					action = action + " ";
+				}
+				getLog().info("  " + action + name + " -> " + step.getDestination()
+						+ " (" + step.getFiles() + " files, "
+						+ DeployPlan.formatBytes(step.getBytes()) + ")");
+			}
+		}
+		getLog().info("Estimated cost: " + plan.getTotalFiles() + " files, "
+				+ DeployPlan.formatBytes(plan.getTotalBytes()) + " to write in "
+				+ plan.getCount(DeployPlan.Action.COPY) + " copies, "
+				+ (plan.getCount(DeployPlan.Action.UNPACK) + plan.getCount(DeployPlan.Action.MERGE))
+				+ " unpacks and " + plan.getCount(DeployPlan.Action.OVERLAY) + " overlays after "
+				+ plan.getCount(DeployPlan.Action.DELETE) + " deletes; "
+				+ plan.getCount(DeployPlan.Action.SKIP) + " skipped");
+		if (plan.getUnresolvedCount() > 0) {
+			getLog().info(plan.getUnresolvedCount()
+					+ " artifacts are not in the local repository and are not counted");
+		}
+	}
+
+	/**
+	 * Resolves the file of an artifact, adding the time taken to the
+	 * resolution time of the deploy.
+	 */
+	private void resolve(Artifact artifact) throws ArtifactResolutionException,
+			ArtifactNotFoundException {
+		long start = System.nanoTime();
+		try {
+			artifactResolver.resolve(artifact, remoteRepositories,
+					artifactRepository);
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			resolveTime.addAndGet(elapsed);
+			getMetrics().record("resolve", artifact.getId(), elapsed, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Resolves the files of a set of artifacts up front, using
+	 * <code>resolveThreads</code> workers, so the deploy which follows only
+	 * copies and unpacks. Artifacts which fail to resolve are left for the
+	 * deploy to report, and are logged in the order they were given however
+	 * many workers resolved them.
+	 * 
+	 * @param artifacts the artifacts about to be deployed
+	 * @return the artifacts which could not be resolved, in the order given
+	 */
+	protected List<Artifact> prefetch(Collection<Artifact> artifacts)
+			throws MojoExecutionException {
+		final List<Artifact> pending = new ArrayList<Artifact>();
+		for (Artifact artifact : artifacts) {
+			if (artifact != null && artifact.getFile() == null) {
+				pending.add(artifact);
+			}
+		}
+		List<Artifact> failed = new ArrayList<Artifact>();
+		if (pending.isEmpty()) {
+			return failed;
+		}
+		long start = System.nanoTime();
+		List<AbstractArtifactResolutionException> errors = new ArrayList<AbstractArtifactResolutionException>();
+		int threads = Math.min(resolveThreads, pending.size());
+		if (threads <= 1) {
+			for (Artifact artifact : pending) {
+				errors.add(prefetch(artifact));
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<AbstractArtifactResolutionException>> resolutions = new ArrayList<Future<AbstractArtifactResolutionException>>();
+				for (final Artifact artifact : pending) {
+					resolutions.add(executor.submit(new Callable<AbstractArtifactResolutionException>() {
+						public AbstractArtifactResolutionException call() {
+							return prefetch(artifact);
+						}
+					}));
+				}
+				for (Future<AbstractArtifactResolutionException> resolution : resolutions) {
+					errors.add(resolution.get());
+				}
+			} catch (InterruptedException e) {
+				throw new MojoExecutionException("Interrupted while resolving artifacts", e);
+			} catch (ExecutionException e) {
+				throw new MojoExecutionException("Failed to resolve artifacts", e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		for (int i = 0; i < pending.size(); i++) {
+			if (errors.get(i) != null) {
+				failed.add(pending.get(i));
+				getLog().debug("Unable to resolve " + pending.get(i).getId()
+						+ " ahead of the deploy", errors.get(i));
+			}
+		}
+		getLog().info("Resolved " + (pending.size() - failed.size()) + " of "
+				+ pending.size() + " artifacts in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return failed;
+	}
+
+	private AbstractArtifactResolutionException prefetch(Artifact artifact) {
+		try {
+			resolve(artifact);
+			return null;
+		} catch (AbstractArtifactResolutionException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Resolves up front the artifacts that a set of projects deploy.
+	 */
+	private void prefetchProjects(List<MavenProject> projects)
+			throws MojoExecutionException {
+		List<Artifact> artifacts = new ArrayList<Artifact>();
+		for (MavenProject dependentProject : projects) {
+			String packaging = dependentProject.getPackaging();
+			String deployTarget = dependentProject.getProperties().getProperty("deploy.target");
+			if ("sakai-component".equals(packaging)
+					|| "sakai-configuration".equals(packaging)
+					|| "war".equals(packaging)
+					|| ("jar".equals(packaging) && isLibraryTarget(deployTarget))) {
+				if (dependentProject.getArtifact() != null) {
+					artifacts.add(dependentProject.getArtifact());
+				}
+			} else if ("pom".equals(packaging)
+					&& (isLibraryTarget(deployTarget) || "tomcat-overlay".equals(deployTarget))) {
+				artifacts.addAll(getDeployedScope(dependentProject.getDependencyArtifacts(),
+						"tomcat-overlay".equals(deployTarget)));
+			}
+		}
+		prefetch(artifacts);
+	}
+
+	/**
+	 * Checks the scope of a dependency before it is resolved. Overlays
+	 * deploy everything but test dependencies, library directories also
+	 * leave out provided ones.
+	 */
+	private static boolean isDeployedScope(Artifact artifact, boolean overlay) {
+		String scope = artifact.getScope();
+		return !"test".equals(scope) && (overlay || !"provided".equals(scope));
+	}
+
+	private static List<Artifact> getDeployedScope(Set artifacts, boolean overlay) {
+		List<Artifact> deployed = new ArrayList<Artifact>();
+		for (Artifact artifact : (Set<Artifact>) artifacts) {
+			if (artifact != null && isDeployedScope(artifact, overlay)) {
+				deployed.add(artifact);
+			}
+		}
+		return deployed;
+	}
+
+	private static boolean isLibraryTarget(String deployTarget) {
+		return "shared".equals(deployTarget) || "common".equals(deployTarget)
+				|| "server".equals(deployTarget);
+	}
+
+	/**
+	 * @return the model cache of the local repository, or null if it is not
+	 *         in use
+	 */
+	private synchronized ProjectModelCache getModelCache() {
+		if (useModelCache && modelCache == null && artifactRepository != null
+				&& artifactRepository.getBasedir() != null) {
+			try {
+				modelCache = new ProjectModelCache(new File(artifactRepository.getBasedir()));
+			} catch (IOException e) {
+				getLog().warn("Ignoring unreadable model cache: " + e.getMessage());
+				useModelCache = false;
+			}
+		}
+		return modelCache;
+	}
+
+	private void saveModelCache() {
+		if (modelCache != null) {
+			getLog().info("Project models: " + modelCache.getHitCount()
+					+ " from cache, " + modelCache.getMissCount() + " built");
+			getMetrics().count("modelCache.hit", modelCache.getHitCount());
+			getMetrics().count("modelCache.miss", modelCache.getMissCount());
+			try {
+				modelCache.save();
+			} catch (IOException e) {
+				getLog().warn("Failed to save the model cache: " + e.getMessage());
+			}
+			modelCache = null;
+		}
+	}
+
+	private void saveJournal() {
+		if (journal != null) {
+			try {
+				journal.save();
+			} catch (IOException e) {
+				getLog().warn("Failed to save the deploy journal "
+						+ journal.getJournalFile() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Checks the journal to see if an artifact is already deployed to a
+	 * location and has not changed since.
+	 */
+	private boolean isDeployed(File destination, Artifact artifact,
+			File artifactFile) throws IOException {
+		DeployJournal journal = getJournal();
+		if (journal == null) {
+			return false;
+		}
+		if (journal.isUpToDate(destination, artifact, artifactFile)) {
+			getLog().info(
+					"Skipping " + artifact.getId() + ", unchanged since it was deployed to "
+							+ destination);
+			getMetrics().count("journal.hit", 1);
+			return true;
+		}
+		getMetrics().count("journal.miss", 1);
+		return false;
+	}
+
+	private void recordDeployed(File destination, Artifact artifact,
+			File artifactFile, List<File> files) throws IOException {
+		DeployJournal journal = getJournal();
+		if (journal != null && files != null) {
+			journal.record(destination, artifact, artifactFile, files);
+		}
+	}
+
+	/**
+	 * Records a deployed artifact and removes the files an earlier deploy of
+	 * it wrote which it no longer produces, such as the jar of the previous
+	 * version.
+	 * 
+	 * @param owner the project the artifact is deployed for, or null if the
+	 *            artifact is the project itself
+	 */
+	private void recordDeployed(File destination, Artifact artifact,
+			File artifactFile, List<File> files, MavenProject owner) throws IOException {
+		DeployJournal journal = getJournal();
+		if (journal != null && files != null) {
+			removeStale(journal.record(destination, artifact, artifactFile, files,
+					owner == null ? null : getOwnerId(owner)));
+		}
+	}
+
+	/**
+	 * Removes the artifacts a project deployed to a directory on an earlier
+	 * run which it no longer deploys there.
+	 * 
+	 * @param kept the artifacts the project still deploys
+	 */
+	private void pruneDeployed(File destination, MavenProject owner, Set<String> kept)
+			throws IOException {
+		DeployJournal journal = getJournal();
+		if (journal != null) {
+			removeStale(journal.prune(destination, getOwnerId(owner), kept));
+		}
+	}
+
+	private void removeStale(List<File> stale) {
+		for (File file : stale) {
+			if (!file.exists()) {
+				continue;
+			}
+			BuildMetrics.Timer timer = getMetrics().start("prune", file.getName());
+			getLog().info("Removing stale " + file);
+			deleteAll(file);
+			timer.stop(0, 0, 1);
+		}
+	}
+
+	private static String getOwnerId(MavenProject project) {
+		return project.getGroupId() + ":" + project.getArtifactId();
+	}
+
+	/**
+	 * Lists the files an archive unpacks to.
+	 * 
+	 * @return the files, or null if the archive is not a zip file
+	 */
+	private List<File> listArchive(File archive, File destination)
+			throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(archive);
+		} catch (ZipException e) {
+			return null;
+		}
+		try {
+			List<File> files = new ArrayList<File>();
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				if (!entry.isDirectory()) {
+					files.add(new File(destination, entry.getName()));
+				}
+			}
+			return files;
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * An overlay is only skipped as a whole, as the overlay archives overwrite
+	 * each other and the clean targets are removed before they are unpacked.
+	 */
+	private boolean isOverlayDeployed(Set artifacts, File destination)
+			throws IOException, AbstractArtifactResolutionException {
+		DeployJournal journal = getJournal();
+		if (journal == null) {
+			return false;
+		}
+		int checked = 0;
+		for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
+			Artifact artifact = (Artifact) iter.next();
+			if (artifact == null || !isDeployedScope(artifact, true)) {
+				continue;
+			}
+			if (artifact.getFile() == null) {
+				resolve(artifact);
+			}
+			if (artifact.getFile() == null
+					|| !journal.isUpToDate(destination, artifact, artifact.getFile())) {
+				return false;
+			}
+			checked++;
+		}
+		if (checked > 0) {
+			getLog().info("Skipping overlay " + getProjectId()
+					+ ", unchanged since it was deployed to " + destination);
+		}
+		return checked > 0;
+	}
+
+	/**
+	 * Transfers a file into the container if it is newer than the one already
+	 * deployed, logging which strategy was used.
+	 */
+	private void transferFileIfModified(File source, File destination)
+			throws IOException {
+		if (fileTransfer == null) {
+			fileTransfer = new FileTransfer(FileTransfer.Strategy.COPY);
+		}
+		if (destination.lastModified() < source.lastModified()) {
+			long start = System.nanoTime();
+			FileTransfer.Strategy used = fileTransfer.transfer(
+					source.getCanonicalFile(), destination);
+			for (String fallback : fileTransfer.takeFallbacks()) {
+				getLog().warn(fallback);
+			}
+			getLog().info(used.getLabel() + " " + source + " to " + destination);
+			if (used == FileTransfer.Strategy.COPY) {
+				getMetrics().record("copy", source.getName(), System.nanoTime() - start,
+						source.length(), source.length(), 1);
+			} else {
+				getMetrics().record("link", source.getName(), System.nanoTime() - start,
+						0, 0, 1);
+			}
 		}
-		return deploySubDir;
 	}
 
 	protected void deployOverlay(Set artifacts, File destination)
 			throws IOException, MojoFailureException,
 			AbstractArtifactResolutionException, MojoExecutionException, NoSuchArchiverException {
+		List<Artifact> overlays = new ArrayList<Artifact>();
+		List<File> archives = new ArrayList<File>();
 		for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
 			Artifact artifact = (Artifact) iter.next();
 			if (artifact == null) {
@@ -353,10 +1671,12 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				throw new MojoFailureException(
 						"Null Artifact found, sould never happen, in artifacts for project ");
 			}
+			if (!isDeployedScope(artifact, true)) {
+				continue;
+			}
 			File artifactFile = artifact.getFile();
 			if (artifactFile == null) {
-				artifactResolver.resolve(artifact, remoteRepositories,
-						artifactRepository);
+				resolve(artifact);
 				artifactFile = artifact.getFile();
 			}
 			if (artifactFile == null) {
@@ -367,16 +1687,40 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 						"Artifact File is null for dependency "
 								+ artifact.getId() + " in " + getProjectId());
 			}
+			overlays.add(artifact);
+			archives.add(artifactFile);
+		}
+
+		// merge the overlays so a path shipped by several of them is only
+		// written once, by the last one
+		OverlayExtractor extractor = new OverlayExtractor(archives);
+		boolean merged = extractor.isSupported();
+		if (merged) {
+			BuildMetrics.Timer timer = getMetrics().start("overlay", getProjectId());
+			extractor.extract(destination, getUnpackThreadCount());
+			long read = 0;
+			for (File archive : archives) {
+				read += archive.length();
+			}
+			timer.stop(read, extractor.getWrittenBytes(), extractor.getWrittenCount());
+			getLog().info("Overlaid " + destination + ": " + extractor.getWrittenCount()
+					+ " written, " + extractor.getUnchangedCount() + " unchanged, "
+					+ extractor.getShadowedCount() + " replaced by a later overlay");
+		}
+		for (Artifact artifact : overlays) {
                         getLog().debug("Processing: " + artifact.getId());
-                        if ( !"test".equals(artifact.getScope()) ) {
+                        if (!merged) {
                           unpack(artifact.getFile(), destination, artifact.getType(),true);
                         }
+                        recordDeployed(destination, artifact, artifact.getFile(),
+                                listArchive(artifact.getFile(), destination));
 		}
 
 	}
-	protected void deployArtifacts(Set artifacts, File destination)
+	protected void deployArtifacts(Set artifacts, File destination, MavenProject owner)
 	throws IOException, MojoFailureException,
 	AbstractArtifactResolutionException {
+		Set<String> kept = new HashSet<String>();
 		for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
 			Artifact artifact = (Artifact) iter.next();
 			if (artifact == null) {
@@ -386,10 +1730,15 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				throw new MojoFailureException(
 				"Null Artifact found, sould never happen, in artifacts for project ");
 			}
+			if (!isDeployedScope(artifact, false)) {
+				getLog().info(
+						"Skipping " + artifact.getId() + " Scope "
+						+ artifact.getScope());
+				continue;
+			}
 			File artifactFile = artifact.getFile();
 			if (artifactFile == null) {
-				artifactResolver.resolve(artifact, remoteRepositories,
-						artifactRepository);
+				resolve(artifact);
 				artifactFile = artifact.getFile();
 			}
 			if (artifactFile == null) {
@@ -401,21 +1750,17 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 						+ artifact.getId() + " in " + getProjectId());
 			}
 			String targetFileName = getDefaultFinalName(artifact);
+			kept.add(DeployJournal.getCoordinates(artifact, false));
 
 			getLog().debug("Processing: " + targetFileName);
 			File destinationFile = new File(destination, targetFileName);
-			if ("provided".equals(artifact.getScope())
-					|| "test".equals(artifact.getScope())) {
-				getLog().info(
-						"Skipping " + artifactFile + " Scope "
-						+ artifact.getScope());
-
-			} else {
-				getLog()
-				.info("Copy " + artifactFile + " to " + destinationFile);
-				copyFileIfModified(artifact.getFile(), destinationFile);
+			if (!isDeployed(destination, artifact, artifactFile)) {
+				transferFileIfModified(artifact.getFile(), destinationFile);
+				recordDeployed(destination, artifact, artifactFile,
+						Collections.singletonList(destinationFile), owner);
 			}
 		}
+		pruneDeployed(destination, owner, kept);
 
 	}
 
@@ -451,8 +1796,7 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 		}
 		File artifactFile = artifact.getFile();
 		if (artifactFile == null) {
-			artifactResolver.resolve(artifact, remoteRepositories,
-					artifactRepository);
+			resolve(artifact);
 			artifactFile = artifact.getFile();
 		}
 		if (artifactFile == null) {
@@ -461,12 +1805,16 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 							+ ", target was " + destinationFile);
 			throw new MojoFailureException("Artifact File is null ");
 		}
-		getLog().info("Copy " + artifactFile + " to " + destinationFile);
+		if (isDeployed(destination, artifact, artifactFile)) {
+			return;
+		}
 		destinationFile.getParentFile().mkdirs();
 		if (deleteStub && stubFile.exists()) {
 			deleteAll(stubFile);
 		}
-		copyFileIfModified(artifactFile, destinationFile);
+		transferFileIfModified(artifactFile, destinationFile);
+		recordDeployed(destination, artifact, artifactFile,
+				Collections.singletonList(destinationFile), null);
 	}
 
 }
@@ -38,4 +38,9 @@ public class ComponentExplodedMojo
         buildExplodedWebapp( getWebappDirectory() );
     }
 
+    protected String getGoalName()
+    {
+        return "exploded";
+    }
+
 }
@@ -38,4 +38,9 @@ public class ComponentInPlaceMojo
 
         buildExplodedWebapp( getWarSourceDirectory() );
     }
+
+    protected String getGoalName()
+    {
+        return "inplace";
+    }
 }
@@ -53,6 +53,11 @@ public class ComponentManifestMojo
     private WarArchiver warArchiver;
 
 
+    protected String getGoalName()
+    {
+        return "manifest";
+    }
+
     /**
      * Executes the WarMojo on the current project.
      *
@@ -177,7 +177,9 @@ public class ComponentMojo
         warArchiver.setWebxml( new File( getWebappDirectory(), "WEB-INF/web.xml" ) );
 
         // create archive
+        BuildMetrics.Timer timer = getMetrics().start( "package", warFile.getName() );
         archiver.createArchive( getProject(), archive );
+        timer.stop( 0, warFile.length(), 1 );
 
         String classifier = this.classifier;
         if ( classifier != null )
@@ -0,0 +1,80 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Switches a container deployed in release mode back to the previous release.
+ *
+ * @goal rollback
+ * @requiresProject false
+ */
+public class ComponentRollbackMojo
+    extends AbstractMojo
+{
+    /**
+     * The directory the releases were deployed into.
+     *
+     * @parameter expression="${maven.tomcat.home}"
+     * @required
+     */
+    private File deployDirectory;
+
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        ReleaseManager releases = new ReleaseManager( deployDirectory );
+        try
+        {
+            File current = releases.getCurrentRelease();
+            if ( current == null )
+            {
+                throw new MojoFailureException( "No release is active in " + deployDirectory );
+            }
+            File previous = releases.rollback();
+            if ( previous == null )
+            {
+                throw new MojoFailureException( "There is no release before " + current.getName() );
+            }
+            getLog().info( "Rolled back " + releases.getCurrentLink() + " from " + current.getName() + " to "
+                + previous.getName() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to roll back " + deployDirectory, e );
+        }
+    }
+
+    public File getDeployDirectory()
+    {
+        return deployDirectory;
+    }
+
+    public void setDeployDirectory( File deployDirectory )
+    {
+        this.deployDirectory = deployDirectory;
+    }
+}
@@ -0,0 +1,203 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Keeps a deployed component or webapp in step with its sources. The web
+ * sources, web resources and compiled classes are watched and every changed
+ * file is copied straight into the deployed directory, filtered the same way
+ * as when the webapp is built. Runs until the build is interrupted.
+ * <p/>
+ * On Java 7 and later the file system reports which directories changed and
+ * only those are looked at. Older JVMs scan all the sources on every poll.
+ *
+ * @goal watch
+ * @requiresDependencyResolution runtime
+ */
+public class ComponentWatchMojo
+    extends ComponentDeployMojo
+{
+    /**
+     * The deployed directory to keep in step. Defaults to the directory the
+     * deploy goal unpacks a component to, or the directory the container
+     * explodes a war into.
+     *
+     * @parameter expression="${sakai.watch.directory}"
+     */
+    private File watchDirectory;
+
+    /**
+     * The time between two polls of the sources, in milliseconds. When the
+     * file system reports changes, the longest time to wait for one.
+     *
+     * @parameter expression="${sakai.watch.interval}" default-value="500"
+     */
+    private int pollInterval = 500;
+
+    /**
+     * The number of polls before the goal stops, 0 to poll until the build
+     * is interrupted.
+     *
+     * @parameter expression="${sakai.watch.polls}" default-value="0"
+     */
+    private int polls = 0;
+
+    protected String getGoalName()
+    {
+        return "watch";
+    }
+
+    public void doExecute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        File target = getTarget();
+        if ( !target.isDirectory() )
+        {
+            throw new MojoFailureException( target + " does not exist, deploy the project before watching it" );
+        }
+        SyncState state = new SyncState();
+        SourceWatcher watcher = null;
+        try
+        {
+            watcher = SourceWatcher.open( getSyncDirectories( target ) );
+            List<File> synced = syncTarget( target, state, null );
+            getLog().info( "Watching the sources of " + getProjectId() + " for " + target + " ("
+                + synced.size() + " files brought up to date"
+                + ( watcher == null ? ", polling every " + pollInterval + " ms)" : ")" ) );
+            for ( int poll = 1; polls == 0 || poll <= polls; poll++ )
+            {
+                Collection<File> changed = null;
+                if ( watcher == null )
+                {
+                    Thread.sleep( pollInterval );
+                }
+                else
+                {
+                    changed = watcher.take( pollInterval );
+                    if ( changed != null && changed.isEmpty() )
+                    {
+                        continue;
+                    }
+                }
+                synced = syncTarget( target, state, changed );
+                for ( File file : synced )
+                {
+                    getLog().info( ( file.exists() ? "Synced " : "Removed " ) + file );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            getLog().info( "Stopped watching " + target );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to sync " + target, e );
+        }
+        finally
+        {
+            if ( watcher != null )
+            {
+                try
+                {
+                    watcher.close();
+                }
+                catch ( IOException e )
+                {
+                    getLog().debug( "Unable to stop watching the sources", e );
+                }
+            }
+        }
+    }
+
+    /**
+     * @param changed the directories the watcher reported, or null to scan
+     *            all the sources
+     */
+    private List<File> syncTarget( File target, SyncState state, Collection<File> changed )
+        throws MojoExecutionException, IOException
+    {
+        BuildMetrics.Timer timer = getMetrics().start( "sync", target.getName() );
+        List<File> synced = syncWebapp( target, state, changed );
+        timer.stop( 0, 0, synced.size() );
+        return synced;
+    }
+
+    /**
+     * Works out the deployed directory from the packaging of the project.
+     */
+    private File getTarget()
+        throws MojoFailureException
+    {
+        if ( watchDirectory != null )
+        {
+            return watchDirectory;
+        }
+        String location = getOwnedLocation( getProject() );
+        if ( location == null )
+        {
+            throw new MojoFailureException( "Only components and webapps can be watched, set "
+                + "sakai.watch.directory to watch " + getProjectId() );
+        }
+        if ( getDeployDirectory() == null )
+        {
+            throw new MojoFailureException( "deployDirectory has not been set" );
+        }
+        return new File( getDeployDirectory(), location );
+    }
+
+    public File getWatchDirectory()
+    {
+        return watchDirectory;
+    }
+
+    public void setWatchDirectory( File watchDirectory )
+    {
+        this.watchDirectory = watchDirectory;
+    }
+
+    public int getPollInterval()
+    {
+        return pollInterval;
+    }
+
+    public void setPollInterval( int pollInterval )
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getPolls()
+    {
+        return polls;
+    }
+
+    public void setPolls( int polls )
+    {
+        this.polls = polls;
+    }
+}
@@ -42,7 +42,7 @@ public class CompositeMap
         this.recessive = Collections.unmodifiableMap( recessive );
     }
 
-    public synchronized Object get( Object key )
+    public Object get( Object key )
     {
         Object value = dominant.get( key );
 
@@ -0,0 +1,380 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A single archive holding the result of a deploy, which can be copied to
+ * other nodes and applied to their containers without running the deploy
+ * again.
+ * <p/>
+ * Bundles are deterministic: the files are stored in path order with a fixed
+ * timestamp, so deploying the same artifacts always gives the same bytes.
+ * Archives which are already compressed are stored, everything else is
+ * deflated. The first entry is an index listing the path, size and SHA-1
+ * checksum of every file. Applying a bundle checks every file it writes
+ * against the index, and keeps the index in the container so that files
+ * dropped by a later bundle can be removed.
+ */
+public class DeployBundle {
+
+	public static final String INDEX_NAME = ".sakai-bundle.index";
+
+	private static final int BUFFER_SIZE = 65536;
+
+	/** Bookkeeping of a deploy which does not belong in a container. */
+	private static final String[] SKIPPED = { INDEX_NAME, DeployJournal.JOURNAL_NAME,
+			TrashCan.TRASH_NAME, JarStore.STORE_NAME, JarScanConfig.CACHE_NAME };
+
+	private static final String[] STORED_TYPES = { ".jar", ".war", ".zip",
+			".gz", ".png", ".gif", ".jpg" };
+
+	private final File bundle;
+
+	private int written;
+
+	private int unchanged;
+
+	private int removed;
+
+	private long writtenBytes;
+
+	public DeployBundle(File bundle) {
+		this.bundle = bundle;
+	}
+
+	public File getFile() {
+		return bundle;
+	}
+
+	/**
+	 * @return the number of files written by the last call
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * @return the uncompressed size of the files written by the last call
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * @return the number of files the last apply left alone as they were
+	 *         already identical
+	 */
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+
+	/**
+	 * @return the number of files the last apply removed as the previous
+	 *         bundle had them and this one does not
+	 */
+	public int getRemovedCount() {
+		return removed;
+	}
+
+	/**
+	 * Writes every file below <code>directory</code> into the bundle,
+	 * replacing any earlier bundle.
+	 *
+	 * @throws IOException if a file could not be read or the bundle written
+	 */
+	public void create(File directory) throws IOException {
+		written = 0;
+		writtenBytes = 0;
+		List<String> paths = new ArrayList<String>();
+		String[] names = directory.list();
+		if (names == null) {
+			throw new IOException(directory + " is not a directory");
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			if (!Arrays.asList(SKIPPED).contains(names[i])) {
+				list(new File(directory, names[i]), names[i], paths);
+			}
+		}
+
+		// checksum everything first, the index goes at the front and stored
+		// entries need their size and CRC before their data
+		Map<String, long[]> sums = new LinkedHashMap<String, long[]>();
+		StringBuffer index = new StringBuffer();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (String path : paths) {
+			File file = new File(directory, path);
+			CRC32 crc = new CRC32();
+			MessageDigest digest = createDigest();
+			InputStream in = new FileInputStream(file);
+			long size = 0;
+			try {
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, n);
+					digest.update(buffer, 0, n);
+					size += n;
+				}
+			} finally {
+				IOUtil.close(in);
+			}
+			sums.put(path, new long[] { size, crc.getValue() });
+			index.append(path).append('\t').append(size).append('\t')
+					.append(DeployJournal.toHex(digest.digest())).append('\n');
+		}
+
+		bundle.getAbsoluteFile().getParentFile().mkdirs();
+		File tmp = new File(bundle.getAbsoluteFile().getParentFile(), "." + bundle.getName()
+				+ ".tmp");
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), BUFFER_SIZE));
+		try {
+			ZipEntry indexEntry = new ZipEntry(INDEX_NAME);
+			indexEntry.setTime(getEntryTime());
+			out.putNextEntry(indexEntry);
+			out.write(index.toString().getBytes("UTF-8"));
+			out.closeEntry();
+			for (Map.Entry<String, long[]> sum : sums.entrySet()) {
+				String path = sum.getKey();
+				ZipEntry entry = new ZipEntry(path);
+				entry.setTime(getEntryTime());
+				if (isStored(path)) {
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(sum.getValue()[0]);
+					entry.setCompressedSize(sum.getValue()[0]);
+					entry.setCrc(sum.getValue()[1]);
+				}
+				out.putNextEntry(entry);
+				InputStream in = new FileInputStream(new File(directory, path));
+				try {
+					int n;
+					while ((n = in.read(buffer)) != -1) {
+						out.write(buffer, 0, n);
+					}
+				} finally {
+					IOUtil.close(in);
+				}
+				out.closeEntry();
+				written++;
+				writtenBytes += sum.getValue()[0];
+			}
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, bundle);
+	}
+
+	/**
+	 * Applies the bundle to a container, writing only the files whose
+	 * contents differ and removing the files of the previously applied bundle
+	 * which this one no longer has. The files are only removed once all the
+	 * new ones have been written and checked, so a failed apply does not
+	 * leave the container without files of either bundle.
+	 *
+	 * @param threads the number of entries to inflate at the same time
+	 * @throws IOException if the bundle could not be read, lacks a file of
+	 *             its index, a written file does not have the checksum in the
+	 *             index, or a file could not be written
+	 */
+	public void apply(File directory, int threads) throws IOException {
+		written = 0;
+		unchanged = 0;
+		removed = 0;
+		writtenBytes = 0;
+		ZipFile zip = new ZipFile(bundle);
+		try {
+			ZipEntry indexEntry = zip.getEntry(INDEX_NAME);
+			if (indexEntry == null) {
+				throw new IOException(bundle + " is not a deploy bundle, it has no "
+						+ INDEX_NAME);
+			}
+			Map<String, String> index = readIndex(zip.getInputStream(indexEntry));
+
+			List<ZipEntry> files = new ArrayList<ZipEntry>();
+			List<File> targets = new ArrayList<File>();
+			for (String path : index.keySet()) {
+				ZipEntry entry = zip.getEntry(path);
+				if (entry == null) {
+					throw new IOException(bundle + " is missing " + path
+							+ " listed in its index");
+				}
+				File target = new File(directory, ZipExtractor.getRelativePath(entry));
+				if (ZipExtractor.isSame(entry, target)) {
+					unchanged++;
+				} else {
+					target.getParentFile().mkdirs();
+					files.add(entry);
+					targets.add(target);
+				}
+			}
+
+			if (threads <= 1 || files.size() <= 1) {
+				for (int i = 0; i < files.size(); i++) {
+					ZipExtractor.extractEntry(zip, files.get(i), targets.get(i));
+				}
+			} else {
+				ZipExtractor.extractConcurrently(Collections.nCopies(files.size(), zip),
+						files, targets, threads);
+			}
+			// the entries all carry the same fixed time, the container has to
+			// see a new time on every file which changed
+			long now = System.currentTimeMillis();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int i = 0; i < files.size(); i++) {
+				String expected = index.get(files.get(i).getName());
+				String checksum = checksum(targets.get(i), buffer);
+				if (!checksum.equalsIgnoreCase(expected)) {
+					throw new IOException(targets.get(i) + " was written with checksum "
+							+ checksum + " but the index of " + bundle + " has " + expected);
+				}
+				targets.get(i).setLastModified(now);
+				writtenBytes += Math.max(0, files.get(i).getSize());
+			}
+			written = files.size();
+
+			File indexFile = new File(directory, INDEX_NAME);
+			if (indexFile.isFile()) {
+				InputStream in = new FileInputStream(indexFile);
+				for (String path : readIndex(in).keySet()) {
+					if (index.containsKey(path)) {
+						continue;
+					}
+					File stale = new File(directory, ZipExtractor.getRelativePath(new ZipEntry(
+							path)));
+					if (stale.delete()) {
+						removed++;
+					}
+				}
+			}
+			// the index goes last, a failed apply is still cleaned up by the
+			// next one
+			ZipExtractor.extractEntry(zip, indexEntry, indexFile);
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Reads an index, closing the stream.
+	 *
+	 * @return the SHA-1 checksum of every path, in the order of the index
+	 */
+	static Map<String, String> readIndex(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			IOUtil.copy(in, bytes);
+		} finally {
+			IOUtil.close(in);
+		}
+		Map<String, String> index = new LinkedHashMap<String, String>();
+		String[] lines = bytes.toString("UTF-8").split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].length() == 0) {
+				continue;
+			}
+			String[] fields = lines[i].split("\t");
+			if (fields.length != 3) {
+				throw new IOException("Corrupt bundle index line: " + lines[i]);
+			}
+			index.put(fields[0], fields[2]);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds the paths of all the files below <code>file</code>, or of the file
+	 * itself, sorted by name.
+	 */
+	private static void list(File file, String path, List<String> paths) {
+		String[] names = file.list();
+		if (names == null) {
+			paths.add(path);
+			return;
+		}
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++) {
+			list(new File(file, names[i]), path + "/" + names[i], paths);
+		}
+	}
+
+	private static boolean isStored(String path) {
+		String lower = path.toLowerCase();
+		for (int i = 0; i < STORED_TYPES.length; i++) {
+			if (lower.endsWith(STORED_TYPES[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Zip timestamps are local times, so the fixed time is built in the
+	 * local time zone to store the same bytes everywhere.
+	 */
+	private static long getEntryTime() {
+		return new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+	}
+
+	private static String checksum(File file, byte[] buffer) throws IOException {
+		MessageDigest digest = createDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		return DeployJournal.toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Records what has been deployed into a container so that a later deploy can
+ * skip artifacts which have not changed. For each artifact deployed to a
+ * location the journal keeps the artifact coordinates, the size, timestamp
+ * and checksum of the artifact file and the files it produced.
+ * <p/>
+ * The file lists also tell which files of a shared directory, such as
+ * shared/lib, a deploy owns. When an artifact stops producing a file, for
+ * example because its version is part of the file name, or a project stops
+ * deploying an artifact, the journal hands back the files left behind so
+ * they can be removed without scanning the directory.
+ * <p/>
+ * The journal is kept as a properties file in the deploy directory.
+ */
+public class DeployJournal {
+
+	public static final String JOURNAL_NAME = ".sakai-deploy.journal";
+
+	private static final String ARTIFACT = ".artifact";
+
+	private static final String SIZE = ".size";
+
+	private static final String MODIFIED = ".modified";
+
+	private static final String CHECKSUM = ".checksum";
+
+	private static final String FILES = ".files";
+
+	private static final String OWNER = ".owner";
+
+	private static final String[] FIELDS = { ARTIFACT, SIZE, MODIFIED, CHECKSUM,
+			FILES, OWNER };
+
+	private static final String FILE_SEPARATOR = "\n";
+
+	private static final int REMEMBERED_CHECKSUMS = 4096;
+
+	/**
+	 * Checksums worked out while the file was being copied anyway, with the
+	 * size and timestamp of the file at the time.
+	 */
+	private static final Map<String, String[]> remembered = new LinkedHashMap<String, String[]>() {
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > REMEMBERED_CHECKSUMS;
+		}
+	};
+
+	private final File baseDirectory;
+
+	private final File journalFile;
+
+	private final Properties entries = new Properties();
+
+	private boolean modified = false;
+
+	/**
+	 * Loads the journal of a deploy directory, starting an empty one if none
+	 * exists yet.
+	 *
+	 * @param baseDirectory the directory the artifacts are deployed into
+	 * @throws IOException if an existing journal could not be read
+	 */
+	public DeployJournal(File baseDirectory) throws IOException {
+		this.baseDirectory = baseDirectory;
+		this.journalFile = new File(baseDirectory, JOURNAL_NAME);
+		if (journalFile.exists()) {
+			InputStream in = new FileInputStream(journalFile);
+			try {
+				entries.load(in);
+			} finally {
+				IOUtil.close(in);
+			}
+		}
+	}
+
+	public File getJournalFile() {
+		return journalFile;
+	}
+
+	/**
+	 * Checks whether an artifact deployed to a location is unchanged since it
+	 * was recorded and all the files it produced are still there. The
+	 * checksum of the artifact file is only computed when its size or
+	 * timestamp differ from the recorded ones.
+	 *
+	 * @param destination the location the artifact is deployed to
+	 * @param artifact the artifact being deployed
+	 * @param artifactFile the resolved file of the artifact
+	 * @return true if the deploy of the artifact can be skipped
+	 * @throws IOException if the artifact file could not be read
+	 */
+	public boolean isUpToDate(File destination, Artifact artifact, File artifactFile)
+			throws IOException {
+		return isUpToDate(destination, getCoordinates(artifact, false),
+				getCoordinates(artifact, true), artifactFile);
+	}
+
+	/**
+	 * Checks an artifact given by its coordinates, as returned by
+	 * {@link #getCoordinates(Artifact, boolean)} without and with the version.
+	 */
+	boolean isUpToDate(File destination, String id, String coordinates,
+			File artifactFile) throws IOException {
+		String key = getPath(destination) + "#" + id;
+		String recordedArtifact;
+		String recordedSize;
+		String recordedModified;
+		String recordedChecksum;
+		String recordedFiles;
+		synchronized (this) {
+			recordedArtifact = entries.getProperty(key + ARTIFACT);
+			recordedSize = entries.getProperty(key + SIZE);
+			recordedModified = entries.getProperty(key + MODIFIED);
+			recordedChecksum = entries.getProperty(key + CHECKSUM);
+			recordedFiles = entries.getProperty(key + FILES);
+		}
+		if (recordedArtifact == null || !recordedArtifact.equals(coordinates)
+				|| recordedFiles == null) {
+			return false;
+		}
+		if (!String.valueOf(artifactFile.length()).equals(recordedSize)) {
+			return false;
+		}
+		if (!String.valueOf(artifactFile.lastModified()).equals(recordedModified)
+				&& !checksum(artifactFile).equals(recordedChecksum)) {
+			return false;
+		}
+		for (String file : getFiles(recordedFiles)) {
+			if (!new File(baseDirectory, file).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records an artifact as deployed to a location.
+	 *
+	 * @param destination the location the artifact was deployed to
+	 * @param artifact the deployed artifact
+	 * @param artifactFile the resolved file of the artifact
+	 * @param files the files written by the deploy
+	 * @return the files recorded for the artifact before which it no longer
+	 *         produces and no other artifact claims
+	 * @throws IOException if the artifact file could not be read
+	 */
+	public List<File> record(File destination, Artifact artifact, File artifactFile,
+			List<File> files) throws IOException {
+		return record(destination, artifact, artifactFile, files, null);
+	}
+
+	/**
+	 * Records an artifact deployed on behalf of a project, so the artifact
+	 * can be pruned once the project no longer deploys it.
+	 *
+	 * @param owner the id of the project, or null
+	 * @see #prune(File, String, Collection)
+	 */
+	public List<File> record(File destination, Artifact artifact, File artifactFile,
+			List<File> files, String owner) throws IOException {
+		return record(destination, getCoordinates(artifact, false),
+				getCoordinates(artifact, true), artifactFile, files, owner);
+	}
+
+	/**
+	 * Records an artifact given by its coordinates, as returned by
+	 * {@link #getCoordinates(Artifact, boolean)} without and with the version.
+	 */
+	List<File> record(File destination, String id, String coordinates, File artifactFile,
+			List<File> files, String owner) throws IOException {
+		String key = getPath(destination) + "#" + id;
+		String checksum = checksum(artifactFile);
+		StringBuffer paths = new StringBuffer();
+		for (File file : files) {
+			if (paths.length() > 0) {
+				paths.append(FILE_SEPARATOR);
+			}
+			paths.append(getPath(file));
+		}
+		synchronized (this) {
+			Set<String> left = new LinkedHashSet<String>();
+			String recordedFiles = entries.getProperty(key + FILES);
+			if (recordedFiles != null) {
+				left.addAll(getFiles(recordedFiles));
+				left.removeAll(getFiles(paths.toString()));
+			}
+			entries.setProperty(key + ARTIFACT, coordinates);
+			entries.setProperty(key + SIZE, String.valueOf(artifactFile.length()));
+			entries.setProperty(key + MODIFIED, String.valueOf(artifactFile.lastModified()));
+			entries.setProperty(key + CHECKSUM, checksum);
+			entries.setProperty(key + FILES, paths.toString());
+			if (owner != null) {
+				String owners = entries.getProperty(key + OWNER);
+				if (owners == null) {
+					entries.setProperty(key + OWNER, owner);
+				} else if (!getFiles(owners).contains(owner)) {
+					entries.setProperty(key + OWNER, owners + FILE_SEPARATOR + owner);
+				}
+			}
+			modified = true;
+			return getUnclaimed(left);
+		}
+	}
+
+	/**
+	 * Forgets the artifacts a project recorded in a location which it no
+	 * longer deploys there. An artifact deployed by several projects is kept
+	 * until the last of them stops deploying it.
+	 *
+	 * @param destination the location the project deploys to
+	 * @param owner the id of the project
+	 * @param kept the artifacts the project still deploys, as returned by
+	 *            {@link #getCoordinates(Artifact, boolean)} without the version
+	 * @return the files of the forgotten artifacts which no other artifact
+	 *         claims
+	 */
+	public synchronized List<File> prune(File destination, String owner,
+			Collection<String> kept) {
+		String prefix = getPath(destination) + "#";
+		List<String> keys = new ArrayList<String>();
+		for (Iterator i = entries.keySet().iterator(); i.hasNext();) {
+			String name = (String) i.next();
+			if (name.startsWith(prefix) && name.endsWith(OWNER)) {
+				String key = name.substring(0, name.length() - OWNER.length());
+				if (!kept.contains(key.substring(prefix.length()))) {
+					keys.add(key);
+				}
+			}
+		}
+		Set<String> left = new LinkedHashSet<String>();
+		for (String key : keys) {
+			List<String> owners = new ArrayList<String>(getFiles(entries
+					.getProperty(key + OWNER)));
+			if (!owners.remove(owner)) {
+				continue;
+			}
+			modified = true;
+			if (!owners.isEmpty()) {
+				entries.setProperty(key + OWNER, join(owners));
+				continue;
+			}
+			String files = entries.getProperty(key + FILES);
+			if (files != null) {
+				left.addAll(getFiles(files));
+			}
+			for (int i = 0; i < FIELDS.length; i++) {
+				entries.remove(key + FIELDS[i]);
+			}
+		}
+		return getUnclaimed(left);
+	}
+
+	/**
+	 * Returns the paths which are not in the file list of any entry.
+	 */
+	private List<File> getUnclaimed(Set<String> paths) {
+		if (paths.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Set<String> claimed = new HashSet<String>();
+		for (Iterator i = entries.keySet().iterator(); i.hasNext();) {
+			String name = (String) i.next();
+			if (name.endsWith(FILES)) {
+				claimed.addAll(getFiles(entries.getProperty(name)));
+			}
+		}
+		List<File> unclaimed = new ArrayList<File>();
+		for (String path : paths) {
+			if (!claimed.contains(path)) {
+				File file = new File(path);
+				unclaimed.add(file.isAbsolute() ? file : new File(baseDirectory, path));
+			}
+		}
+		return unclaimed;
+	}
+
+	/**
+	 * Writes the journal back to the deploy directory if it has changed. The
+	 * journal is written to a temporary file first so an interrupted deploy
+	 * never leaves a truncated journal behind.
+	 *
+	 * @throws IOException if the journal could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		baseDirectory.mkdirs();
+		File tmp = new File(baseDirectory, JOURNAL_NAME + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			entries.store(out, "Sakai deploy journal");
+		} finally {
+			IOUtil.close(out);
+		}
+		journalFile.delete();
+		if (!tmp.renameTo(journalFile)) {
+			throw new IOException("Unable to write deploy journal " + journalFile);
+		}
+		modified = false;
+	}
+
+	/**
+	 * Returns groupId:artifactId:type[:classifier][:version] for an artifact.
+	 */
+	static String getCoordinates(Artifact artifact, boolean withVersion) {
+		StringBuffer sb = new StringBuffer();
+		sb.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId());
+		sb.append(':').append(artifact.getType());
+		if (artifact.getClassifier() != null) {
+			sb.append(':').append(artifact.getClassifier());
+		}
+		if (withVersion) {
+			sb.append(':').append(artifact.getVersion());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the path of a file relative to the deploy directory, or the
+	 * absolute path of files outside it.
+	 */
+	private String getPath(File file) {
+		String base = baseDirectory.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if (path.startsWith(base + File.separator)) {
+			path = path.substring(base.length() + 1);
+		} else if (path.equals(base)) {
+			path = "";
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
+	private static String join(List<String> values) {
+		StringBuffer sb = new StringBuffer();
+		for (String value : values) {
+			if (sb.length() > 0) {
+				sb.append(FILE_SEPARATOR);
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	private static List<String> getFiles(String files) {
+		if (files.length() == 0) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<String>();
+		for (String file : files.split(FILE_SEPARATOR)) {
+			result.add(file);
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the checksum of a file which was computed while reading it for
+	 * some other purpose, so that {@link #checksum(File)} need not read it
+	 * again while the file is unchanged.
+	 */
+	static void remember(File file, String checksum) throws IOException {
+		String[] entry = { String.valueOf(file.length()),
+				String.valueOf(file.lastModified()), checksum };
+		synchronized (remembered) {
+			remembered.put(file.getCanonicalPath(), entry);
+		}
+	}
+
+	/**
+	 * Computes the SHA-1 checksum of a file as a hex string.
+	 */
+	public static String checksum(File file) throws IOException {
+		String[] entry;
+		synchronized (remembered) {
+			entry = remembered.get(file.getCanonicalPath());
+		}
+		if (entry != null && entry[0].equals(String.valueOf(file.length()))
+				&& entry[1].equals(String.valueOf(file.lastModified()))) {
+			return entry[2];
+		}
+		MessageDigest digest = createDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		return toHex(digest.digest());
+	}
+
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuffer sb = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xff;
+			if (b < 0x10) {
+				sb.append('0');
+			}
+			sb.append(Integer.toHexString(b));
+		}
+		return sb.toString();
+	}
+}
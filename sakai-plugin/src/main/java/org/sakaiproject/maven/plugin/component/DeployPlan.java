@@ -0,0 +1,354 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * The work a deploy will do, worked out before anything is written. Each
+ * step names an artifact, what will be done with it and where it goes, along
+ * with the number of bytes and files it is expected to write.
+ */
+public class DeployPlan {
+
+	public enum Action {
+		/** The artifact file is copied or linked into the destination. */
+		COPY,
+		/** The archive replaces the contents of the destination directory. */
+		UNPACK,
+		/** The archive is unpacked over the destination. */
+		OVERLAY,
+		/**
+		 * The archive is unpacked into the destination, keeping files which
+		 * are newer than their entries.
+		 */
+		MERGE,
+		/** The destination is deleted before the overlays which follow. */
+		DELETE,
+		/**
+		 * The artifacts the owner recorded in the destination which it no
+		 * longer deploys are removed.
+		 */
+		PRUNE,
+		/** Nothing is written, see the reason of the step. */
+		SKIP
+	}
+
+	public static class Step {
+
+		private final Artifact artifact;
+
+		private final Action action;
+
+		private final File location;
+
+		private final File destination;
+
+		private final long bytes;
+
+		private final int files;
+
+		private final String reason;
+
+		private final boolean resolved;
+
+		private String owner;
+
+		private List<String> kept = Collections.emptyList();
+
+		Step(Artifact artifact, Action action, File location, File destination,
+				long bytes, int files, String reason, boolean resolved) {
+			this.artifact = artifact;
+			this.action = action;
+			this.location = location;
+			this.destination = destination;
+			this.bytes = bytes;
+			this.files = files;
+			this.reason = reason;
+			this.resolved = resolved;
+		}
+
+		public Artifact getArtifact() {
+			return artifact;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+
+		/**
+		 * @return the location the deploy journal records the artifact under,
+		 *         the directory holding the destination for copies
+		 */
+		public File getLocation() {
+			return location;
+		}
+
+		public File getDestination() {
+			return destination;
+		}
+
+		/**
+		 * @return the number of bytes the step writes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the number of files the step writes
+		 */
+		public int getFiles() {
+			return files;
+		}
+
+		/**
+		 * @return why the step is skipped, or null
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		/**
+		 * @return false if the artifact had not been resolved when the plan
+		 *         was worked out, so its size is not known
+		 */
+		public boolean isResolved() {
+			return resolved;
+		}
+
+		/**
+		 * @return the id of the project the artifact is deployed for, or
+		 *         null if the artifact is the project itself
+		 */
+		public String getOwner() {
+			return owner;
+		}
+
+		/**
+		 * @return the artifacts the owner still deploys, for prune steps
+		 */
+		public List<String> getKept() {
+			return kept;
+		}
+	}
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	/**
+	 * Adds a step writing the file of an artifact, or the entries of the
+	 * archive for unpacks and overlays.
+	 *
+	 * @throws IOException if the artifact file could not be read
+	 */
+	public Step add(Artifact artifact, Action action, File destination)
+			throws IOException {
+		return add(artifact, action, destination, destination);
+	}
+
+	/**
+	 * Adds a step writing the file of an artifact to a destination which is
+	 * not the location the artifact is recorded under.
+	 *
+	 * @throws IOException if the artifact file could not be read
+	 */
+	public Step add(Artifact artifact, Action action, File location,
+			File destination) throws IOException {
+		return add(artifact, action, location, destination, null);
+	}
+
+	/**
+	 * Adds a step writing the file of an artifact a project deploys, so
+	 * the artifact is pruned once the project no longer deploys it.
+	 *
+	 * @param owner the id of the project
+	 * @throws IOException if the artifact file could not be read
+	 * @see #prune(File, String, Collection)
+	 */
+	public synchronized Step add(Artifact artifact, Action action, File location,
+			File destination, String owner) throws IOException {
+		File file = artifact.getFile();
+		long bytes = file.length();
+		int files = 1;
+		if (action == Action.UNPACK || action == Action.OVERLAY || action == Action.MERGE) {
+			long[] size = getUnpackedSize(file);
+			if (size != null) {
+				bytes = size[0];
+				files = (int) size[1];
+			}
+		}
+		Step step = new Step(artifact, action, location, destination, bytes, files, null, true);
+		step.owner = owner;
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Adds a step removing the artifacts a project recorded in a location
+	 * which it no longer deploys there.
+	 *
+	 * @param owner the id of the project
+	 * @param kept the artifacts the project still deploys, as returned by
+	 *            {@link DeployJournal#getCoordinates(Artifact, boolean)}
+	 *            without the version
+	 */
+	public synchronized Step prune(File destination, String owner, Collection<String> kept) {
+		Step step = new Step(null, Action.PRUNE, destination, destination, 0, 0, null, true);
+		step.owner = owner;
+		step.kept = Collections.unmodifiableList(new ArrayList<String>(kept));
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Adds a step deleting a directory.
+	 */
+	public synchronized Step delete(File destination) {
+		Step step = new Step(null, Action.DELETE, destination, destination, 0, 0, null, true);
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Adds a step which will not write anything.
+	 */
+	public synchronized Step skip(Artifact artifact, File destination, String reason) {
+		Step step = new Step(artifact, Action.SKIP, destination, destination, 0, 0, reason, true);
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Adds a step for an artifact whose file is not at hand, so nothing is
+	 * known of what it writes until it is downloaded.
+	 */
+	public synchronized Step unresolved(Artifact artifact, Action action, File location,
+			File destination) {
+		Step step = new Step(artifact, action, location, destination, 0, 0, null, false);
+		steps.add(step);
+		return step;
+	}
+
+	public synchronized List<Step> getSteps() {
+		return Collections.unmodifiableList(new ArrayList<Step>(steps));
+	}
+
+	/**
+	 * @return the number of bytes all the steps write
+	 */
+	public synchronized long getTotalBytes() {
+		long total = 0;
+		for (Step step : steps) {
+			total += step.getBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of files all the steps write
+	 */
+	public synchronized int getTotalFiles() {
+		int total = 0;
+		for (Step step : steps) {
+			total += step.getFiles();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of steps with the given action
+	 */
+	public synchronized int getCount(Action action) {
+		int count = 0;
+		for (Step step : steps) {
+			if (step.getAction() == action) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of steps whose artifact has not been resolved
+	 */
+	public synchronized int getUnresolvedCount() {
+		int count = 0;
+		for (Step step : steps) {
+			if (!step.isResolved()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Formats a number of bytes for people to read.
+	 */
+	public static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		} else if (bytes < 1024 * 1024) {
+			return (bytes / 1024) + " KB";
+		}
+		return (bytes / (1024 * 1024)) + " MB";
+	}
+
+	/**
+	 * Reads the uncompressed size and number of files of an archive from its
+	 * central directory.
+	 *
+	 * @return the size and file count, or null if the file is not an archive
+	 */
+	static long[] getUnpackedSize(File archive) throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(archive);
+		} catch (ZipException e) {
+			return null;
+		}
+		try {
+			long bytes = 0;
+			long files = 0;
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				if (!entry.isDirectory()) {
+					files++;
+					if (entry.getSize() > 0) {
+						bytes += entry.getSize();
+					}
+				}
+			}
+			return new long[] { bytes, files };
+		} finally {
+			zip.close();
+		}
+	}
+}
@@ -0,0 +1,485 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Puts files in place by copying them, hard linking them or symbolically
+ * linking them to their source.
+ * <p/>
+ * Links are made through <code>java.nio.file.Files</code> when the JVM
+ * running the build provides it. When a link cannot be made, for example
+ * because the source and destination are on different filesystems, the file
+ * is copied instead. Later transfers between the same two filesystems go
+ * straight to copying, transfers elsewhere still try to link.
+ * <p/>
+ * The destination is always replaced by renaming a new file over it, so an
+ * existing link is never written through.
+ * <p/>
+ * Copies checksum the bytes as they pass through. When the source has a
+ * <code>.sha1</code> file next to it, as artifacts in a Maven repository do,
+ * a transfer which does not match it is noted, or fails instead of being put
+ * in place when checksums are verified. Local repositories often hold stale
+ * or hand edited checksums, so they are not verified unless asked for. The
+ * checksum is handed to the {@link DeployJournal} so recording the deploy
+ * does not read the file again.
+ */
+public class FileTransfer {
+
+	public enum Strategy {
+		COPY, HARDLINK, SYMLINK;
+
+		/**
+		 * Parses a strategy name as used in the plugin configuration.
+		 */
+		public static Strategy parse(String name) {
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown transfer strategy '"
+						+ name + "', expected copy, hardlink or symlink");
+			}
+		}
+
+		public String getLabel() {
+			String name = name();
+			return name.charAt(0) + name.substring(1).toLowerCase();
+		}
+	}
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private static Method toPath;
+
+	private static Method createLink;
+
+	private static Method createSymbolicLink;
+
+	private static Method isSameFile;
+
+	private static Method getFileStore;
+
+	private static Method isSymbolicLink;
+
+	private static Method readSymbolicLink;
+
+	private static Object noAttributes;
+
+	static {
+		try {
+			Class files = Class.forName("java.nio.file.Files");
+			Class path = Class.forName("java.nio.file.Path");
+			Class attribute = Class.forName("java.nio.file.attribute.FileAttribute");
+			noAttributes = Array.newInstance(attribute, 0);
+			toPath = File.class.getMethod("toPath", new Class[0]);
+			createLink = files.getMethod("createLink", new Class[] { path, path });
+			createSymbolicLink = files.getMethod("createSymbolicLink", new Class[] {
+					path, path, noAttributes.getClass() });
+			isSameFile = files.getMethod("isSameFile", new Class[] { path, path });
+			getFileStore = files.getMethod("getFileStore", new Class[] { path });
+			isSymbolicLink = files.getMethod("isSymbolicLink", new Class[] { path });
+			readSymbolicLink = files.getMethod("readSymbolicLink", new Class[] { path });
+		} catch (Exception e) {
+			// Before Java 7 there is no way to make links, everything is copied
+			toPath = null;
+		}
+	}
+
+	private final Strategy strategy;
+
+	/** The pairs of source and destination filesystems links failed between. */
+	private final Set<List<Object>> linkFailures = new HashSet<List<Object>>();
+
+	private final List<String> fallbacks = new ArrayList<String>();
+
+	private int copied;
+
+	private int hardLinked;
+
+	private int symLinked;
+
+	private boolean verifyChecksums = false;
+
+	private final List<String> checksumMismatches = new ArrayList<String>();
+
+	public FileTransfer(Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	public boolean isVerifyChecksums() {
+		return verifyChecksums;
+	}
+
+	/**
+	 * Sets whether a copy not matching the checksum published next to its
+	 * source fails. Otherwise the mismatch is only noted.
+	 */
+	public void setVerifyChecksums(boolean verifyChecksums) {
+		this.verifyChecksums = verifyChecksums;
+	}
+
+	/**
+	 * @return the copies which did not match the checksum published next to
+	 *         their source, when checksums are not verified
+	 */
+	public synchronized List<String> getChecksumMismatches() {
+		return new ArrayList<String>(checksumMismatches);
+	}
+
+	/**
+	 * @return true if links can be made by the running JVM
+	 */
+	public static boolean isLinkingSupported() {
+		return toPath != null;
+	}
+
+	/**
+	 * Puts <code>source</code> in place as <code>destination</code> using
+	 * the configured strategy, falling back to a copy when a link cannot be
+	 * made. After a failed link, files between the same two filesystems are
+	 * copied without trying to link them.
+	 *
+	 * @return the strategy that was actually used
+	 * @throws IOException if the file could not be copied, or checksums are
+	 *             verified and it does not match the published one
+	 */
+	public Strategy transfer(File source, File destination) throws IOException {
+		destination.getParentFile().mkdirs();
+		if (strategy != Strategy.COPY) {
+			List<Object> filesystems = Arrays.asList(new Object[] {
+					getFileSystem(source.getParentFile()),
+					getFileSystem(destination.getParentFile()) });
+			boolean failedBefore;
+			synchronized (this) {
+				failedBefore = linkFailures.contains(filesystems);
+			}
+			if (!failedBefore) {
+				if (link(source, destination, strategy == Strategy.SYMLINK)) {
+					count(strategy);
+					return strategy;
+				}
+				synchronized (this) {
+					if (linkFailures.add(filesystems)) {
+						fallbacks.add("Could not " + strategy.getLabel().toLowerCase() + " "
+								+ source + " to " + destination + ", copying files between "
+								+ "these filesystems instead");
+					}
+				}
+			}
+		}
+		String checksum = copy(source, destination, verifyChecksums);
+		if (!verifyChecksums) {
+			String mismatch = getChecksumMismatch(source, checksum);
+			if (mismatch != null) {
+				synchronized (this) {
+					checksumMismatches.add(mismatch);
+				}
+			}
+		}
+		DeployJournal.remember(source, checksum);
+		destination.setLastModified(source.lastModified());
+		count(Strategy.COPY);
+		return Strategy.COPY;
+	}
+
+	/**
+	 * @return true if a link could not be made and some files are now copied
+	 */
+	public synchronized boolean isLinkFailed() {
+		return !linkFailures.isEmpty();
+	}
+
+	/**
+	 * Returns the fallbacks to copying since the last call, one for each pair
+	 * of filesystems a link first failed between, so they can be logged once.
+	 */
+	public synchronized List<String> takeFallbacks() {
+		List<String> taken = new ArrayList<String>(fallbacks);
+		fallbacks.clear();
+		return taken;
+	}
+
+	/**
+	 * Identifies the filesystem a directory is on.
+	 *
+	 * @return the file store of the directory, or the directory itself if it
+	 *         cannot be told
+	 */
+	private static Object getFileSystem(File directory) {
+		if (toPath != null) {
+			try {
+				return getFileStore.invoke(null, new Object[] {
+						toPath.invoke(directory, new Object[0]) });
+			} catch (InvocationTargetException e) {
+				// the directory does not exist or cannot be read
+			} catch (IllegalAccessException e) {
+				// fall through
+			}
+		}
+		return directory.getAbsoluteFile();
+	}
+
+	/**
+	 * @return a summary of how many files were transferred with each strategy
+	 */
+	public synchronized String getSummary() {
+		return copied + " copied, " + hardLinked + " hard linked, " + symLinked
+				+ " symbolically linked";
+	}
+
+	private synchronized void count(Strategy used) {
+		switch (used) {
+		case HARDLINK:
+			hardLinked++;
+			break;
+		case SYMLINK:
+			symLinked++;
+			break;
+		default:
+			copied++;
+		}
+	}
+
+	/**
+	 * Hard links <code>destination</code> to <code>source</code>.
+	 *
+	 * @return false if the link could not be made
+	 */
+	public static boolean hardLink(File source, File destination) {
+		return link(source, destination, false);
+	}
+
+	/**
+	 * Symbolically links <code>destination</code> to <code>source</code>.
+	 *
+	 * @return false if the link could not be made
+	 */
+	public static boolean symLink(File source, File destination) {
+		return link(source, destination, true);
+	}
+
+	/**
+	 * Checks whether two names are links to the same file.
+	 *
+	 * @return false if they are not, or it cannot be told
+	 */
+	public static boolean isSameFile(File a, File b) {
+		if (toPath == null || !a.exists() || !b.exists()) {
+			return false;
+		}
+		try {
+			Object result = isSameFile.invoke(null, new Object[] {
+					toPath.invoke(a, new Object[0]), toPath.invoke(b, new Object[0]) });
+			return ((Boolean) result).booleanValue();
+		} catch (InvocationTargetException e) {
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the file is a symbolic link, false if it is not or it
+	 *         cannot be told
+	 */
+	public static boolean isSymbolicLink(File file) {
+		if (toPath == null) {
+			return false;
+		}
+		try {
+			Object result = isSymbolicLink.invoke(null, new Object[] { toPath.invoke(
+					file.getAbsoluteFile(), new Object[0]) });
+			return ((Boolean) result).booleanValue();
+		} catch (InvocationTargetException e) {
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Makes <code>destination</code> a symbolic link to what the symbolic link
+	 * <code>link</code> points to. A relative target stays relative, so it
+	 * resolves against the directory of the new link.
+	 *
+	 * @return false if the link could not be read or made
+	 */
+	public static boolean copySymbolicLink(File link, File destination) {
+		if (toPath == null) {
+			return false;
+		}
+		try {
+			Object target = readSymbolicLink.invoke(null, new Object[] { toPath.invoke(
+					link.getAbsoluteFile(), new Object[0]) });
+			File tmp = new File(destination.getParentFile(), "." + destination.getName()
+					+ ".tmp");
+			tmp.delete();
+			createSymbolicLink.invoke(null, new Object[] {
+					toPath.invoke(tmp, new Object[0]), target, noAttributes });
+			try {
+				ZipExtractor.replace(tmp, destination);
+			} catch (IOException e) {
+				tmp.delete();
+				return false;
+			}
+			return true;
+		} catch (InvocationTargetException e) {
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	private static boolean link(File source, File destination, boolean symbolic) {
+		if (toPath == null) {
+			return false;
+		}
+		File tmp = new File(destination.getParentFile(), "." + destination.getName() + ".tmp");
+		tmp.delete();
+		try {
+			Object target = toPath.invoke(source.getAbsoluteFile(), new Object[0]);
+			Object link = toPath.invoke(tmp, new Object[0]);
+			if (symbolic) {
+				createSymbolicLink.invoke(null, new Object[] { link, target, noAttributes });
+			} else {
+				createLink.invoke(null, new Object[] { link, target });
+			}
+			ZipExtractor.replace(tmp, destination);
+			return true;
+		} catch (InvocationTargetException e) {
+			// cross device links, unsupported filesystems and so on
+			tmp.delete();
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		} catch (IOException e) {
+			tmp.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Copies a file by writing a new file next to the destination and
+	 * renaming it into place.
+	 *
+	 * @return the SHA-1 checksum of the copied bytes
+	 * @throws IOException if the file could not be copied
+	 */
+	public static String copy(File source, File destination) throws IOException {
+		return copy(source, destination, false);
+	}
+
+	/**
+	 * Copies a file by writing a new file next to the destination and
+	 * renaming it into place.
+	 *
+	 * @param verify whether a copy not matching the checksum published next
+	 *            to the source fails instead of being put in place
+	 * @return the SHA-1 checksum of the copied bytes
+	 * @throws IOException if the file could not be copied or does not match
+	 *             the published checksum
+	 */
+	public static String copy(File source, File destination, boolean verify)
+			throws IOException {
+		File tmp = new File(destination.getParentFile(), "." + destination.getName() + ".tmp");
+		MessageDigest digest = DeployJournal.createDigest();
+		InputStream in = new FileInputStream(source);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, n);
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				IOUtil.close(out);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		String checksum = DeployJournal.toHex(digest.digest());
+		if (verify) {
+			String mismatch = getChecksumMismatch(source, checksum);
+			if (mismatch != null) {
+				tmp.delete();
+				throw new IOException(mismatch);
+			}
+		}
+		ZipExtractor.replace(tmp, destination);
+		return checksum;
+	}
+
+	/**
+	 * Compares a checksum with the one a repository keeps next to a file.
+	 *
+	 * @return a description of the mismatch, or null if they match or there
+	 *         is no published checksum
+	 */
+	static String getChecksumMismatch(File file, String checksum) throws IOException {
+		String expected = getPublishedChecksum(file);
+		if (expected == null || expected.equalsIgnoreCase(checksum)) {
+			return null;
+		}
+		return "Checksum of " + file + " is " + checksum + " but the repository has "
+				+ expected;
+	}
+
+	/**
+	 * Reads the SHA-1 checksum a repository keeps next to a file.
+	 *
+	 * @return the checksum, or null if there is none
+	 */
+	static String getPublishedChecksum(File file) throws IOException {
+		File sha1 = new File(file.getPath() + ".sha1");
+		if (!sha1.isFile()) {
+			return null;
+		}
+		// the file may carry the name of the artifact after the checksum
+		String[] fields = FileUtils.fileRead(sha1).trim().split("\\s+");
+		if (fields.length == 0 || fields[0].length() != 40) {
+			return null;
+		}
+		return fields[0];
+	}
+}
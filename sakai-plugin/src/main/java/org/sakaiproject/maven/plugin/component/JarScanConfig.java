@@ -0,0 +1,467 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Works out which jars of a container the servlet container has to scan for
+ * tag libraries and web fragments, and writes the lists to its
+ * configuration.
+ * <p/>
+ * A jar needs scanning when it has a TLD or a <code>web-fragment.xml</code>
+ * under <code>META-INF</code>, or registers a servlet container
+ * initializer. Only the central directories of jars are read, jars bundled
+ * in a war are read from the war. What was found is cached by the path in
+ * the container, size and timestamp, so later deploys, and releases linked
+ * to earlier ones, only look at jars and wars which changed.
+ * <p/>
+ * The lists are written to the properties named by the server layout, such
+ * as <code>jarsToSkip</code> in <code>catalina.properties</code>. Entries
+ * already in a property are kept, apart from those written by an earlier
+ * deploy, which are replaced.
+ */
+public class JarScanConfig {
+
+	public static final String CACHE_NAME = ".sakai-jarscan.cache";
+
+	private static final String JAR = "jar.";
+
+	private static final String MANAGED = "managed.";
+
+	private static final String SCAN = "1";
+
+	private static final String SKIP = "0";
+
+	private final File root;
+
+	private final File cacheFile;
+
+	private final Properties cache = new Properties();
+
+	/** The jars seen by this run, and whether each needs scanning. */
+	private final Map<String, Boolean> jars = new TreeMap<String, Boolean>();
+
+	private final Set<String> seen = new HashSet<String>();
+
+	private int read;
+
+	/**
+	 * @param root the container the jars are deployed to, the cache keeps
+	 *            the jars by their path in it
+	 * @param cacheDirectory the directory the cache is kept in
+	 * @throws IOException if the cache could not be read
+	 */
+	public JarScanConfig(File root, File cacheDirectory) throws IOException {
+		this.root = root;
+		this.cacheFile = new File(cacheDirectory, CACHE_NAME);
+		if (cacheFile.isFile()) {
+			InputStream in = new FileInputStream(cacheFile);
+			try {
+				cache.load(in);
+			} finally {
+				IOUtil.close(in);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of jars and wars read, rather than taken from the
+	 *         cache
+	 */
+	public int getReadCount() {
+		return read;
+	}
+
+	/**
+	 * Looks at the jars in a lib directory.
+	 */
+	public void scanLibDirectory(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isFile() && files[i].getName().endsWith(".jar")) {
+				scan(files[i]);
+			}
+		}
+	}
+
+	/**
+	 * Looks at the jars bundled in the wars of a webapps directory, and in
+	 * the WEB-INF/lib of webapps which are only there unpacked.
+	 */
+	public void scanWebapps(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isFile() && files[i].getName().endsWith(".war")) {
+				scan(files[i]);
+			} else if (files[i].isDirectory()
+					&& !new File(directory, files[i].getName() + ".war").exists()) {
+				scanLibDirectory(new File(files[i], "WEB-INF/lib"));
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the jars seen which need scanning
+	 */
+	public Set<String> getJarsToScan() {
+		Set<String> names = new TreeSet<String>();
+		for (Map.Entry<String, Boolean> jar : jars.entrySet()) {
+			if (jar.getValue().booleanValue()) {
+				names.add(jar.getKey());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return the names of the jars seen which can be skipped
+	 */
+	public Set<String> getJarsToSkip() {
+		Set<String> names = new TreeSet<String>();
+		for (Map.Entry<String, Boolean> jar : jars.entrySet()) {
+			if (!jar.getValue().booleanValue()) {
+				names.add(jar.getKey());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Writes the lists to a properties file of the servlet container.
+	 *
+	 * @param config the file, which must exist
+	 * @param skipProperty the property listing the jars to skip
+	 * @param scanProperty the property listing the jars to scan, or null if
+	 *            the container has none
+	 * @return true if the file changed
+	 * @throws IOException if the file could not be read or written
+	 */
+	public boolean write(File config, String skipProperty, String scanProperty)
+			throws IOException {
+		List<String> lines = readLines(config);
+		List<String> original = new ArrayList<String>(lines);
+		update(lines, skipProperty, getJarsToSkip());
+		if (scanProperty != null) {
+			update(lines, scanProperty, getJarsToScan());
+		}
+		if (lines.equals(original)) {
+			return false;
+		}
+		File tmp = new File(config.getParentFile(), "." + config.getName() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "ISO-8859-1");
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, config);
+		return true;
+	}
+
+	/**
+	 * Saves what was found, forgetting the jars and wars not seen by this
+	 * run.
+	 */
+	public void saveCache() throws IOException {
+		List<String> forgotten = new ArrayList<String>();
+		for (Enumeration e = cache.propertyNames(); e.hasMoreElements();) {
+			String key = (String) e.nextElement();
+			if (key.startsWith(JAR) && !seen.contains(key)) {
+				forgotten.add(key);
+			}
+		}
+		for (String key : forgotten) {
+			cache.remove(key);
+		}
+		cacheFile.getParentFile().mkdirs();
+		File tmp = new File(cacheFile.getParentFile(), CACHE_NAME + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			cache.store(out, "Jars found by the jar scan of the deploy goal");
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, cacheFile);
+	}
+
+	/**
+	 * Adds the jars of a jar or war, from the cache if it has not changed.
+	 */
+	private void scan(File file) throws IOException {
+		String key = JAR + getPath(file);
+		String stamp = file.length() + "," + file.lastModified();
+		seen.add(key);
+		String cached = cache.getProperty(key);
+		if (cached == null || !cached.startsWith(stamp + ",")) {
+			StringBuffer found = new StringBuffer(stamp).append(',');
+			if (file.getName().endsWith(".war")) {
+				scanWar(file, found);
+			} else {
+				found.append(file.getName()).append(':').append(
+						scanJar(file) ? SCAN : SKIP);
+			}
+			cached = found.toString();
+			cache.setProperty(key, cached);
+			read++;
+		}
+		String list = cached.substring(stamp.length() + 1);
+		if (list.length() == 0) {
+			return;
+		}
+		String[] entries = list.split(";");
+		for (int i = 0; i < entries.length; i++) {
+			int colon = entries[i].lastIndexOf(':');
+			String name = entries[i].substring(0, colon);
+			boolean scan = SCAN.equals(entries[i].substring(colon + 1));
+			// a name shipped both with and without fragments has to be scanned
+			Boolean previous = jars.get(name);
+			jars.put(name, Boolean.valueOf(scan || (previous != null && previous.booleanValue())));
+		}
+	}
+
+	private static boolean scanJar(File jar) throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(jar);
+		} catch (ZipException e) {
+			return false;
+		}
+		try {
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				if (isScanned(((ZipEntry) entries.nextElement()).getName())) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Lists the jars in WEB-INF/lib of a war. The central directory of a
+	 * bundled jar is not reachable without reading the jar, so its entries
+	 * are read as a stream.
+	 */
+	private static void scanWar(File war, StringBuffer found) throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(war);
+		} catch (ZipException e) {
+			return;
+		}
+		try {
+			boolean first = true;
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				String name = entry.getName();
+				if (entry.isDirectory() || !name.startsWith("WEB-INF/lib/")
+						|| !name.endsWith(".jar") || name.indexOf('/', 12) != -1) {
+					continue;
+				}
+				boolean scan = false;
+				ZipInputStream in = new ZipInputStream(zip.getInputStream(entry));
+				try {
+					ZipEntry nested;
+					while (!scan && (nested = in.getNextEntry()) != null) {
+						scan = isScanned(nested.getName());
+					}
+				} catch (ZipException e) {
+					// not a jar after all
+				} finally {
+					IOUtil.close(in);
+				}
+				if (!first) {
+					found.append(';');
+				}
+				found.append(name.substring(12)).append(':').append(scan ? SCAN : SKIP);
+				first = false;
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	private String getPath(File file) {
+		String base = root.getAbsolutePath() + File.separator;
+		String path = file.getAbsolutePath();
+		if (path.startsWith(base)) {
+			path = path.substring(base.length());
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
+	static boolean isScanned(String name) {
+		if (!name.startsWith("META-INF/")) {
+			return false;
+		}
+		return name.endsWith(".tld") || name.equals("META-INF/web-fragment.xml")
+				|| name.equals("META-INF/services/javax.servlet.ServletContainerInitializer");
+	}
+
+	/**
+	 * Sets a property to the entries it already had, less the ones an earlier
+	 * run wrote, followed by <code>names</code>.
+	 */
+	private void update(List<String> lines, String property, Set<String> names) {
+		Set<String> previous = new HashSet<String>(split(cache.getProperty(MANAGED
+				+ property, "")));
+		Set<String> values = new LinkedHashSet<String>();
+		int start = -1;
+		int end = -1;
+		for (int i = 0; i < lines.size(); i++) {
+			if (isProperty(lines.get(i), property)) {
+				start = i;
+				StringBuffer value = new StringBuffer();
+				end = i;
+				String line = lines.get(i);
+				while (true) {
+					boolean more = isContinued(line);
+					value.append(more ? line.substring(0, line.length() - 1) : line);
+					if (!more || end + 1 >= lines.size()) {
+						break;
+					}
+					line = lines.get(++end).trim();
+				}
+				String text = value.toString().trim();
+				int separator = text.indexOf('=');
+				for (String v : split(text.substring(separator + 1))) {
+					if (!previous.contains(v)) {
+						values.add(v);
+					}
+				}
+				break;
+			}
+		}
+		values.addAll(names);
+
+		List<String> replacement = new ArrayList<String>();
+		List<String> list = new ArrayList<String>(values);
+		if (list.isEmpty()) {
+			replacement.add(property + "=");
+		}
+		for (int i = 0; i < list.size(); i++) {
+			String prefix = (i == 0) ? property + "=" : "";
+			String suffix = (i < list.size() - 1) ? ",\\" : "";
+			replacement.add(prefix + list.get(i) + suffix);
+		}
+		if (start == -1) {
+			lines.addAll(replacement);
+		} else {
+			for (int i = end; i >= start; i--) {
+				lines.remove(i);
+			}
+			lines.addAll(start, replacement);
+		}
+		cache.setProperty(MANAGED + property, join(names));
+	}
+
+	private static boolean isProperty(String line, String property) {
+		String trimmed = line.trim();
+		if (!trimmed.startsWith(property)) {
+			return false;
+		}
+		String rest = trimmed.substring(property.length()).trim();
+		return rest.startsWith("=") || rest.startsWith(":");
+	}
+
+	private static boolean isContinued(String line) {
+		int backslashes = 0;
+		for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+			backslashes++;
+		}
+		return backslashes % 2 == 1;
+	}
+
+	private static List<String> split(String value) {
+		List<String> values = new ArrayList<String>();
+		String[] parts = value.split(",");
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i].trim().length() > 0) {
+				values.add(parts[i].trim());
+			}
+		}
+		return values;
+	}
+
+	private static String join(Set<String> values) {
+		StringBuffer sb = new StringBuffer();
+		for (String value : values) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(
+				file), "ISO-8859-1"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		return lines;
+	}
+}
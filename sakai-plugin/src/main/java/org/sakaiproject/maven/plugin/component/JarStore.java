@@ -0,0 +1,216 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps one copy of each distinct jar of the unpacked components and hard
+ * links the jars in their <code>WEB-INF/lib</code> directories to it.
+ * <p/>
+ * Components often bundle the same libraries. Once linked, identical jars
+ * share one inode, so they take the disk space and page cache of a single
+ * file. The store is a directory in the container named after the SHA-1
+ * checksum of each jar. The first jar with a given checksum becomes the
+ * stored copy, later ones are replaced by links to it.
+ * <p/>
+ * Files in the container are always replaced by renaming a new file over
+ * them, so writing a component never changes the stored copy or the other
+ * components linked to it. Linked jars share the timestamp of the stored
+ * copy, delta unpacks compare contents and are not affected by this.
+ * <p/>
+ * A stored copy no component links to any more has a link count of one and
+ * is removed by {@link #collect()} once stale components have been pruned.
+ * Link counts are read through <code>java.nio.file.Files</code>, so nothing
+ * is collected on JVMs or filesystems which do not report them.
+ */
+public class JarStore {
+
+	public static final String STORE_NAME = ".sakai-jars";
+
+	private final File directory;
+
+	private boolean linkFailed;
+
+	private int linked;
+
+	private long savedBytes;
+
+	private static Method toPath;
+
+	private static Method getAttribute;
+
+	private static Object noOptions;
+
+	static {
+		try {
+			Class files = Class.forName("java.nio.file.Files");
+			Class path = Class.forName("java.nio.file.Path");
+			Class option = Class.forName("java.nio.file.LinkOption");
+			noOptions = Array.newInstance(option, 0);
+			toPath = File.class.getMethod("toPath", new Class[0]);
+			getAttribute = files.getMethod("getAttribute", new Class[] { path,
+					String.class, noOptions.getClass() });
+		} catch (Exception e) {
+			// Before Java 7 link counts cannot be read, nothing is collected
+			toPath = null;
+		}
+	}
+
+	/**
+	 * @param container the directory the store is kept in, which must be on
+	 *            the same filesystem as the components
+	 */
+	public JarStore(File container) {
+		this.directory = new File(container, STORE_NAME);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the number of jars replaced by a link to a stored copy
+	 */
+	public synchronized int getLinkedCount() {
+		return linked;
+	}
+
+	/**
+	 * @return the size of the jars replaced by a link to a stored copy
+	 */
+	public synchronized long getSavedBytes() {
+		return savedBytes;
+	}
+
+	/**
+	 * @return true if a link could not be made and jars are left as they are
+	 */
+	public synchronized boolean isLinkFailed() {
+		return linkFailed;
+	}
+
+	/**
+	 * Links the jars of an unpacked component to the store.
+	 *
+	 * @param component the directory the component was unpacked into
+	 * @return the number of jars replaced by a link
+	 * @throws IOException if a jar could not be read
+	 */
+	public int deduplicate(File component) throws IOException {
+		File[] jars = new File(component, "WEB-INF/lib").listFiles();
+		if (jars == null) {
+			return 0;
+		}
+		int count = 0;
+		for (int i = 0; i < jars.length && !isLinkFailed(); i++) {
+			if (jars[i].isFile() && jars[i].getName().endsWith(".jar")
+					&& deduplicateJar(jars[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Replaces a jar by a link to the stored copy with the same contents, or
+	 * makes it the stored copy if there is none yet.
+	 *
+	 * @return true if the jar was replaced by a link
+	 */
+	boolean deduplicateJar(File jar) throws IOException {
+		String checksum = DeployJournal.checksum(jar);
+		File stored = new File(new File(directory, checksum.substring(0, 2)), checksum
+				+ ".jar");
+		synchronized (this) {
+			if (!stored.isFile() || stored.length() != jar.length()) {
+				stored.getParentFile().mkdirs();
+				if (!FileTransfer.hardLink(jar, stored)) {
+					linkFailed = true;
+				}
+				return false;
+			}
+		}
+		if (FileTransfer.isSameFile(jar, stored)) {
+			// linked by an earlier deploy
+			return false;
+		}
+		if (!FileTransfer.hardLink(stored, jar)) {
+			synchronized (this) {
+				linkFailed = true;
+			}
+			return false;
+		}
+		synchronized (this) {
+			linked++;
+			savedBytes += stored.length();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the stored copies no component is linked to any more.
+	 *
+	 * @return the stored copies removed
+	 */
+	public synchronized List<File> collect() {
+		List<File> removed = new ArrayList<File>();
+		File[] prefixes = directory.listFiles();
+		if (prefixes == null) {
+			return removed;
+		}
+		for (int i = 0; i < prefixes.length; i++) {
+			File[] stored = prefixes[i].listFiles();
+			if (stored == null) {
+				continue;
+			}
+			for (int j = 0; j < stored.length; j++) {
+				if (getLinkCount(stored[j]) == 1 && stored[j].delete()) {
+					removed.add(stored[j]);
+				}
+			}
+			// only succeeds once the directory is empty
+			prefixes[i].delete();
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the number of names linked to a file, or 0 if it cannot be told
+	 */
+	static int getLinkCount(File file) {
+		if (toPath == null || !file.isFile()) {
+			return 0;
+		}
+		try {
+			Object count = getAttribute.invoke(null, new Object[] {
+					toPath.invoke(file, new Object[0]), "unix:nlink", noOptions });
+			return ((Number) count).intValue();
+		} catch (Exception e) {
+			// not a unix filesystem
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Unpacks several overlay archives over the same directory as if they were
+ * unpacked one after the other with overwrite on, but writes each path once.
+ * <p/>
+ * The central directories of all the archives are merged into one index in
+ * which an entry from a later archive replaces the same path from an earlier
+ * one. Only the surviving entries are extracted, files which already hold
+ * the bytes of their entry are left alone.
+ */
+public class OverlayExtractor {
+
+	private final List<File> archives;
+
+	private int written;
+
+	private int unchanged;
+
+	private int shadowed;
+
+	private long writtenBytes;
+
+	/**
+	 * @param archives the overlays in the order they would be unpacked
+	 */
+	public OverlayExtractor(List<File> archives) {
+		this.archives = archives;
+	}
+
+	/**
+	 * @return the number of files written by the last extraction
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * @return the uncompressed size of the files written by the last
+	 *         extraction
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * @return the number of files which already matched their entry
+	 */
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+
+	/**
+	 * @return the number of entries not extracted because a later overlay
+	 *         has the same path
+	 */
+	public int getShadowedCount() {
+		return shadowed;
+	}
+
+	/**
+	 * Checks that every overlay is a zip based archive, which this extractor
+	 * needs to read the central directories.
+	 */
+	public boolean isSupported() {
+		for (File archive : archives) {
+			try {
+				new ZipFile(archive).close();
+			} catch (ZipException e) {
+				return false;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Extracts the merged overlays into <code>destination</code>.
+	 *
+	 * @param threads the number of entries to inflate at the same time
+	 * @throws IOException if an archive could not be read or a file could not
+	 *             be written
+	 */
+	public void extract(File destination, int threads) throws IOException {
+		written = 0;
+		unchanged = 0;
+		shadowed = 0;
+		writtenBytes = 0;
+		List<ZipFile> zips = new ArrayList<ZipFile>();
+		try {
+			Map<String, ZipEntry> index = new LinkedHashMap<String, ZipEntry>();
+			Map<String, ZipFile> owners = new LinkedHashMap<String, ZipFile>();
+			for (File archive : archives) {
+				ZipFile zip = new ZipFile(archive);
+				zips.add(zip);
+				for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+					ZipEntry entry = (ZipEntry) entries.nextElement();
+					String name = ZipExtractor.getRelativePath(entry);
+					if (entry.isDirectory()) {
+						new File(destination, name).mkdirs();
+						continue;
+					}
+					if (index.put(name, entry) != null) {
+						shadowed++;
+					}
+					owners.put(name, zip);
+				}
+			}
+
+			List<ZipFile> sources = new ArrayList<ZipFile>();
+			List<ZipEntry> files = new ArrayList<ZipEntry>();
+			List<File> targets = new ArrayList<File>();
+			for (Map.Entry<String, ZipEntry> indexed : index.entrySet()) {
+				File target = new File(destination, indexed.getKey());
+				if (ZipExtractor.isSame(indexed.getValue(), target)) {
+					unchanged++;
+				} else {
+					target.getParentFile().mkdirs();
+					sources.add(owners.get(indexed.getKey()));
+					files.add(indexed.getValue());
+					targets.add(target);
+				}
+			}
+			if (threads <= 1 || files.size() <= 1) {
+				for (int i = 0; i < files.size(); i++) {
+					ZipExtractor.extractEntry(sources.get(i), files.get(i), targets.get(i));
+				}
+			} else {
+				ZipExtractor.extractConcurrently(sources, files, targets, threads);
+			}
+			written = files.size();
+			for (ZipEntry entry : files) {
+				writtenBytes += Math.max(0, entry.getSize());
+			}
+		} finally {
+			for (ZipFile zip : zips) {
+				try {
+					zip.close();
+				} catch (IOException e) {
+					// already read everything needed
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Caches the parts of repository project models which a deploy uses, so a
+ * distro deploy does not have to build the model of every dependency again.
+ * <p/>
+ * An entry holds the packaging, final name, the deploy properties and the
+ * dependencies of a project, with their exclusions and system paths, so the
+ * dependency artifacts created from it are the same as from the POM. It is
+ * only used while the POM of the project and
+ * the POMs of all its parents in the local repository still have the
+ * checksums they had when the entry was stored.
+ * <p/>
+ * Snapshots are never cached. Building their model checks the remote
+ * repositories for a newer snapshot POM, which a cache hit would skip, so a
+ * stale model could be used until something else updated the local POM.
+ * <p/>
+ * The cache is kept as a properties file in the local repository.
+ */
+public class ProjectModelCache {
+
+	public static final String CACHE_NAME = ".sakai-model-cache";
+
+	/** The project properties a deploy looks at. */
+	private static final String[] DEPLOY_PROPERTIES = { "deploy.target",
+			"deployId", "clean.targets" };
+
+	private static final String POMS = "#poms";
+
+	private static final String PACKAGING = "#packaging";
+
+	private static final String FINAL_NAME = "#finalName";
+
+	private static final String PROPERTY = "#property.";
+
+	private static final String DEPENDENCIES = "#dependencies";
+
+	private static final String SEPARATOR = "\n";
+
+	private static final String[] FIELDS;
+
+	static {
+		FIELDS = new String[4 + DEPLOY_PROPERTIES.length];
+		FIELDS[0] = POMS;
+		FIELDS[1] = PACKAGING;
+		FIELDS[2] = FINAL_NAME;
+		FIELDS[3] = DEPENDENCIES;
+		for (int i = 0; i < DEPLOY_PROPERTIES.length; i++) {
+			FIELDS[4 + i] = PROPERTY + DEPLOY_PROPERTIES[i];
+		}
+	}
+
+	private final File repositoryDirectory;
+
+	private final File cacheFile;
+
+	private final Properties entries = new Properties();
+
+	private boolean modified = false;
+
+	private int hits;
+
+	private int misses;
+
+	/**
+	 * Loads the cache of a local repository, starting an empty one if none
+	 * exists yet.
+	 *
+	 * @param repositoryDirectory the base directory of the local repository
+	 * @throws IOException if an existing cache could not be read
+	 */
+	public ProjectModelCache(File repositoryDirectory) throws IOException {
+		this.repositoryDirectory = repositoryDirectory;
+		this.cacheFile = new File(repositoryDirectory, CACHE_NAME);
+		if (cacheFile.exists()) {
+			InputStream in = new FileInputStream(cacheFile);
+			try {
+				entries.load(in);
+			} finally {
+				IOUtil.close(in);
+			}
+		}
+	}
+
+	public synchronized int getHitCount() {
+		return hits;
+	}
+
+	public synchronized int getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Rebuilds a project from the cache. The project only carries the cached
+	 * model, its artifact and dependency artifacts still have to be created.
+	 *
+	 * @return the project, or null if it is not cached, its POMs changed or
+	 *         it is a snapshot
+	 * @throws IOException if a POM could not be read
+	 */
+	public MavenProject lookup(String groupId, String artifactId, String version)
+			throws IOException {
+		if (ArtifactUtils.isSnapshot(version)) {
+			miss();
+			return null;
+		}
+		String key = groupId + ":" + artifactId + ":" + version;
+		Properties entry = new Properties();
+		synchronized (this) {
+			for (int i = 0; i < FIELDS.length; i++) {
+				String value = entries.getProperty(key + FIELDS[i]);
+				if (value != null) {
+					entry.setProperty(FIELDS[i], value);
+				}
+			}
+		}
+		if (entry.getProperty(POMS) == null || !isCurrent(entry.getProperty(POMS))) {
+			miss();
+			return null;
+		}
+
+		Model model = new Model();
+		model.setGroupId(groupId);
+		model.setArtifactId(artifactId);
+		model.setVersion(version);
+		model.setPackaging(entry.getProperty(PACKAGING));
+		Build build = new Build();
+		build.setFinalName(entry.getProperty(FINAL_NAME));
+		model.setBuild(build);
+		Properties properties = new Properties();
+		for (int i = 0; i < DEPLOY_PROPERTIES.length; i++) {
+			String value = entry.getProperty(PROPERTY + DEPLOY_PROPERTIES[i]);
+			if (value != null) {
+				properties.setProperty(DEPLOY_PROPERTIES[i], value);
+			}
+		}
+		model.setProperties(properties);
+		String dependencies = entry.getProperty(DEPENDENCIES, "");
+		if (dependencies.length() > 0) {
+			String[] lines = dependencies.split(SEPARATOR);
+			for (int i = 0; i < lines.length; i++) {
+				model.addDependency(parseDependency(lines[i]));
+			}
+		}
+		synchronized (this) {
+			hits++;
+		}
+		return new MavenProject(model);
+	}
+
+	/**
+	 * Stores the deploy relevant parts of a project built from the
+	 * repository. Projects whose POMs are not all in the local repository,
+	 * or which are or inherit from a snapshot, are not cached.
+	 *
+	 * @throws IOException if a POM could not be read
+	 */
+	public void store(MavenProject project) throws IOException {
+		StringBuffer poms = new StringBuffer();
+		for (MavenProject p = project; p != null; p = p.getParent()) {
+			if (ArtifactUtils.isSnapshot(p.getVersion())) {
+				return;
+			}
+			File pom = getPomFile(p.getGroupId(), p.getArtifactId(), p.getVersion());
+			if (!pom.isFile()) {
+				return;
+			}
+			if (poms.length() > 0) {
+				poms.append(SEPARATOR);
+			}
+			poms.append(p.getGroupId()).append(':').append(p.getArtifactId())
+					.append(':').append(p.getVersion()).append('=')
+					.append(DeployJournal.checksum(pom));
+		}
+
+		StringBuffer dependencies = new StringBuffer();
+		for (Iterator i = project.getDependencies().iterator(); i.hasNext();) {
+			if (dependencies.length() > 0) {
+				dependencies.append(SEPARATOR);
+			}
+			dependencies.append(formatDependency((Dependency) i.next()));
+		}
+
+		String key = project.getGroupId() + ":" + project.getArtifactId() + ":"
+				+ project.getVersion();
+		synchronized (this) {
+			for (int i = 0; i < FIELDS.length; i++) {
+				entries.remove(key + FIELDS[i]);
+			}
+			entries.setProperty(key + POMS, poms.toString());
+			entries.setProperty(key + PACKAGING, project.getPackaging());
+			String finalName = project.getBuild().getFinalName();
+			if (finalName != null) {
+				entries.setProperty(key + FINAL_NAME, finalName);
+			}
+			for (int i = 0; i < DEPLOY_PROPERTIES.length; i++) {
+				String value = project.getProperties().getProperty(DEPLOY_PROPERTIES[i]);
+				if (value != null) {
+					entries.setProperty(key + PROPERTY + DEPLOY_PROPERTIES[i], value);
+				}
+			}
+			entries.setProperty(key + DEPENDENCIES, dependencies.toString());
+			modified = true;
+		}
+	}
+
+	/**
+	 * Writes the cache back to the local repository if it has changed.
+	 *
+	 * @throws IOException if the cache could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		repositoryDirectory.mkdirs();
+		File tmp = new File(repositoryDirectory, CACHE_NAME + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			entries.store(out, "Sakai deploy model cache");
+		} finally {
+			IOUtil.close(out);
+		}
+		ZipExtractor.replace(tmp, cacheFile);
+		modified = false;
+	}
+
+	private synchronized void miss() {
+		misses++;
+	}
+
+	private boolean isCurrent(String poms) throws IOException {
+		String[] lines = poms.split(SEPARATOR);
+		for (int i = 0; i < lines.length; i++) {
+			int equals = lines[i].lastIndexOf('=');
+			String[] coordinates = lines[i].substring(0, equals).split(":");
+			if (coordinates.length != 3) {
+				return false;
+			}
+			File pom = getPomFile(coordinates[0], coordinates[1], coordinates[2]);
+			if (!pom.isFile()
+					|| !DeployJournal.checksum(pom).equals(lines[i].substring(equals + 1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns where the default repository layout keeps the POM of a project.
+	 */
+	private File getPomFile(String groupId, String artifactId, String version) {
+		return new File(repositoryDirectory, groupId.replace('.', '/') + "/"
+				+ artifactId + "/" + version + "/" + artifactId + "-" + version
+				+ ".pom");
+	}
+
+	/**
+	 * Formats a dependency as
+	 * <code>groupId:artifactId:version:type:classifier:scope:optional:exclusions:systemPath</code>.
+	 * The exclusions are <code>groupId/artifactId</code> pairs separated by
+	 * commas. The system path comes last as it may hold colons itself.
+	 */
+	static String formatDependency(Dependency dependency) {
+		StringBuffer exclusions = new StringBuffer();
+		if (dependency.getExclusions() != null) {
+			for (Iterator i = dependency.getExclusions().iterator(); i.hasNext();) {
+				Exclusion exclusion = (Exclusion) i.next();
+				if (exclusions.length() > 0) {
+					exclusions.append(',');
+				}
+				exclusions.append(exclusion.getGroupId()).append('/')
+						.append(exclusion.getArtifactId());
+			}
+		}
+		return dependency.getGroupId() + ":" + dependency.getArtifactId() + ":"
+				+ dependency.getVersion() + ":" + dependency.getType() + ":"
+				+ nonNull(dependency.getClassifier()) + ":"
+				+ nonNull(dependency.getScope()) + ":" + dependency.isOptional() + ":"
+				+ exclusions + ":" + nonNull(dependency.getSystemPath());
+	}
+
+	/**
+	 * Parses a dependency written by {@link #formatDependency(Dependency)}.
+	 * Entries written before exclusions were kept fail to parse, so the model
+	 * is built again and stored with them.
+	 */
+	static Dependency parseDependency(String line) throws IOException {
+		String[] parts = line.split(":", 9);
+		if (parts.length != 9) {
+			throw new IOException("Corrupt dependency in model cache: " + line);
+		}
+		Dependency dependency = new Dependency();
+		dependency.setGroupId(parts[0]);
+		dependency.setArtifactId(parts[1]);
+		dependency.setVersion(parts[2]);
+		dependency.setType(parts[3]);
+		if (parts[4].length() > 0) {
+			dependency.setClassifier(parts[4]);
+		}
+		if (parts[5].length() > 0) {
+			dependency.setScope(parts[5]);
+		}
+		dependency.setOptional(Boolean.valueOf(parts[6]).booleanValue());
+		if (parts[7].length() > 0) {
+			String[] exclusions = parts[7].split(",");
+			for (int i = 0; i < exclusions.length; i++) {
+				int slash = exclusions[i].indexOf('/');
+				if (slash < 0) {
+					throw new IOException("Corrupt exclusion in model cache: " + line);
+				}
+				Exclusion exclusion = new Exclusion();
+				exclusion.setGroupId(exclusions[i].substring(0, slash));
+				exclusion.setArtifactId(exclusions[i].substring(slash + 1));
+				dependency.addExclusion(exclusion);
+			}
+		}
+		if (parts[8].length() > 0) {
+			dependency.setSystemPath(parts[8]);
+		}
+		return dependency;
+	}
+
+	private static String nonNull(String value) {
+		return (value == null) ? "" : value;
+	}
+}
@@ -25,8 +25,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:kenney@neonics.com">Kenney Westerhof</a>
@@ -75,76 +81,144 @@ public final class PropertyUtils
             throw new FileNotFoundException( propfile.toString() );
         }
 
+        Resolver resolver = new Resolver( props );
         for ( Enumeration n = props.propertyNames(); n.hasMoreElements(); )
         {
             String k = (String) n.nextElement();
-            props.setProperty( k, PropertyUtils.getPropertyValue( k, props ) );
+            props.setProperty( k, resolver.resolve( k ) );
         }
 
         return props;
     }
 
-
     /**
-     * Retrieves a property value, replacing values like ${token}
-     * using the Properties to look them up.
+     * Resolves ${token} references in the values of a set of properties,
+     * looking the tokens up in the properties and then in the System
+     * properties.
      * <p/>
-     * It will leave unresolved properties alone, trying for System
-     * properties, and implements reparsing (in the case that
-     * the value of a property contains a key), and will
-     * not loop endlessly on a pair like
-     * test = ${test}.
+     * Each value is parsed once into its text and references, and each
+     * property is resolved once, its value then being shared by all the
+     * values referring to it. References are followed with a stack of their
+     * own rather than by recursion, so long chains do not overflow the
+     * stack. A reference which cannot be resolved is left alone, as is one
+     * back to a property still being resolved, so test = ${test} resolves to
+     * itself. An opening ${ without a closing } is dropped, as it always
+     * was.
      */
-    private static String getPropertyValue( String k, Properties p )
+    private static final class Resolver
     {
-        // This can also be done using InterpolationFilterReader,
-        // but it requires reparsing the file over and over until
-        // it doesn't change.
+        private final Properties properties;
+
+        /** The text and references of each value, alternately. */
+        private final Map<String, List<String>> parsed = new HashMap<String, List<String>>();
+
+        private final Map<String, String> resolved = new HashMap<String, String>();
 
-        String v = p.getProperty( k );
-        String ret = "";
-        int idx, idx2;
+        private final Set<String> resolving = new HashSet<String>();
 
-        while ( ( idx = v.indexOf( "${" ) ) >= 0 )
+        Resolver( Properties properties )
         {
-            // append prefix to result
-            ret += v.substring( 0, idx );
+            this.properties = properties;
+        }
 
-            // strip prefix from original
-            v = v.substring( idx + 2 );
+        private String getRawValue( String key )
+        {
+            String value = properties.getProperty( key );
+            return ( value == null ) ? System.getProperty( key ) : value;
+        }
 
-            // if no matching } then bail
-            if ( ( idx2 = v.indexOf( '}' ) ) < 0 )
+        private List<String> parse( String key )
+        {
+            List<String> parts = parsed.get( key );
+            if ( parts != null )
             {
-                break;
+                return parts;
             }
-
-            // strip out the key and resolve it
-            // resolve the key/value for the ${statement}
-            String nk = v.substring( 0, idx2 );
-            v = v.substring( idx2 + 1 );
-            String nv = p.getProperty( nk );
-
-            // try global environment..
-            if ( nv == null )
+            String value = getRawValue( key );
+            parts = new ArrayList<String>();
+            StringBuffer text = new StringBuffer();
+            int pos = 0;
+            int start;
+            while ( ( start = value.indexOf( "${", pos ) ) >= 0 )
             {
-                nv = System.getProperty( nk );
+                text.append( value, pos, start );
+                int end = value.indexOf( '}', start + 2 );
+                if ( end < 0 )
+                {
+                    pos = start + 2;
+                    break;
+                }
+                parts.add( text.toString() );
+                parts.add( value.substring( start + 2, end ) );
+                text.setLength( 0 );
+                pos = end + 1;
             }
+            text.append( value, pos, value.length() );
+            parts.add( text.toString() );
+            parsed.put( key, parts );
+            return parts;
+        }
 
-            // if the key cannot be resolved,
-            // leave it alone ( and don't parse again )
-            // else prefix the original string with the
-            // resolved property ( so it can be parsed further )
-            // taking recursion into account.
-            if ( nv == null || nv.equals( k ) )
+        /**
+         * @return the resolved value of a property, or null if there is no
+         *         such property
+         */
+        String resolve( String key )
+        {
+            String value = resolved.get( key );
+            if ( value != null || getRawValue( key ) == null )
             {
-                ret += "${" + nk + "}";
+                return value;
             }
-            else
+            // each frame is a property and the index of its next reference
+            List<String> keys = new ArrayList<String>();
+            List<Integer> next = new ArrayList<Integer>();
+            keys.add( key );
+            next.add( Integer.valueOf( 1 ) );
+            resolving.add( key );
+            while ( !keys.isEmpty() )
             {
-                v = nv + v;
+                int top = keys.size() - 1;
+                String current = keys.get( top );
+                List<String> parts = parse( current );
+                int index = next.get( top ).intValue();
+                if ( index < parts.size() )
+                {
+                    next.set( top, Integer.valueOf( index + 2 ) );
+                    String reference = parts.get( index );
+                    if ( !resolved.containsKey( reference ) && !resolving.contains( reference )
+                        && getRawValue( reference ) != null )
+                    {
+                        keys.add( reference );
+                        next.add( Integer.valueOf( 1 ) );
+                        resolving.add( reference );
+                    }
+                    continue;
+                }
+                StringBuffer sb = new StringBuffer();
+                for ( int i = 0; i < parts.size(); i++ )
+                {
+                    String part = parts.get( i );
+                    if ( i % 2 == 0 )
+                    {
+                        sb.append( part );
+                    }
+                    else if ( resolved.containsKey( part ) )
+                    {
+                        sb.append( resolved.get( part ) );
+                    }
+                    else
+                    {
+                        sb.append( "${" ).append( part ).append( '}' );
+                    }
+                }
+                resolved.put( current, sb.toString() );
+                resolving.remove( current );
+                parsed.remove( current );
+                keys.remove( top );
+                next.remove( top );
             }
+            return resolved.get( key );
         }
-        return ret + v;
     }
 }
@@ -24,33 +24,72 @@ import org.codehaus.plexus.util.introspection.ReflectionValueExtractor;
 
 import java.util.AbstractMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * The values of expressions such as <code>project.version</code> on a
+ * project, for filtering.
+ * <p/>
+ * Each expression is evaluated once and its value kept, along with the
+ * expressions which have no value, which are the costly ones. Lookups of
+ * expressions seen before take no lock, so several files can be filtered at
+ * once. The evaluation itself is serialised, as the reflection cache of the
+ * extractor is not safe for concurrent use.
+ *
  * @version $Id$
  * @todo merge with resources/assembly plugin
  */
 public class ReflectionProperties
     extends AbstractMap
 {
+    /** Kept for expressions which have no value. */
+    private static final Object NULL = new Object();
+
     private MavenProject project;
 
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+
     public ReflectionProperties( MavenProject project )
     {
         this.project = project;
     }
 
-    public synchronized Object get( Object key )
+    public MavenProject getProject()
     {
-        Object value = null;
-        try
+        return project;
+    }
+
+    public Object get( Object key )
+    {
+        String expression = String.valueOf( key );
+        Object value = values.get( expression );
+        if ( value == null )
         {
-            value = ReflectionValueExtractor.evaluate( String.valueOf( key ), project );
+            value = evaluate( expression );
+            Object previous = values.putIfAbsent( expression, value == null ? NULL : value );
+            if ( previous != null )
+            {
+                value = previous;
+            }
         }
-        catch ( Exception e )
+        return ( value == NULL ) ? null : value;
+    }
+
+    private Object evaluate( String expression )
+    {
+        synchronized ( ReflectionValueExtractor.class )
         {
-            //TODO: remove the try-catch block when ReflectionValueExtractor.evaluate() throws no more exceptions
+            try
+            {
+                return ReflectionValueExtractor.evaluate( expression, project );
+            }
+            catch ( Exception e )
+            {
+                //TODO: remove the try-catch block when ReflectionValueExtractor.evaluate() throws no more exceptions
+                return null;
+            }
         }
-        return value;
     }
 
     public Set entrySet()
@@ -0,0 +1,247 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Manages whole-tree releases of a deploy directory.
+ * <p/>
+ * Each release is a complete deploy layout in
+ * <code>releases/release-&lt;timestamp&gt;</code> and the symbolic link
+ * <code>current</code> points at the live one. A new release starts as a
+ * copy of the current release made of hard links, so building it only costs
+ * the files which change. Switching releases renames a new link over
+ * <code>current</code>, which is atomic.
+ * <p/>
+ * Files in a release may be shared with older releases through hard links,
+ * so anything deployed into a release must replace files rather than write
+ * into them. Symbolic links in a release, such as a <code>logs</code>
+ * directory kept elsewhere, are carried over as links and only the link is
+ * removed with a release, never what it points to.
+ */
+public class ReleaseManager {
+
+	public static final String RELEASES = "releases";
+
+	public static final String CURRENT = "current";
+
+	private static final String PREFIX = "release-";
+
+	private final File baseDirectory;
+
+	private final File releasesDirectory;
+
+	private final File currentLink;
+
+	private int linked;
+
+	private int copied;
+
+	public ReleaseManager(File baseDirectory) {
+		this.baseDirectory = baseDirectory;
+		this.releasesDirectory = new File(baseDirectory, RELEASES);
+		this.currentLink = new File(baseDirectory, CURRENT);
+	}
+
+	public File getCurrentLink() {
+		return currentLink;
+	}
+
+	/**
+	 * @return the directory of the live release, or null if there is none
+	 */
+	public File getCurrentRelease() throws IOException {
+		if (!currentLink.exists()) {
+			return null;
+		}
+		return currentLink.getCanonicalFile();
+	}
+
+	/**
+	 * @return the number of files hard linked from the previous release
+	 */
+	public int getLinkedCount() {
+		return linked;
+	}
+
+	/**
+	 * @return the number of files which had to be copied as they could not be
+	 *         hard linked
+	 */
+	public int getCopiedCount() {
+		return copied;
+	}
+
+	/**
+	 * Creates a new release directory holding the same files as the current
+	 * release. If there is no current release yet the new one is seeded from
+	 * the given paths of the base directory instead.
+	 *
+	 * @param seedPaths paths relative to the base directory to start the first
+	 *            release with
+	 * @return the new release directory
+	 */
+	public File createRelease(Collection<String> seedPaths) throws IOException {
+		if (!FileTransfer.isLinkingSupported()) {
+			throw new IOException("Releases need symbolic links, which this JVM does not support");
+		}
+		String name = PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File release = new File(releasesDirectory, name);
+		for (int i = 1; release.exists(); i++) {
+			release = new File(releasesDirectory, name + "-" + i);
+		}
+		release.mkdirs();
+		linked = 0;
+		copied = 0;
+		File previous = getCurrentRelease();
+		if (previous != null) {
+			linkTree(previous, release);
+		} else {
+			for (String path : seedPaths) {
+				File seed = new File(baseDirectory, path);
+				if (seed.isDirectory()) {
+					linkTree(seed, new File(release, path));
+				}
+			}
+		}
+		return release;
+	}
+
+	/**
+	 * Makes a release the live one by atomically switching the
+	 * <code>current</code> link to it.
+	 */
+	public void activate(File release) throws IOException {
+		if (!release.isDirectory()) {
+			throw new IOException("Release " + release + " does not exist");
+		}
+		if (!FileTransfer.symLink(release, currentLink)) {
+			throw new IOException("Unable to link " + currentLink + " to " + release);
+		}
+	}
+
+	/**
+	 * Switches the <code>current</code> link back to the release before the
+	 * live one.
+	 *
+	 * @return the release now live, or null if there is no earlier release
+	 */
+	public File rollback() throws IOException {
+		File current = getCurrentRelease();
+		File previous = null;
+		for (File release : getReleases()) {
+			if (release.equals(current)) {
+				break;
+			}
+			previous = release;
+		}
+		if (previous != null) {
+			activate(previous);
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes the oldest releases, keeping the live release and the
+	 * <code>keep</code> most recent others.
+	 *
+	 * @return the releases which were removed
+	 */
+	public List<File> prune(int keep) throws IOException {
+		File current = getCurrentRelease();
+		List<File> others = getReleases();
+		others.remove(current);
+		List<File> removed = new ArrayList<File>();
+		for (int i = 0; i < others.size() - keep; i++) {
+			File release = others.get(i);
+			delete(release);
+			removed.add(release);
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes a release which was never made live.
+	 */
+	public void discard(File release) {
+		delete(release);
+	}
+
+	/**
+	 * @return all the releases, oldest first
+	 */
+	public List<File> getReleases() throws IOException {
+		List<File> releases = new ArrayList<File>();
+		File[] files = releasesDirectory.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory() && files[i].getName().startsWith(PREFIX)) {
+					releases.add(files[i].getCanonicalFile());
+				}
+			}
+		}
+		Collections.sort(releases);
+		return releases;
+	}
+
+	private void linkTree(File source, File destination) throws IOException {
+		destination.mkdirs();
+		File[] files = source.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			File target = new File(destination, files[i].getName());
+			if (FileTransfer.isSymbolicLink(files[i])) {
+				if (!FileTransfer.copySymbolicLink(files[i], target)) {
+					throw new IOException("Unable to link " + target + " like " + files[i]);
+				}
+				linked++;
+			} else if (files[i].isDirectory()) {
+				linkTree(files[i], target);
+			} else if (FileTransfer.hardLink(files[i], target)) {
+				linked++;
+			} else {
+				FileTransfer.copy(files[i], target);
+				target.setLastModified(files[i].lastModified());
+				copied++;
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		// a link to a directory goes, what it points to stays
+		File[] files = FileTransfer.isSymbolicLink(file) ? null : file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+}
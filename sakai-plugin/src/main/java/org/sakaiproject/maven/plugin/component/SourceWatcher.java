@@ -0,0 +1,256 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells which directories of some source trees changed, using the watch
+ * service of Java 7 file systems. The service is reached by reflection so
+ * the plugin still runs on older JVMs, where {@link #open(Collection)}
+ * returns null and the sources have to be polled.
+ */
+public class SourceWatcher {
+
+	private static Method getDefault;
+
+	private static Method newWatchService;
+
+	private static Method toPath;
+
+	private static Method toFile;
+
+	private static Method resolve;
+
+	private static Method register;
+
+	private static Method poll;
+
+	private static Method pollNow;
+
+	private static Method pollEvents;
+
+	private static Method reset;
+
+	private static Method cancel;
+
+	private static Method close;
+
+	private static Method kind;
+
+	private static Method context;
+
+	private static Object kinds;
+
+	private static Object overflow;
+
+	static {
+		try {
+			Class fileSystems = Class.forName("java.nio.file.FileSystems");
+			Class fileSystem = Class.forName("java.nio.file.FileSystem");
+			Class path = Class.forName("java.nio.file.Path");
+			Class service = Class.forName("java.nio.file.WatchService");
+			Class key = Class.forName("java.nio.file.WatchKey");
+			Class event = Class.forName("java.nio.file.WatchEvent");
+			Class kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+			Class standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+			getDefault = fileSystems.getMethod("getDefault", new Class[0]);
+			newWatchService = fileSystem.getMethod("newWatchService", new Class[0]);
+			toPath = File.class.getMethod("toPath", new Class[0]);
+			toFile = path.getMethod("toFile", new Class[0]);
+			resolve = path.getMethod("resolve", new Class[] { path });
+			kinds = Array.newInstance(kindClass, 3);
+			Array.set(kinds, 0, standardKinds.getField("ENTRY_CREATE").get(null));
+			Array.set(kinds, 1, standardKinds.getField("ENTRY_DELETE").get(null));
+			Array.set(kinds, 2, standardKinds.getField("ENTRY_MODIFY").get(null));
+			overflow = standardKinds.getField("OVERFLOW").get(null);
+			register = path.getMethod("register", new Class[] { service, kinds.getClass() });
+			poll = service.getMethod("poll", new Class[] { Long.TYPE, TimeUnit.class });
+			pollNow = service.getMethod("poll", new Class[0]);
+			close = service.getMethod("close", new Class[0]);
+			pollEvents = key.getMethod("pollEvents", new Class[0]);
+			reset = key.getMethod("reset", new Class[0]);
+			cancel = key.getMethod("cancel", new Class[0]);
+			kind = event.getMethod("kind", new Class[0]);
+			context = event.getMethod("context", new Class[0]);
+		} catch (Exception e) {
+			// Before Java 7 there is no watch service, the sources are polled
+			getDefault = null;
+		}
+	}
+
+	private final Object service;
+
+	/** The directory each watch key was registered for. */
+	private final Map<Object, File> directories = new HashMap<Object, File>();
+
+	private final Set<File> watched = new HashSet<File>();
+
+	private SourceWatcher(Object service) {
+		this.service = service;
+	}
+
+	/**
+	 * Starts watching every directory below some roots. Roots which do not
+	 * exist are left out.
+	 * 
+	 * @return the watcher, or null if the JVM has no watch service
+	 */
+	public static SourceWatcher open(Collection<File> roots) throws IOException {
+		if (getDefault == null) {
+			return null;
+		}
+		SourceWatcher watcher;
+		try {
+			watcher = new SourceWatcher(newWatchService.invoke(getDefault.invoke(null,
+					new Object[0]), new Object[0]));
+		} catch (Exception e) {
+			return null;
+		}
+		for (File root : roots) {
+			if (root.isDirectory()) {
+				watcher.registerTree(root.getAbsoluteFile(), null);
+			}
+		}
+		return watcher;
+	}
+
+	/**
+	 * Waits for changes and returns the directories whose files changed,
+	 * along with the ones deleted and every directory of the trees created
+	 * since. Changes which follow each other closely are returned together.
+	 * 
+	 * @param timeout how long to wait, in milliseconds
+	 * @return the directories, empty if nothing changed in time, or null if
+	 *         changes were lost and the whole trees have to be looked at
+	 */
+	public Set<File> take(long timeout) throws IOException, InterruptedException {
+		Set<File> changed = new LinkedHashSet<File>();
+		Object key;
+		try {
+			key = poll.invoke(service, new Object[] { Long.valueOf(timeout),
+					TimeUnit.MILLISECONDS });
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof InterruptedException) {
+				throw (InterruptedException) e.getCause();
+			}
+			throw getIOException(poll, e.getCause());
+		} catch (IllegalAccessException e) {
+			throw getIOException(poll, e);
+		}
+		boolean lost = false;
+		while (key != null) {
+			File directory = directories.get(key);
+			for (Iterator events = ((List) invoke(pollEvents, key, new Object[0])).iterator(); events
+					.hasNext();) {
+				Object event = events.next();
+				Object eventKind = invoke(kind, event, new Object[0]);
+				if (eventKind == overflow || directory == null) {
+					lost = true;
+					continue;
+				}
+				File file = (File) invoke(toFile, invoke(resolve, invoke(toPath, directory,
+						new Object[0]), new Object[] { invoke(context, event, new Object[0]) }),
+						new Object[0]);
+				changed.add(directory);
+				if (file.isDirectory()) {
+					registerTree(file, changed);
+				} else if (!file.exists()) {
+					// it may have been a directory with sources in it
+					changed.add(file);
+				}
+			}
+			if (!((Boolean) invoke(reset, key, new Object[0])).booleanValue()) {
+				watched.remove(directories.remove(key));
+			}
+			key = invoke(pollNow, service, new Object[0]);
+		}
+		return lost ? null : changed;
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() throws IOException {
+		for (Object key : directories.keySet()) {
+			invoke(cancel, key, new Object[0]);
+		}
+		directories.clear();
+		watched.clear();
+		invoke(close, service, new Object[0]);
+	}
+
+	/**
+	 * Watches a directory and the directories below it.
+	 * 
+	 * @param found receives the directories, or null
+	 */
+	private void registerTree(File directory, Set<File> found) throws IOException {
+		if (!watched.add(directory)) {
+			return;
+		}
+		directories.put(invoke(register, invoke(toPath, directory, new Object[0]),
+				new Object[] { service, kinds }), directory);
+		if (found != null) {
+			found.add(directory);
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					registerTree(files[i], found);
+				}
+			}
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object[] arguments)
+			throws IOException {
+		try {
+			return method.invoke(target, arguments);
+		} catch (InvocationTargetException e) {
+			throw getIOException(method, e.getCause());
+		} catch (IllegalAccessException e) {
+			throw getIOException(method, e);
+		}
+	}
+
+	private static IOException getIOException(Method method, Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		IOException e = new IOException(method.getName() + " failed: " + cause);
+		e.initCause(cause);
+		return e;
+	}
+}
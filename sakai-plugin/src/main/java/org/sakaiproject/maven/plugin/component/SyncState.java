@@ -0,0 +1,111 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the source files seen by one pass of a sync and the times they
+ * had, so the next pass only copies what changed and removes the copies of
+ * sources which disappeared.
+ */
+public class SyncState {
+
+	private final Map<File, Long> times = new HashMap<File, Long>();
+
+	private final Map<File, File> targets = new HashMap<File, File>();
+
+	private final Set<File> visited = new HashSet<File>();
+
+	/**
+	 * Starts a pass over the sources.
+	 */
+	public void begin() {
+		visited.clear();
+	}
+
+	/**
+	 * Checks whether a source has to be copied to its target. A source not
+	 * seen before is copied when its target is older than it.
+	 */
+	public boolean isChanged(File source, File target) {
+		visited.add(source);
+		long modified = source.lastModified();
+		Long previous = times.put(source, Long.valueOf(modified));
+		targets.put(source, target);
+		if (previous == null) {
+			return target.lastModified() < modified;
+		}
+		return previous.longValue() != modified;
+	}
+
+	/**
+	 * Ends a pass, forgetting the sources it did not see.
+	 *
+	 * @return the targets of the sources which have gone
+	 */
+	public List<File> end() {
+		return end(null);
+	}
+
+	/**
+	 * Ends a pass which only looked at the files directly in some
+	 * directories. Sources elsewhere are kept, apart from those below a
+	 * directory which has gone.
+	 *
+	 * @param directories the directories the pass looked at, or null if it
+	 *            looked at all the sources
+	 * @return the targets of the sources which have gone
+	 */
+	public List<File> end(Collection<File> directories) {
+		List<File> removed = new ArrayList<File>();
+		for (Iterator<Map.Entry<File, File>> i = targets.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<File, File> entry = i.next();
+			if (!visited.contains(entry.getKey())
+					&& (directories == null || isLookedAt(entry.getKey(), directories))) {
+				removed.add(entry.getValue());
+				times.remove(entry.getKey());
+				i.remove();
+			}
+		}
+		return removed;
+	}
+
+	private static boolean isLookedAt(File source, Collection<File> directories) {
+		File parent = source.getParentFile();
+		if (directories.contains(parent)) {
+			return true;
+		}
+		for (; parent != null; parent = parent.getParentFile()) {
+			if (directories.contains(parent) && !parent.isDirectory()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,249 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Replaces <code>${token}</code> and <code>@token@</code> with the values
+ * of a map in one pass over the text, giving the same output as an
+ * <code>InterpolationFilterReader</code> for <code>@</code> reading from
+ * one for <code>${</code>.
+ * <p/>
+ * The input is read in large blocks. Text without a <code>$</code> or
+ * <code>@</code> is copied straight through. Only from one of those
+ * characters until both kinds of token are done is the text worked through
+ * a character at a time, with the same rules as the chained readers:
+ * <ul>
+ * <li>a value is not searched for <code>${</code> tokens again, but is
+ * searched for <code>@</code> tokens;</li>
+ * <li>text read while looking for a token which turns out not to be one
+ * is passed on without being searched again, apart from the closing
+ * delimiter of an unknown token, so <code>@a@b@</code> with no value for
+ * <code>a</code> gives <code>@a</code> followed by the token
+ * <code>@b@</code>;</li>
+ * <li>a token with an empty value is removed.</li>
+ * </ul>
+ */
+public class TokenFilterReader extends Reader {
+
+	private static final int BUFFER_SIZE = 16384;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int position;
+
+	private int limit;
+
+	private boolean eof;
+
+	private final Stage dollar;
+
+	private final Stage at;
+
+	public TokenFilterReader(Reader in, Map variables) {
+		this.in = in;
+		this.dollar = new Stage(null, "${", "}", variables);
+		this.at = new Stage(dollar, "@", "@", variables);
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		int count = 0;
+		while (count < len) {
+			if (dollar.isIdle() && at.isIdle()) {
+				if (position == limit && !fill()) {
+					break;
+				}
+				int end = Math.min(limit, position + len - count);
+				int i = position;
+				while (i < end) {
+					char c = buffer[i];
+					if (c == '$' || c == '@') {
+						break;
+					}
+					i++;
+				}
+				if (i > position) {
+					System.arraycopy(buffer, position, cbuf, off + count, i - position);
+					count += i - position;
+					position = i;
+					continue;
+				}
+			}
+			int ch = at.read();
+			if (ch == -1) {
+				break;
+			}
+			cbuf[off + count++] = (char) ch;
+		}
+		return (count == 0 && len > 0) ? -1 : count;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return false at the end of the input
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		int read = in.read(buffer, 0, buffer.length);
+		if (read == -1) {
+			eof = true;
+			return false;
+		}
+		position = 0;
+		limit = read;
+		return true;
+	}
+
+	private int readInput() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	/**
+	 * The replacement of one kind of token, a character at a time, following
+	 * <code>InterpolationFilterReader</code> step by step.
+	 */
+	private class Stage {
+
+		private final Stage source;
+
+		private final String beginToken;
+
+		private final String endToken;
+
+		private final int beginTokenLength;
+
+		private final int endTokenLength;
+
+		private final Map variables;
+
+		/** A value or text given back, and the position in it. */
+		private String replaceData;
+
+		private int replaceIndex = -1;
+
+		/** The position in the end token given back after an unknown token. */
+		private int previousIndex = -1;
+
+		Stage(Stage source, String beginToken, String endToken, Map variables) {
+			this.source = source;
+			this.beginToken = beginToken;
+			this.endToken = endToken;
+			this.beginTokenLength = beginToken.length();
+			this.endTokenLength = endToken.length();
+			this.variables = variables;
+		}
+
+		/**
+		 * @return true if the next character is read from the source as it is
+		 */
+		boolean isIdle() {
+			return !(replaceIndex != -1 && replaceIndex < replaceData.length())
+					&& !(previousIndex != -1 && previousIndex < endTokenLength);
+		}
+
+		private int next() throws IOException {
+			if (previousIndex != -1 && previousIndex < endTokenLength) {
+				return endToken.charAt(previousIndex++);
+			}
+			return (source == null) ? readInput() : source.read();
+		}
+
+		int read() throws IOException {
+			while (true) {
+				if (replaceIndex != -1 && replaceIndex < replaceData.length()) {
+					int ch = replaceData.charAt(replaceIndex++);
+					if (replaceIndex >= replaceData.length()) {
+						replaceIndex = -1;
+					}
+					return ch;
+				}
+				int ch = next();
+				if (ch != beginToken.charAt(0)) {
+					return ch;
+				}
+				StringBuffer key = new StringBuffer();
+				int beginTokenMatchPos = 1;
+				do {
+					ch = next();
+					if (ch == -1) {
+						break;
+					}
+					key.append((char) ch);
+					if (beginTokenMatchPos < beginTokenLength
+							&& ch != beginToken.charAt(beginTokenMatchPos++)) {
+						// not a token after all
+						ch = -1;
+						break;
+					}
+				} while (ch != endToken.charAt(0));
+
+				if (ch != -1 && endTokenLength > 1) {
+					int endTokenMatchPos = 1;
+					do {
+						ch = next();
+						if (ch == -1) {
+							break;
+						}
+						key.append((char) ch);
+						if (ch != endToken.charAt(endTokenMatchPos++)) {
+							ch = -1;
+							break;
+						}
+					} while (endTokenMatchPos < endTokenLength);
+				}
+
+				if (ch == -1) {
+					replaceData = key.toString();
+					replaceIndex = 0;
+					return beginToken.charAt(0);
+				}
+
+				String variableKey = key.substring(beginTokenLength - 1, key.length()
+						- endTokenLength);
+				Object value = variables.get(variableKey);
+				if (value != null) {
+					String data = value.toString();
+					if (data.length() != 0) {
+						replaceData = data;
+						replaceIndex = 0;
+					}
+					continue;
+				}
+				previousIndex = 0;
+				replaceData = key.substring(0, key.length() - endTokenLength);
+				replaceIndex = 0;
+				return beginToken.charAt(0);
+			}
+		}
+	}
+}
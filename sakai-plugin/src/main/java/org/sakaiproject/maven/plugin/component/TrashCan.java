@@ -0,0 +1,140 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes directory trees by renaming them into a trash directory and
+ * purging the trash on a background thread.
+ * <p/>
+ * The rename is instant, so the deploy can carry on writing while the old
+ * files are removed. The trash has to be on the same filesystem as the files
+ * thrown away; when a rename fails the caller has to delete the files
+ * itself. Anything left in the trash by an earlier build is purged as well.
+ */
+public class TrashCan {
+
+	public static final String TRASH_NAME = ".sakai-trash";
+
+	private final File directory;
+
+	private final ExecutorService purger;
+
+	private int discarded;
+
+	private int sequence;
+
+	public TrashCan(File directory) {
+		this.directory = directory;
+		this.purger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sakai-trash-purger");
+				// an unfinished purge is picked up by the next build
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		File[] leftovers = directory.listFiles();
+		if (leftovers != null) {
+			for (int i = 0; i < leftovers.length; i++) {
+				schedule(leftovers[i]);
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the number of files and directories moved to the trash
+	 */
+	public synchronized int getDiscardedCount() {
+		return discarded;
+	}
+
+	/**
+	 * Moves a file or directory into the trash and schedules its deletion.
+	 *
+	 * @return false if the file could not be renamed into the trash, in
+	 *         which case it is left where it was
+	 */
+	public boolean discard(File file) {
+		if (!file.exists()) {
+			return true;
+		}
+		File target;
+		synchronized (this) {
+			directory.mkdirs();
+			target = new File(directory, file.getName() + "-" + System.currentTimeMillis()
+					+ "-" + (sequence++));
+		}
+		if (!file.renameTo(target)) {
+			return false;
+		}
+		synchronized (this) {
+			discarded++;
+		}
+		schedule(target);
+		return true;
+	}
+
+	/**
+	 * Waits for everything in the trash to be deleted.
+	 *
+	 * @param timeout the longest time to wait, in milliseconds
+	 * @return true if the trash has been emptied
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		purger.shutdown();
+		return purger.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops taking files and lets the background thread finish on its own.
+	 */
+	public void release() {
+		purger.shutdown();
+	}
+
+	private void schedule(final File file) {
+		purger.execute(new Runnable() {
+			public void run() {
+				delete(file);
+			}
+		});
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+}
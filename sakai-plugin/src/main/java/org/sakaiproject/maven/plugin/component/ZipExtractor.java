@@ -0,0 +1,373 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Extracts zip based archives (jar, war, zip) into a directory.
+ * <p/>
+ * A plain extraction reads the central directory once and then inflates the
+ * entries on a pool of threads, each reading its entry straight from the
+ * archive. It follows the overwrite rules of the plexus unarchivers: without
+ * overwrite a file is only replaced when it is older than its entry.
+ * <p/>
+ * In delta mode the extractor compares each entry with the file already in
+ * the destination and only writes the entries whose size or CRC differ.
+ * Files in the destination which are no longer in the archive are removed,
+ * so the destination ends up with exactly the contents of the archive.
+ * <p/>
+ * Files are written to a temporary file next to the target and then renamed
+ * over it, and entry names which would escape the destination are rejected.
+ * The CRC of every entry is checked as it is written, a corrupt entry fails
+ * the extraction before it replaces the target.
+ */
+public class ZipExtractor {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final File archive;
+
+	private int written;
+
+	private int unchanged;
+
+	private int removed;
+
+	private long writtenBytes;
+
+	public ZipExtractor(File archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * @return the number of files written by the last extraction
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * @return the uncompressed size of the files written by the last
+	 *         extraction
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * @return the number of files left alone by the last extraction as they
+	 *         already matched the archive
+	 */
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+
+	/**
+	 * @return the number of files and directories removed by the last
+	 *         extraction as they were not in the archive
+	 */
+	public int getRemovedCount() {
+		return removed;
+	}
+
+	/**
+	 * Extracts every entry of the archive into <code>destination</code>.
+	 *
+	 * @param destination the directory to extract into
+	 * @param overwrite whether to replace files which are not older than their
+	 *            entry
+	 * @param threads the number of entries to inflate at the same time
+	 * @throws IOException if the archive could not be read or a file could not
+	 *             be written
+	 */
+	public void extract(File destination, boolean overwrite, int threads)
+			throws IOException {
+		written = 0;
+		unchanged = 0;
+		removed = 0;
+		writtenBytes = 0;
+		final ZipFile zip = new ZipFile(archive);
+		try {
+			// check every name and create the directories up front so the
+			// workers only ever write files
+			List<ZipEntry> files = new ArrayList<ZipEntry>();
+			List<File> targets = new ArrayList<File>();
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				File target = new File(destination, getRelativePath(entry));
+				if (entry.isDirectory()) {
+					target.mkdirs();
+				} else if (!overwrite && target.exists() && entry.getTime() != -1
+						&& target.lastModified() >= entry.getTime()) {
+					unchanged++;
+				} else {
+					target.getParentFile().mkdirs();
+					files.add(entry);
+					targets.add(target);
+				}
+			}
+			if (threads <= 1 || files.size() <= 1) {
+				for (int i = 0; i < files.size(); i++) {
+					extractEntry(zip, files.get(i), targets.get(i));
+				}
+			} else {
+				extractConcurrently(Collections.nCopies(files.size(), zip), files,
+						targets, threads);
+			}
+			written = files.size();
+			for (ZipEntry entry : files) {
+				writtenBytes += Math.max(0, entry.getSize());
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Extracts entries on a pool of threads. The entries may come from
+	 * different archives, <code>zips</code> holds the archive of each entry.
+	 */
+	static void extractConcurrently(List<ZipFile> zips, List<ZipEntry> files,
+			List<File> targets, int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int i = 0; i < files.size(); i++) {
+				final ZipFile zip = zips.get(i);
+				final ZipEntry entry = files.get(i);
+				final File target = targets.get(i);
+				results.add(pool.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						extractEntry(zip, entry, target);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while extracting");
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Brings <code>destination</code> in line with the archive, rewriting
+	 * only the entries which differ and removing anything the archive does not
+	 * contain.
+	 *
+	 * @param destination the directory holding a previous extraction
+	 * @throws IOException if the archive could not be read or a file could not
+	 *             be written
+	 */
+	public void extractDelta(File destination) throws IOException {
+		written = 0;
+		unchanged = 0;
+		removed = 0;
+		writtenBytes = 0;
+		destination.mkdirs();
+		Set<String> expected = new HashSet<String>();
+		ZipFile zip = new ZipFile(archive);
+		try {
+			for (Enumeration entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				String name = getRelativePath(entry);
+				addWithParents(expected, name);
+				File target = new File(destination, name);
+				if (entry.isDirectory()) {
+					target.mkdirs();
+				} else if (isSame(entry, target)) {
+					unchanged++;
+				} else {
+					extractEntry(zip, entry, target);
+					written++;
+					writtenBytes += Math.max(0, entry.getSize());
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		removeStale(destination, "", expected);
+	}
+
+	/**
+	 * Writes a single entry to <code>target</code>, replacing any existing
+	 * file, and sets its timestamp to the time of the entry.
+	 *
+	 * @throws IOException if the entry could not be read, does not match its
+	 *             CRC or the file could not be written
+	 */
+	static void extractEntry(ZipFile zip, ZipEntry entry, File target)
+			throws IOException {
+		File parent = target.getParentFile();
+		parent.mkdirs();
+		File tmp = new File(parent, "." + target.getName() + ".tmp");
+		CRC32 crc = new CRC32();
+		InputStream in = zip.getInputStream(entry);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, n);
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				IOUtil.close(out);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		// ZipFile streams are not checked against the central directory
+		if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+			tmp.delete();
+			throw new IOException("Entry " + entry.getName() + " of " + zip.getName()
+					+ " is corrupt, its CRC does not match");
+		}
+		replace(tmp, target);
+		if (entry.getTime() != -1) {
+			target.setLastModified(entry.getTime());
+		}
+	}
+
+	/**
+	 * Renames a freshly written file over its target.
+	 */
+	static void replace(File tmp, File target) throws IOException {
+		if (!tmp.renameTo(target)) {
+			// some platforms will not rename over an existing file
+			target.delete();
+			if (!tmp.renameTo(target)) {
+				tmp.delete();
+				throw new IOException("Unable to write " + target);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file already has the contents of an entry by comparing
+	 * the size and then the CRC.
+	 */
+	static boolean isSame(ZipEntry entry, File target) throws IOException {
+		if (!target.isFile() || entry.getSize() == -1 || entry.getCrc() == -1
+				|| target.length() != entry.getSize()) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(target);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, n);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		return crc.getValue() == entry.getCrc();
+	}
+
+	/**
+	 * Returns the name of an entry relative to the destination, rejecting
+	 * absolute names and names containing <code>..</code> segments.
+	 */
+	static String getRelativePath(ZipEntry entry) throws IOException {
+		String name = entry.getName().replace('\\', '/');
+		if (name.startsWith("/") || (name.length() > 1 && name.charAt(1) == ':')) {
+			throw new IOException("Archive entry has an absolute path: " + entry.getName());
+		}
+		String[] segments = name.split("/");
+		for (int i = 0; i < segments.length; i++) {
+			if ("..".equals(segments[i])) {
+				throw new IOException("Archive entry is outside the destination: "
+						+ entry.getName());
+			}
+		}
+		while (name.endsWith("/")) {
+			name = name.substring(0, name.length() - 1);
+		}
+		return name;
+	}
+
+	private static void addWithParents(Set<String> paths, String path) {
+		while (path.length() > 0 && paths.add(path)) {
+			int slash = path.lastIndexOf('/');
+			path = (slash == -1) ? "" : path.substring(0, slash);
+		}
+	}
+
+	private void removeStale(File dir, String prefix, Set<String> expected) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			String path = prefix + files[i].getName();
+			if (!expected.contains(path)) {
+				delete(files[i]);
+				removed++;
+			} else if (files[i].isDirectory()) {
+				removeStale(files[i], path + "/", expected);
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,71 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+public class BuildMetricsTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/metrics-test" );
+
+    public void testPhaseTotals()
+        throws Exception
+    {
+        BuildMetrics metrics = new BuildMetrics();
+        metrics.record( "unpack", "a:war", 3000000, 100, 400, 4 );
+        metrics.record( "copy", "b:jar", 1000000, 50, 50, 1 );
+        metrics.record( "unpack", "c:war", 2000000, 10, 40, 2 );
+
+        List totals = metrics.getPhaseTotals();
+        assertEquals( 2, totals.size() );
+        BuildMetrics.Sample unpack = (BuildMetrics.Sample) totals.get( 0 );
+        assertEquals( "unpack", unpack.getPhase() );
+        assertEquals( 2, unpack.getCount() );
+        assertEquals( 5000000, unpack.getNanos() );
+        assertEquals( 440, unpack.getBytesWritten() );
+        assertEquals( 6, unpack.getFiles() );
+
+        BuildMetrics.Sample slowest = (BuildMetrics.Sample) metrics.getSlowest( 1 ).get( 0 );
+        assertEquals( "a:war", slowest.getSubject() );
+    }
+
+    public void testWriteJson()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        BuildMetrics metrics = new BuildMetrics();
+        metrics.start( "resolve", "org.sakaiproject:\"quoted\":jar" ).stop();
+        metrics.count( "journal.hit", 2 );
+        metrics.count( "journal.hit", 1 );
+
+        File report = new File( testDirectory, "sakai-deploy-metrics.json" );
+        metrics.writeJson( report, "deploy" );
+        String json = FileUtils.fileRead( report.getAbsolutePath() );
+        assertTrue( json.indexOf( "\"goal\": \"deploy\"" ) > 0 );
+        assertTrue( json.indexOf( "\"subject\": \"org.sakaiproject:\\\"quoted\\\":jar\"" ) > 0 );
+        assertTrue( json.indexOf( "\"journal.hit\": 3" ) > 0 );
+        assertTrue( metrics.getSummary().contains( "journal.hit: 3" ) );
+    }
+}
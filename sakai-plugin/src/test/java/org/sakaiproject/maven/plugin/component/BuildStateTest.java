@@ -0,0 +1,179 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BuildStateTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/buildstate-test" );
+
+    private File source = new File( testDirectory, "src" );
+
+    private File webapp = new File( testDirectory, "webapp" );
+
+    private File stateFile = new File( testDirectory, "sakai-build-webapp.state" );
+
+    private static final String[] EXCLUDES = { "**/*.bak" };
+
+    private File writeSource( String path, String content )
+        throws Exception
+    {
+        File file = new File( source, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getAbsolutePath(), content );
+        return file;
+    }
+
+    /**
+     * Runs a build of the source directory and returns the paths copied.
+     */
+    private List<String> build( BuildState state, String signature )
+        throws Exception
+    {
+        List<String> copied = new ArrayList<String>();
+        BuildState.Input input = state.getInput( source, webapp, null, EXCLUDES, true, signature );
+        for ( String name : input.scan() )
+        {
+            if ( input.isChanged( name ) )
+            {
+                FileUtils.copyFile( input.getSource( name ), input.getTarget( name ) );
+                input.copied( name );
+                copied.add( name.replace( File.separatorChar, '/' ) );
+            }
+        }
+        Collections.sort( copied );
+        return copied;
+    }
+
+    private static List<String> list( String[] paths )
+    {
+        List<String> list = new ArrayList<String>();
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            list.add( paths[i] );
+        }
+        return list;
+    }
+
+    public void testOnlyChangesAreCopied()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        writeSource( "index.jsp", "index" );
+        writeSource( "css/tool.css", "css" );
+        writeSource( "css/tool.css.bak", "backup" );
+        writeSource( "WEB-INF/CVS/Entries", "cvs" );
+        File image = writeSource( "images/logo.png", "logo" );
+
+        BuildState state = BuildState.load( stateFile, webapp );
+        assertEquals( list( new String[] { "css/tool.css", "images/logo.png", "index.jsp" } ),
+                      build( state, null ) );
+        assertTrue( state.end().isEmpty() );
+        state.save();
+
+        // nothing changed, no directory is listed and nothing copied
+        state = BuildState.load( stateFile, webapp );
+        assertTrue( build( state, null ).isEmpty() );
+        assertEquals( 0, state.getListedCount() );
+        state.save();
+
+        // an edit in place, a new file in a new directory and a removed one
+        Thread.sleep( 20 );
+        FileUtils.fileWrite( new File( source, "index.jsp" ).getAbsolutePath(), "index, edited" );
+        new File( source, "index.jsp" ).setLastModified( System.currentTimeMillis() + 5000 );
+        writeSource( "js/tool.js", "js" );
+        image.delete();
+        state = BuildState.load( stateFile, webapp );
+        assertEquals( list( new String[] { "index.jsp", "js/tool.js" } ), build( state, null ) );
+        assertEquals( "the root, images and the new js directory are listed", 3, state.getListedCount() );
+        List<File> removed = state.end();
+        assertEquals( 1, removed.size() );
+        assertEquals( new File( webapp, "images/logo.png" ), removed.get( 0 ) );
+        state.save();
+
+        // a removed directory takes its files with it
+        FileUtils.deleteDirectory( new File( source, "js" ) );
+        state = BuildState.load( stateFile, webapp );
+        assertTrue( build( state, null ).isEmpty() );
+        assertEquals( new File( webapp, "js/tool.js" ), state.end().get( 0 ) );
+    }
+
+    public void testChangedCopiesAreRestored()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        writeSource( "index.jsp", "index" );
+        writeSource( "css/tool.css", "css" );
+
+        BuildState state = BuildState.load( stateFile, webapp );
+        assertEquals( 2, build( state, null ).size() );
+        state.end();
+        state.save();
+
+        // a copy deleted and a copy edited in the webapp
+        new File( webapp, "index.jsp" ).delete();
+        File css = new File( webapp, "css/tool.css" );
+        FileUtils.fileWrite( css.getAbsolutePath(), "css, edited in the webapp" );
+        state = BuildState.load( stateFile, webapp );
+        assertEquals( list( new String[] { "css/tool.css", "index.jsp" } ), build( state, null ) );
+        assertEquals( "css", FileUtils.fileRead( css.getAbsolutePath() ) );
+        state.end();
+        state.save();
+
+        state = BuildState.load( stateFile, webapp );
+        assertTrue( build( state, null ).isEmpty() );
+    }
+
+    public void testSignatureAndDroppedInputs()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        writeSource( "config.properties", "version=${project.version}" );
+
+        BuildState state = BuildState.load( stateFile, webapp );
+        assertEquals( 1, build( state, "one" ).size() );
+        state.end();
+        state.save();
+
+        state = BuildState.load( stateFile, webapp );
+        assertEquals( "the filter properties changed", 1, build( state, "two" ).size() );
+        state.end();
+        state.save();
+
+        // the input is no longer part of the build, its copies go
+        state = BuildState.load( stateFile, webapp );
+        List<File> removed = state.end();
+        assertEquals( 1, removed.size() );
+        assertEquals( new File( webapp, "config.properties" ), removed.get( 0 ) );
+        state.save();
+
+        // a state written for another webapp is not used
+        state = BuildState.load( stateFile, new File( testDirectory, "other" ) );
+        assertEquals( 1, build( state, "two" ).size() );
+    }
+}
@@ -0,0 +1,127 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class CdsArchiveTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/cds-test" );
+
+    private static final String ARCHIVE = "work/sakai-cds.jsa";
+
+    private File writeFile( String path, String content )
+        throws Exception
+    {
+        File file = new File( testDirectory, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getAbsolutePath(), content );
+        return file;
+    }
+
+    private CdsArchive createArchive()
+    {
+        CdsArchive archive = new CdsArchive( testDirectory, ARCHIVE );
+        archive.addLibDirectory( new File( testDirectory, "lib" ) );
+        archive.addLibDirectory( new File( testDirectory, "lib" ) );
+        archive.addComponents( new File( testDirectory, "components" ) );
+        return archive;
+    }
+
+    public void testArchiveFollowsDeployedJars()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        writeFile( "lib/sakai-kernel-api.jar", "api" );
+        writeFile( "lib/README.txt", "not a jar" );
+        writeFile( "components/user/WEB-INF/lib/user-impl.jar", "user" );
+        writeFile( "components/user/WEB-INF/components.xml", "<beans/>" );
+
+        CdsArchive archive = createArchive();
+        assertEquals( 2, archive.getJars().size() );
+        assertTrue( archive.getFingerprint().startsWith( "lib/sakai-kernel-api.jar 3 " ) );
+        assertFalse( archive.isCurrent() );
+        assertFalse( "there is no archive to remove yet", archive.reset() );
+
+        // the training start records the archive
+        writeFile( ARCHIVE, "archive" );
+        assertTrue( createArchive().isCurrent() );
+
+        // a redeployed component makes the archive stale
+        File jar = writeFile( "components/user/WEB-INF/lib/user-impl.jar", "user-2" );
+        archive = createArchive();
+        assertFalse( archive.isCurrent() );
+        assertTrue( archive.reset() );
+        assertFalse( archive.getArchive().exists() );
+        assertTrue( jar.exists() );
+    }
+
+    public void testArchiveFollowsJvm()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        writeFile( "lib/sakai-kernel-api.jar", "api" );
+
+        CdsArchive archive = createArchive();
+        archive.setJvm( "/opt/jdk-17", "17.0.2+8", "-Xmx2g" );
+        archive.reset();
+        writeFile( ARCHIVE, "archive" );
+        assertTrue( archive.isCurrent() );
+
+        archive.setJvm( "/opt/jdk-17", "17.0.9+9", "-Xmx2g" );
+        assertFalse( "another JVM build", archive.isCurrent() );
+        archive.setJvm( "/opt/jdk-21", "17.0.2+8", "-Xmx2g" );
+        assertFalse( "another JVM", archive.isCurrent() );
+        archive.setJvm( "/opt/jdk-17", "17.0.2+8", "-Xmx2g -XX:+UseZGC" );
+        assertFalse( "other options", archive.isCurrent() );
+        archive.setJvm( "/opt/jdk-17", "17.0.2+8", " -Xmx2g " );
+        assertTrue( archive.isCurrent() );
+    }
+
+    public void testSetenvSourcesSnippet()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File setenv = writeFile( "bin/setenv.sh", "JAVA_OPTS=\"-Xmx2g\"" );
+
+        CdsArchive archive = createArchive();
+        assertTrue( archive.wire( "bin/setenv.sh" ) );
+        assertFalse( "wiring twice changes nothing", archive.wire( "bin/setenv.sh" ) );
+
+        String content = FileUtils.fileRead( setenv.getAbsolutePath() );
+        assertTrue( content.startsWith( "JAVA_OPTS=\"-Xmx2g\"\n" ) );
+        assertTrue( content.endsWith( ". \"$CATALINA_BASE/bin/" + CdsArchive.SNIPPET_NAME + "\"\n" ) );
+
+        String snippet = FileUtils.fileRead( new File( testDirectory, "bin/" + CdsArchive.SNIPPET_NAME ) );
+        assertEquals( archive.formatSnippet(), snippet );
+        assertTrue( snippet.indexOf( "SAKAI_CDS_ARCHIVE=\"$CATALINA_BASE/" + ARCHIVE + "\"" ) != -1 );
+        assertTrue( snippet.indexOf( "-XX:SharedArchiveFile=$SAKAI_CDS_ARCHIVE" ) != -1 );
+        assertTrue( snippet.indexOf( "-XX:ArchiveClassesAtExit=$SAKAI_CDS_ARCHIVE" ) != -1 );
+
+        // a container without a setenv.sh gets one
+        FileUtils.deleteDirectory( new File( testDirectory, "bin" ) );
+        assertTrue( archive.wire( "bin/setenv.sh" ) );
+        assertTrue( FileUtils.fileRead( setenv.getAbsolutePath() ).startsWith( "#!/bin/sh\n" ) );
+    }
+}
@@ -20,15 +20,30 @@ package org.sakaiproject.maven.plugin.component;
  */
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.AssertionFailedError;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.sakaiproject.maven.plugin.component.stub.MavenProjectBasicStub;
 import org.sakaiproject.maven.plugin.component.stub.ResourceStub;
 import org.sakaiproject.maven.plugin.component.stub.SimpleWarArtifactStub;
@@ -155,6 +170,218 @@ public class ComponentDeployMojoTest
         // house keeping
         expectedWarFile.delete();
     }
+    /**
+     * @throws Exception
+     */
+    public void testComponentRedeployUsesJournal()
+        throws Exception
+    {
+        // setup test data
+        String testId = "JournalDeployComponent";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact(new SimpleWarArtifactStub(getBasedir()));
+        project.setPackaging("sakai-component");
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        mojo.execute();
+
+        File componentDir = new File( deployDirectory, "components/"+project.getArtifactId() );
+        File deployedFile = new File( componentDir, "org/sample/company/test.jsp" );
+        File extraFile = new File( componentDir, "extra.txt" );
+        assertTrue( "Component File Not Found: " + deployedFile.toString(), deployedFile.exists() );
+        assertTrue( "Journal Not Found", new File( deployDirectory, DeployJournal.JOURNAL_NAME ).exists() );
+
+        // an unchanged component is left alone
+        createFile( extraFile );
+        mojo.execute();
+        assertTrue( "Unchanged component was redeployed", extraFile.exists() );
+
+        // a component with missing files is deployed again
+        deployedFile.delete();
+        mojo.execute();
+        assertTrue( "Component File Not Found: " + deployedFile.toString(), deployedFile.exists() );
+        assertFalse( "Component was not redeployed", extraFile.exists() );
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testComponentDryRun()
+        throws Exception
+    {
+        // setup test data
+        String testId = "DryRunDeployComponent";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact(new SimpleWarArtifactStub(getBasedir()));
+        project.setPackaging("sakai-component");
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        mojo.setDeployDirectory( deployDirectory );
+        mojo.setDryRun( true );
+        DeployPlan plan = mojo.createPlan();
+        mojo.execute();
+
+        // validate operation
+        assertEquals( 1, plan.getSteps().size() );
+        DeployPlan.Step step = plan.getSteps().get( 0 );
+        assertEquals( DeployPlan.Action.UNPACK, step.getAction() );
+        assertEquals( new File( deployDirectory, "components/"+project.getArtifactId() ), step.getDestination() );
+        assertEquals( 3, step.getFiles() );
+        assertFalse( "Dry run wrote to the deploy directory", deployDirectory.exists() );
+    }
+
+    /**
+     * A dry run plans from the files at hand, and marks the artifacts it
+     * would have to download rather than resolving them.
+     * 
+     * @throws Exception
+     */
+    public void testDryRunDoesNotResolve()
+        throws Exception
+    {
+        // setup test data
+        String testId = "DryRunUnresolvedComponent";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact( createUnresolvedArtifact( "unresolved" ) );
+        project.setPackaging( "sakai-component" );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        setVariableValueToObject( mojo, "artifactResolver", Proxy.newProxyInstance(
+            ArtifactResolver.class.getClassLoader(), new Class[]{ ArtifactResolver.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    throw new AssertionFailedError( "The dry run resolved " + args[0] );
+                }
+            } ) );
+        setVariableValueToObject( mojo, "artifactRepository", null );
+        mojo.setDryRun( true );
+        DeployPlan plan = mojo.createPlan();
+        mojo.execute();
+
+        // validate operation
+        assertEquals( 1, plan.getSteps().size() );
+        DeployPlan.Step step = plan.getSteps().get( 0 );
+        assertEquals( DeployPlan.Action.UNPACK, step.getAction() );
+        assertFalse( step.isResolved() );
+        assertEquals( 0, step.getFiles() );
+        assertEquals( 1, plan.getUnresolvedCount() );
+        assertNull( project.getArtifact().getFile() );
+        assertFalse( "Dry run wrote to the deploy directory", deployDirectory.exists() );
+    }
+
+    private MavenProjectBasicStub createComponentProject( final String artifactId )
+        throws Exception
+    {
+        MavenProjectBasicStub project = new MavenProjectBasicStub()
+        {
+            public String getArtifactId()
+            {
+                return artifactId;
+            }
+        };
+        SimpleWarArtifactStub artifact = new SimpleWarArtifactStub( getBasedir() );
+        artifact.setArtifactId( artifactId );
+        project.setArtifact( artifact );
+        project.setPackaging( "sakai-component" );
+        return project;
+    }
+
+    /**
+     * A tomcat overlay which cleans the components directory, shipping a
+     * single file.
+     */
+    private MavenProjectBasicStub createOverlayProject( String testId )
+        throws Exception
+    {
+        File archive = new File( getTestDirectory(), testId + "-overlay.zip" );
+        archive.getParentFile().mkdirs();
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( archive ) );
+        zip.putNextEntry( new ZipEntry( "conf/overlay.xml" ) );
+        zip.write( "<overlay/>".getBytes( "UTF-8" ) );
+        zip.close();
+        SimpleWarArtifactStub artifact = new SimpleWarArtifactStub( getBasedir() );
+        artifact.setArtifactId( "overlay" );
+        artifact.setFile( archive );
+        HashSet<Artifact> dependencySet = new LinkedHashSet<Artifact>();
+        dependencySet.add( artifact );
+
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setPackaging( "pom" );
+        project.addProperty( "deploy.target", "tomcat-overlay" );
+        project.addProperty( "clean.targets", "components" );
+        project.setDependencyArtifacts( dependencySet );
+        return project;
+    }
+
+    /**
+     * An overlay cleaning the components directory is deployed on its own,
+     * so the tree is the same as a sequential deploy of the distro.
+     * 
+     * @throws Exception
+     */
+    public void testDistroOverlayCleansBeforeConcurrentComponents()
+        throws Exception
+    {
+        // setup test data
+        String testId = "DistroOverlayDeploy";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact( new SimpleWarArtifactStub( getBasedir() ) );
+        project.setPackaging( "pom" );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        mojo.setDeployThreads( 3 );
+        mojo.setUseJournal( false );
+
+        List<MavenProject> distro = new ArrayList<MavenProject>();
+        distro.add( createOverlayProject( testId ) );
+        for ( int i = 0; i < 4; i++ )
+        {
+            distro.add( createComponentProject( "component-" + i ) );
+        }
+        List<String> failures = new ArrayList<String>();
+        mojo.deployProjects( distro, failures );
+
+        // validate operation
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertTrue( new File( deployDirectory, "conf/overlay.xml" ).exists() );
+        for ( int i = 0; i < 4; i++ )
+        {
+            File deployedFile = new File( deployDirectory, "components/component-" + i + "/org/sample/company/test.jsp" );
+            assertTrue( "Component File Not Found: " + deployedFile, deployedFile.exists() );
+        }
+
+        // an overlay after a component wipes it, as a sequential deploy does
+        distro.add( 2, createOverlayProject( testId ) );
+        mojo.deployProjects( distro, failures );
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertFalse( new File( deployDirectory, "components/component-0" ).exists() );
+        for ( int i = 1; i < 4; i++ )
+        {
+            assertTrue( new File( deployDirectory, "components/component-" + i + "/org/sample/company/test.jsp" ).exists() );
+        }
+    }
+
     /**
      * @throws Exception
      */
@@ -192,6 +419,39 @@ public class ComponentDeployMojoTest
         // house keeping
        // expectedWarFile.delete();
     }
+    /**
+     * @throws Exception
+     */
+    public void testConfigurationRefusedInReleaseMode()
+        throws Exception
+    {
+        // setup test data
+        String testId = "ReleaseDeployConfiguration";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact( new SimpleConfigurationArtifactStub( getBasedir() ) );
+        project.setPackaging( "sakai-configuration" );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        mojo.setReleaseMode( true );
+        try
+        {
+            mojo.execute();
+            fail( "A configuration was deployed into a release" );
+        }
+        catch ( MojoFailureException e )
+        {
+            // validate operation
+            assertTrue( e.getMessage(), e.getMessage().indexOf( "release mode" ) != -1 );
+        }
+        assertFalse( "A release was started", new File( deployDirectory, "releases" ).exists() );
+        assertFalse( new File( deployDirectory, "org/sample/company/test.jsp" ).exists() );
+    }
+
     /**
      * @throws Exception
      */
@@ -279,6 +539,157 @@ public class ComponentDeployMojoTest
         expectedJarFile.delete();
     }
     
+    /**
+     * A sync copies what changed since the last pass, and when given the
+     * directories which changed looks at nothing else.
+     * 
+     * @throws Exception
+     */
+    public void testSyncWebapp()
+        throws Exception
+    {
+        // setup test data
+        String testId = "SyncWebapp";
+        FileUtils.deleteDirectory( getBaseSampleDir( testId ) );
+        FileUtils.deleteDirectory( new File( getTestDirectory(), testId + "-tomcat" ) );
+        MavenProjectBasicStub project = createComponentProject( "sync" );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+        File target = new File( deployDirectory, "components/sync" );
+        File source = new File( webAppSource, "org/web/app/last-exile.jsp" );
+        File other = new File( webAppSource, "pansit.jsp" );
+        File jsp = new File( target, "org/web/app/last-exile.jsp" );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        SyncState state = new SyncState();
+
+        // validate operation
+        assertEquals( 3, mojo.syncWebapp( target, state ).size() );
+        assertTrue( jsp.exists() );
+        assertTrue( new File( target, "WEB-INF/classes/sample-servlet.class" ).exists() );
+        assertTrue( mojo.syncWebapp( target, state ).isEmpty() );
+
+        FileUtils.fileWrite( source.getAbsolutePath(), "changed" );
+        source.setLastModified( source.lastModified() + 10000 );
+        FileUtils.fileWrite( other.getAbsolutePath(), "changed too" );
+        other.setLastModified( other.lastModified() + 10000 );
+        List synced = mojo.syncWebapp( target, state, Collections.singleton( source.getParentFile() ) );
+        assertEquals( Collections.singletonList( jsp ), synced );
+        assertEquals( "changed", FileUtils.fileRead( jsp.getAbsolutePath() ) );
+        assertFalse( "A directory which did not change was looked at",
+                     "changed too".equals( FileUtils.fileRead( new File( target, "pansit.jsp" ).getAbsolutePath() ) ) );
+
+        // a full pass picks up the rest
+        assertEquals( 1, mojo.syncWebapp( target, state ).size() );
+
+        File removed = new File( webAppSource, "org" );
+        FileUtils.deleteDirectory( removed );
+        synced = mojo.syncWebapp( target, state, Collections.singleton( removed ) );
+        assertEquals( Collections.singletonList( jsp ), synced );
+        assertFalse( jsp.exists() );
+        assertTrue( new File( target, "pansit.jsp" ).exists() );
+    }
+
+    /**
+     * An artifact with no file until it is resolved.
+     */
+    private static Artifact createUnresolvedArtifact( String artifactId )
+    {
+        SimpleWarArtifactStub artifact = new SimpleWarArtifactStub( getBasedir() )
+        {
+            private File file;
+
+            public File getFile()
+            {
+                return file;
+            }
+
+            public void setFile( File _file )
+            {
+                file = _file;
+            }
+        };
+        artifact.setArtifactId( artifactId );
+        return artifact;
+    }
+
+    /**
+     * A resolver which takes a random time per artifact and cannot find the
+     * artifacts whose id starts with "missing".
+     */
+    private static ArtifactResolver createSlowResolver()
+    {
+        final Random random = new Random();
+        return (ArtifactResolver) Proxy.newProxyInstance( ArtifactResolver.class.getClassLoader(),
+            new Class[]{ ArtifactResolver.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                    throws Throwable
+                {
+                    if ( !"resolve".equals( method.getName() ) )
+                    {
+                        throw new UnsupportedOperationException( method.getName() );
+                    }
+                    Artifact artifact = (Artifact) args[0];
+                    Thread.sleep( random.nextInt( 20 ) );
+                    if ( artifact.getArtifactId().startsWith( "missing" ) )
+                    {
+                        throw new ArtifactNotFoundException( "Not in the repository", artifact );
+                    }
+                    artifact.setFile( new File( getBasedir(), "target/test-classes/unit/sample_wars/simple.war" ) );
+                    return null;
+                }
+            } );
+    }
+
+    /**
+     * Resolving on several workers reports the same failures, in the same
+     * order, as resolving one artifact at a time.
+     * 
+     * @throws Exception
+     */
+    public void testPrefetchReportsFailuresInOrder()
+        throws Exception
+    {
+        List<String> serial = null;
+        for ( int threads = 1; threads <= 4; threads += 3 )
+        {
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            for ( int i = 0; i < 12; i++ )
+            {
+                artifacts.add( createUnresolvedArtifact( ( i % 3 == 1 ? "missing-" : "tool-" ) + i ) );
+            }
+            setVariableValueToObject( mojo, "artifactResolver", createSlowResolver() );
+            setVariableValueToObject( mojo, "remoteRepositories", new ArrayList() );
+            mojo.setResolveThreads( threads );
+
+            List<String> failed = new ArrayList<String>();
+            for ( Artifact artifact : mojo.prefetch( artifacts ) )
+            {
+                failed.add( artifact.getArtifactId() );
+            }
+            for ( Artifact artifact : artifacts )
+            {
+                assertEquals( artifact.getArtifactId(), artifact.getArtifactId().startsWith( "missing" ),
+                              artifact.getFile() == null );
+            }
+            if ( serial == null )
+            {
+                serial = failed;
+                assertEquals( 4, serial.size() );
+                assertEquals( "missing-1", serial.get( 0 ) );
+                assertEquals( "missing-10", serial.get( 3 ) );
+            }
+            else
+            {
+                assertEquals( serial, failed );
+            }
+        }
+    }
+
     protected void configureMojo( ComponentDeployMojo mojo, List filters, File classesDir, File webAppSource,
             File webAppDir, File deployDir, MavenProjectBasicStub project )
     throws Exception
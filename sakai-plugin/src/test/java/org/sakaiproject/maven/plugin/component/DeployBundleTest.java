@@ -0,0 +1,168 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class DeployBundleTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/bundle-test" );
+
+    private File staging;
+
+    private File container;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        FileUtils.deleteDirectory( testDirectory );
+        staging = new File( testDirectory, "staging" );
+        container = new File( testDirectory, "container" );
+        write( staging, "components/sample/WEB-INF/components.xml", "<beans/>" );
+        write( staging, "shared/lib/sample-api.jar", "not really a jar" );
+        write( staging, "webapps/sample/index.html", "<html/>" );
+        write( staging, DeployJournal.JOURNAL_NAME, "journal" );
+    }
+
+    public void testBundleIsDeterministic()
+        throws Exception
+    {
+        File first = new File( testDirectory, "first.zip" );
+        new DeployBundle( first ).create( staging );
+        new File( staging, "webapps/sample/index.html" ).setLastModified( System.currentTimeMillis() - 60000 );
+        File second = new File( testDirectory, "second.zip" );
+        DeployBundle bundle = new DeployBundle( second );
+        bundle.create( staging );
+
+        assertEquals( 3, bundle.getWrittenCount() );
+        assertTrue( Arrays.equals( read( first ), read( second ) ) );
+    }
+
+    public void testApplySkipsIdenticalFiles()
+        throws Exception
+    {
+        File file = new File( testDirectory, "bundle.zip" );
+        DeployBundle bundle = new DeployBundle( file );
+        bundle.create( staging );
+
+        bundle.apply( container, 2 );
+        assertEquals( 3, bundle.getWrittenCount() );
+        assertEquals( "<beans/>", FileUtils.fileRead( new File( container,
+            "components/sample/WEB-INF/components.xml" ).getAbsolutePath() ) );
+        assertFalse( new File( container, DeployJournal.JOURNAL_NAME ).exists() );
+        assertTrue( new File( container, DeployBundle.INDEX_NAME ).exists() );
+
+        write( staging, "webapps/sample/index.html", "<html>changed</html>" );
+        bundle.create( staging );
+        bundle.apply( container, 2 );
+        assertEquals( 1, bundle.getWrittenCount() );
+        assertEquals( 2, bundle.getUnchangedCount() );
+        assertEquals( "<html>changed</html>", FileUtils.fileRead( new File( container,
+            "webapps/sample/index.html" ).getAbsolutePath() ) );
+    }
+
+    public void testApplyRemovesFilesDroppedFromBundle()
+        throws Exception
+    {
+        File file = new File( testDirectory, "bundle.zip" );
+        DeployBundle bundle = new DeployBundle( file );
+        bundle.create( staging );
+        bundle.apply( container, 1 );
+        write( container, "shared/lib/local.jar", "not from a bundle" );
+
+        new File( staging, "shared/lib/sample-api.jar" ).delete();
+        bundle.create( staging );
+        bundle.apply( container, 1 );
+        assertEquals( 1, bundle.getRemovedCount() );
+        assertFalse( new File( container, "shared/lib/sample-api.jar" ).exists() );
+        assertTrue( new File( container, "shared/lib/local.jar" ).exists() );
+    }
+
+    public void testApplyChecksFilesAgainstIndex()
+        throws Exception
+    {
+        File file = new File( testDirectory, "bundle.zip" );
+        DeployBundle bundle = new DeployBundle( file );
+        bundle.create( staging );
+        bundle.apply( container, 1 );
+
+        // a bundle whose index does not match the file it carries
+        File corrupt = new File( testDirectory, "corrupt.zip" );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( corrupt ) );
+        try
+        {
+            out.putNextEntry( new ZipEntry( DeployBundle.INDEX_NAME ) );
+            out.write( "webapps/sample/index.html\t7\t0123456789012345678901234567890123456789\n".getBytes( "UTF-8" ) );
+            out.putNextEntry( new ZipEntry( "webapps/sample/index.html" ) );
+            out.write( "<html>corrupt</html>".getBytes( "UTF-8" ) );
+            out.closeEntry();
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+        try
+        {
+            new DeployBundle( corrupt ).apply( container, 1 );
+            fail( "A file not matching the index of the bundle was accepted" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertTrue( "files of the previous bundle are only removed after a good apply",
+                    new File( container, "shared/lib/sample-api.jar" ).exists() );
+    }
+
+    private static void write( File directory, String path, String content )
+        throws Exception
+    {
+        File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getAbsolutePath(), content );
+    }
+
+    private static byte[] read( File file )
+        throws Exception
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            return IOUtil.toByteArray( in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+public class DeployJournalTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/deployjournal-test" );
+
+    private File lib;
+
+    private File source;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        FileUtils.deleteDirectory( testDirectory );
+        lib = new File( testDirectory, "container/shared/lib" );
+        lib.mkdirs();
+        source = new File( testDirectory, "repository/a.jar" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), "jar" );
+    }
+
+    public void testNewVersionLeavesOldFileStale()
+        throws Exception
+    {
+        DeployJournal journal = new DeployJournal( new File( testDirectory, "container" ) );
+        File old = new File( lib, "a-1.0.jar" );
+        File current = new File( lib, "a-1.1.jar" );
+
+        assertTrue( journal.record( lib, "org:a:jar", "org:a:jar:1.0", source, list( old ), null ).isEmpty() );
+        List stale = journal.record( lib, "org:a:jar", "org:a:jar:1.1", source, list( current ), null );
+        assertEquals( 1, stale.size() );
+        assertEquals( old.getAbsoluteFile(), stale.get( 0 ) );
+    }
+
+    public void testClaimedFileIsNotStale()
+        throws Exception
+    {
+        DeployJournal journal = new DeployJournal( new File( testDirectory, "container" ) );
+        File shared = new File( lib, "shared.jar" );
+
+        journal.record( lib, "org:a:jar", "org:a:jar:1.0", source, list( shared ), null );
+        journal.record( lib, "org:b:jar", "org:b:jar:1.0", source, list( shared ), null );
+        List stale = journal.record( lib, "org:a:jar", "org:a:jar:1.1", source, list( new File( lib, "a.jar" ) ),
+                                     null );
+        assertTrue( "another artifact still claims the file", stale.isEmpty() );
+    }
+
+    public void testPruneRemovesDroppedArtifacts()
+        throws Exception
+    {
+        File container = new File( testDirectory, "container" );
+        DeployJournal journal = new DeployJournal( container );
+        File a = new File( lib, "a-1.0.jar" );
+        File b = new File( lib, "b-1.0.jar" );
+        journal.record( lib, "org:a:jar", "org:a:jar:1.0", source, list( a ), "org:pack" );
+        journal.record( lib, "org:b:jar", "org:b:jar:1.0", source, list( b ), "org:pack" );
+        journal.save();
+
+        journal = new DeployJournal( container );
+        List stale = journal.prune( lib, "org:pack", Collections.singleton( "org:a:jar" ) );
+        assertEquals( 1, stale.size() );
+        assertEquals( b.getAbsoluteFile(), stale.get( 0 ) );
+        assertFalse( "a pruned artifact is deployed again when it comes back",
+                     journal.isUpToDate( lib, "org:b:jar", "org:b:jar:1.0", source ) );
+        assertTrue( journal.prune( lib, "org:other", Collections.EMPTY_SET ).isEmpty() );
+    }
+
+    public void testPruneKeepsArtifactOfOtherOwner()
+        throws Exception
+    {
+        DeployJournal journal = new DeployJournal( new File( testDirectory, "container" ) );
+        File a = new File( lib, "a-1.0.jar" );
+        journal.record( lib, "org:a:jar", "org:a:jar:1.0", source, list( a ), "org:one" );
+        journal.record( lib, "org:a:jar", "org:a:jar:1.0", source, list( a ), "org:two" );
+
+        assertTrue( journal.prune( lib, "org:one", Collections.EMPTY_SET ).isEmpty() );
+        List stale = journal.prune( lib, "org:two", Collections.EMPTY_SET );
+        assertEquals( 1, stale.size() );
+    }
+
+    private static List list( File file )
+    {
+        return Collections.singletonList( file );
+    }
+}
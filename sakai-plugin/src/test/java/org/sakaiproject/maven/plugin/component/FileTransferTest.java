@@ -0,0 +1,196 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+public class FileTransferTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/filetransfer-test" );
+
+    private File createSource( String name, String content )
+        throws Exception
+    {
+        File source = new File( testDirectory, "repository/" + name );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), content );
+        return source;
+    }
+
+    public void testCopy()
+        throws Exception
+    {
+        File source = createSource( "copy.jar", "copy" );
+        File destination = new File( testDirectory, "lib/copy.jar" );
+
+        FileTransfer transfer = new FileTransfer( FileTransfer.Strategy.COPY );
+        assertEquals( FileTransfer.Strategy.COPY, transfer.transfer( source, destination ) );
+        assertEquals( "copy", FileUtils.fileRead( destination.getAbsolutePath() ) );
+        assertEquals( source.lastModified(), destination.lastModified() );
+    }
+
+    public void testHardLink()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        File source = createSource( "hard.jar", "hard" );
+        File destination = new File( testDirectory, "lib/hard.jar" );
+
+        FileTransfer transfer = new FileTransfer( FileTransfer.Strategy.HARDLINK );
+        assertEquals( FileTransfer.Strategy.HARDLINK, transfer.transfer( source, destination ) );
+        assertEquals( "hard", FileUtils.fileRead( destination.getAbsolutePath() ) );
+        assertEquals( source.lastModified(), destination.lastModified() );
+    }
+
+    public void testSymLink()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        File source = createSource( "sym.jar", "sym" );
+        File destination = new File( testDirectory, "lib/sym.jar" );
+
+        FileTransfer transfer = new FileTransfer( FileTransfer.Strategy.SYMLINK );
+        assertEquals( FileTransfer.Strategy.SYMLINK, transfer.transfer( source, destination ) );
+        assertEquals( "sym", FileUtils.fileRead( destination.getAbsolutePath() ) );
+        assertFalse( destination.getCanonicalPath().equals( destination.getAbsolutePath() ) );
+    }
+
+    public void testFailedLinkOnlyAffectsItsFilesystems()
+        throws Exception
+    {
+        // a memory filesystem, so links from it to the test directory fail
+        File otherFilesystem = new File( "/dev/shm" );
+        if ( !FileTransfer.isLinkingSupported() || !otherFilesystem.canWrite() )
+        {
+            return;
+        }
+        File remote = new File( otherFilesystem, "filetransfer-test-remote.jar" );
+        FileUtils.fileWrite( remote.getAbsolutePath(), "remote" );
+        try
+        {
+            FileTransfer transfer = new FileTransfer( FileTransfer.Strategy.HARDLINK );
+            if ( transfer.transfer( remote, new File( testDirectory, "lib/remote.jar" ) ) != FileTransfer.Strategy.COPY )
+            {
+                // the same filesystem after all
+                return;
+            }
+            assertTrue( transfer.isLinkFailed() );
+            assertEquals( 1, transfer.takeFallbacks().size() );
+            transfer.transfer( remote, new File( testDirectory, "lib/remote-again.jar" ) );
+            assertTrue( "the fallback is reported once", transfer.takeFallbacks().isEmpty() );
+
+            File local = createSource( "local.jar", "local" );
+            assertEquals( "files on one filesystem are still linked", FileTransfer.Strategy.HARDLINK,
+                          transfer.transfer( local, new File( testDirectory, "lib/local.jar" ) ) );
+        }
+        finally
+        {
+            remote.delete();
+        }
+    }
+
+    public void testCopyDoesNotWriteThroughLink()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        File source = createSource( "linked.jar", "original" );
+        File destination = new File( testDirectory, "lib/linked.jar" );
+        new FileTransfer( FileTransfer.Strategy.HARDLINK ).transfer( source, destination );
+
+        File update = createSource( "linked-update.jar", "updated" );
+        new FileTransfer( FileTransfer.Strategy.COPY ).transfer( update, destination );
+
+        assertEquals( "updated", FileUtils.fileRead( destination.getAbsolutePath() ) );
+        assertEquals( "original", FileUtils.fileRead( source.getAbsolutePath() ) );
+    }
+
+    public void testCopyChecksRepositoryChecksum()
+        throws Exception
+    {
+        File source = createSource( "checked.jar", "checked" );
+        String checksum = DeployJournal.checksum( source );
+        FileUtils.fileWrite( source.getAbsolutePath() + ".sha1", checksum + "  checked.jar\n" );
+        File destination = new File( testDirectory, "lib/checked.jar" );
+
+        assertEquals( checksum, FileTransfer.copy( source, destination, true ) );
+        assertEquals( "checked", FileUtils.fileRead( destination.getAbsolutePath() ) );
+
+        FileUtils.fileWrite( source.getAbsolutePath() + ".sha1", "0123456789012345678901234567890123456789" );
+        destination.delete();
+        try
+        {
+            FileTransfer.copy( source, destination, true );
+            fail( "A copy not matching the repository checksum was put in place" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertFalse( destination.exists() );
+
+        // copies of the webapp sources and releases do not look at checksums
+        assertEquals( checksum, FileTransfer.copy( source, destination ) );
+        assertEquals( "checked", FileUtils.fileRead( destination.getAbsolutePath() ) );
+    }
+
+    public void testTransferNotesChecksumMismatch()
+        throws Exception
+    {
+        File source = createSource( "stale.jar", "stale" );
+        FileUtils.fileWrite( source.getAbsolutePath() + ".sha1", "0123456789012345678901234567890123456789" );
+        File destination = new File( testDirectory, "lib/stale.jar" );
+        destination.delete();
+
+        FileTransfer transfer = new FileTransfer( FileTransfer.Strategy.COPY );
+        assertFalse( transfer.isVerifyChecksums() );
+        transfer.transfer( source, destination );
+        assertEquals( "stale", FileUtils.fileRead( destination.getAbsolutePath() ) );
+        assertEquals( 1, transfer.getChecksumMismatches().size() );
+
+        destination.delete();
+        transfer = new FileTransfer( FileTransfer.Strategy.COPY );
+        transfer.setVerifyChecksums( true );
+        try
+        {
+            transfer.transfer( source, destination );
+            fail( "A verified transfer not matching the repository checksum was put in place" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertFalse( destination.exists() );
+        assertTrue( transfer.getChecksumMismatches().isEmpty() );
+    }
+}
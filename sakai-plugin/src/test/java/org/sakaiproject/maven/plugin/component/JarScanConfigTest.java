@@ -0,0 +1,152 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class JarScanConfigTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/jarscan-test" );
+
+    private static final String SKIP = "tomcat.util.scan.StandardJarScanFilter.jarsToSkip";
+
+    private static final String SCAN = "tomcat.util.scan.StandardJarScanFilter.jarsToScan";
+
+    private static byte[] jar( String entry )
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeZip( bytes, new String[] { "org/example/Example.class", entry } );
+        return bytes.toByteArray();
+    }
+
+    private static void writeZip( OutputStream stream, String[] entries )
+        throws Exception
+    {
+        ZipOutputStream out = new ZipOutputStream( stream );
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            if ( entries[i] != null )
+            {
+                out.putNextEntry( new ZipEntry( entries[i] ) );
+                out.write( 1 );
+                out.closeEntry();
+            }
+        }
+        out.close();
+    }
+
+    private static void writeFile( File file, byte[] content )
+        throws Exception
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( file );
+        out.write( content );
+        out.close();
+    }
+
+    private static void writeWar( File war, String[] names, byte[][] jars )
+        throws Exception
+    {
+        war.getParentFile().mkdirs();
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( war ) );
+        out.putNextEntry( new ZipEntry( "WEB-INF/web.xml" ) );
+        out.write( "<web-app/>".getBytes( "UTF-8" ) );
+        out.closeEntry();
+        for ( int i = 0; i < names.length; i++ )
+        {
+            out.putNextEntry( new ZipEntry( "WEB-INF/lib/" + names[i] ) );
+            out.write( jars[i] );
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+    private static Properties load( File file )
+        throws Exception
+    {
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream( file );
+        properties.load( in );
+        in.close();
+        return properties;
+    }
+
+    public void testListsAreWrittenAndReplaced()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File lib = new File( testDirectory, "lib" );
+        writeFile( new File( lib, "taglib.jar" ), jar( "META-INF/c.tld" ) );
+        writeFile( new File( lib, "plain.jar" ), jar( null ) );
+        writeWar( new File( testDirectory, "webapps/portal.war" ), new String[] { "fragment.jar", "spring.jar" },
+                  new byte[][] { jar( "META-INF/web-fragment.xml" ), jar( null ) } );
+        File config = new File( testDirectory, "conf/catalina.properties" );
+        config.getParentFile().mkdirs();
+        FileUtils.fileWrite( config.getAbsolutePath(), "common.loader=${catalina.home}/lib/*.jar\n" + SKIP
+            + "=bootstrap.jar,\\\n  tomcat-juli.jar\nshared.loader=\n" );
+
+        JarScanConfig scan = new JarScanConfig( testDirectory, testDirectory );
+        scan.scanLibDirectory( lib );
+        scan.scanWebapps( new File( testDirectory, "webapps" ) );
+        assertEquals( 3, scan.getReadCount() );
+        assertTrue( scan.write( config, SKIP, SCAN ) );
+        scan.saveCache();
+
+        Properties written = load( config );
+        assertEquals( "${catalina.home}/lib/*.jar", written.getProperty( "common.loader" ) );
+        assertEquals( "", written.getProperty( "shared.loader" ) );
+        assertEquals( "bootstrap.jar,tomcat-juli.jar,plain.jar,spring.jar", written.getProperty( SKIP ) );
+        assertEquals( "fragment.jar,taglib.jar", written.getProperty( SCAN ) );
+
+        // the next deploy drops a jar and takes everything else from the cache
+        new File( lib, "plain.jar" ).delete();
+        scan = new JarScanConfig( testDirectory, testDirectory );
+        scan.scanLibDirectory( lib );
+        scan.scanWebapps( new File( testDirectory, "webapps" ) );
+        assertEquals( 0, scan.getReadCount() );
+        assertTrue( scan.write( config, SKIP, SCAN ) );
+        assertFalse( "an unchanged list is not written again", scan.write( config, SKIP, SCAN ) );
+
+        written = load( config );
+        assertEquals( "bootstrap.jar,tomcat-juli.jar,spring.jar", written.getProperty( SKIP ) );
+        assertEquals( "fragment.jar,taglib.jar", written.getProperty( SCAN ) );
+    }
+
+    public void testScannedEntries()
+    {
+        assertTrue( JarScanConfig.isScanned( "META-INF/tags/fmt.tld" ) );
+        assertTrue( JarScanConfig.isScanned( "META-INF/web-fragment.xml" ) );
+        assertTrue( JarScanConfig.isScanned( "META-INF/services/javax.servlet.ServletContainerInitializer" ) );
+        assertFalse( JarScanConfig.isScanned( "WEB-INF/c.tld" ) );
+        assertFalse( JarScanConfig.isScanned( "META-INF/MANIFEST.MF" ) );
+    }
+}
@@ -0,0 +1,120 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+public class JarStoreTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/jarstore-test" );
+
+    private File writeJar( String component, String name, String content )
+        throws Exception
+    {
+        File jar = new File( testDirectory, "components/" + component + "/WEB-INF/lib/" + name );
+        jar.getParentFile().mkdirs();
+        FileUtils.fileWrite( jar.getAbsolutePath(), content );
+        return jar;
+    }
+
+    public void testIdenticalJarsAreLinked()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        FileUtils.deleteDirectory( testDirectory );
+        File first = writeJar( "one", "spring.jar", "spring" );
+        File second = writeJar( "two", "spring.jar", "spring" );
+        File other = writeJar( "two", "hibernate.jar", "hibernate" );
+
+        JarStore store = new JarStore( testDirectory );
+        assertEquals( 0, store.deduplicate( new File( testDirectory, "components/one" ) ) );
+        assertEquals( 1, store.deduplicate( new File( testDirectory, "components/two" ) ) );
+
+        assertTrue( FileTransfer.isSameFile( first, second ) );
+        assertFalse( FileTransfer.isSameFile( first, other ) );
+        assertEquals( "spring", FileUtils.fileRead( second.getAbsolutePath() ) );
+        assertEquals( 1, store.getLinkedCount() );
+        assertEquals( "spring".length(), store.getSavedBytes() );
+
+        assertEquals( "linked jars are not counted again", 0,
+                      store.deduplicate( new File( testDirectory, "components/two" ) ) );
+    }
+
+    public void testRewrittenJarLeavesOthersAlone()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        FileUtils.deleteDirectory( testDirectory );
+        File first = writeJar( "one", "commons.jar", "commons-1" );
+        File second = writeJar( "two", "commons.jar", "commons-1" );
+        JarStore store = new JarStore( testDirectory );
+        store.deduplicate( new File( testDirectory, "components/one" ) );
+        store.deduplicate( new File( testDirectory, "components/two" ) );
+
+        // unpacking a new version renames a new file over the link
+        File update = new File( testDirectory, "commons-2.jar" );
+        FileUtils.fileWrite( update.getAbsolutePath(), "commons-2" );
+        FileTransfer.copy( update, second );
+
+        assertEquals( "commons-1", FileUtils.fileRead( first.getAbsolutePath() ) );
+        assertEquals( "commons-2", FileUtils.fileRead( second.getAbsolutePath() ) );
+    }
+
+    public void testUnlinkedJarsAreCollected()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        FileUtils.deleteDirectory( testDirectory );
+        writeJar( "one", "spring.jar", "spring" );
+        writeJar( "two", "spring.jar", "spring" );
+        File dropped = writeJar( "two", "quartz.jar", "quartz" );
+        JarStore store = new JarStore( testDirectory );
+        store.deduplicate( new File( testDirectory, "components/one" ) );
+        store.deduplicate( new File( testDirectory, "components/two" ) );
+        if ( JarStore.getLinkCount( dropped ) == 0 )
+        {
+            // the filesystem does not report link counts
+            return;
+        }
+        assertTrue( "jars still linked are kept", store.collect().isEmpty() );
+
+        // pruning a component leaves the jars only it used with a single link
+        String checksum = DeployJournal.checksum( dropped );
+        FileUtils.deleteDirectory( new File( testDirectory, "components/two" ) );
+        List removed = store.collect();
+        assertEquals( 1, removed.size() );
+        assertEquals( checksum + ".jar", ( (File) removed.get( 0 ) ).getName() );
+        assertEquals( "the jar of component one is kept", 1, store.getDirectory().list().length );
+    }
+}
@@ -0,0 +1,55 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class OverlayExtractorTest
+    extends AbstractMojoTestCase
+{
+    private static File sampleWars = new File( getBasedir(), "target/test-classes/unit/sample_wars" );
+
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/overlayextractor-test" );
+
+    public void testLastOverlayWins()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "merged" );
+        FileUtils.deleteDirectory( destination );
+
+        OverlayExtractor extractor = new OverlayExtractor( Arrays.asList( new File[] {
+            new File( sampleWars, "simple.war" ), new File( sampleWars, "simple-updated.war" ) } ) );
+        assertTrue( extractor.isSupported() );
+        extractor.extract( destination, 2 );
+
+        // simple-updated.war ships a longer test.jsp than simple.war
+        assertEquals( 8, new File( destination, "org/sample/company/test.jsp" ).length() );
+        assertEquals( 3, extractor.getWrittenCount() );
+        assertEquals( 3, extractor.getShadowedCount() );
+
+        extractor.extract( destination, 2 );
+        assertEquals( 0, extractor.getWrittenCount() );
+        assertEquals( 3, extractor.getUnchangedCount() );
+    }
+}
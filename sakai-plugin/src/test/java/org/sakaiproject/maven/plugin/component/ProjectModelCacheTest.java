@@ -0,0 +1,209 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+public class ProjectModelCacheTest
+    extends AbstractMojoTestCase
+{
+    private static File repository = new File( getBasedir(), "target/test-classes/unit/modelcache-test" );
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        FileUtils.deleteDirectory( repository );
+        writePom( "org.sakaiproject", "master", "1.0", "parent" );
+        writePom( "org.sakaiproject", "tool", "1.0", "child" );
+    }
+
+    private File writePom( String groupId, String artifactId, String version, String content )
+        throws Exception
+    {
+        File pom = new File( repository, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version + "/"
+            + artifactId + "-" + version + ".pom" );
+        pom.getParentFile().mkdirs();
+        FileUtils.fileWrite( pom.getAbsolutePath(), "<project>" + content + "</project>" );
+        return pom;
+    }
+
+    private static Model createModel( String artifactId, String packaging )
+    {
+        Model model = new Model();
+        model.setGroupId( "org.sakaiproject" );
+        model.setArtifactId( artifactId );
+        model.setVersion( "1.0" );
+        model.setPackaging( packaging );
+        model.setBuild( new Build() );
+        model.setProperties( new Properties() );
+        return model;
+    }
+
+    private static Dependency createDependency( String artifactId, String scope )
+    {
+        Dependency dependency = new Dependency();
+        dependency.setGroupId( "org.sakaiproject" );
+        dependency.setArtifactId( artifactId );
+        dependency.setVersion( "1.0" );
+        dependency.setType( "jar" );
+        dependency.setScope( scope );
+        return dependency;
+    }
+
+    private static MavenProject createProject()
+    {
+        Model model = createModel( "tool", "pom" );
+        model.getBuild().setFinalName( "sakai-tool" );
+        model.getProperties().setProperty( "deploy.target", "shared" );
+        model.getProperties().setProperty( "unrelated", "not cached" );
+        Dependency api = createDependency( "tool-api", null );
+        Exclusion logging = new Exclusion();
+        logging.setGroupId( "commons-logging" );
+        logging.setArtifactId( "commons-logging" );
+        api.addExclusion( logging );
+        Exclusion any = new Exclusion();
+        any.setGroupId( "log4j" );
+        any.setArtifactId( "*" );
+        api.addExclusion( any );
+        model.addDependency( api );
+        Dependency tools = createDependency( "tools", "system" );
+        tools.setClassifier( "jdk" );
+        tools.setOptional( true );
+        tools.setSystemPath( "C:\\jdk\\lib\\tools.jar" );
+        model.addDependency( tools );
+
+        MavenProject project = new MavenProject( model );
+        project.setParent( new MavenProject( createModel( "master", "pom" ) ) );
+        return project;
+    }
+
+    public void testRoundTrip()
+        throws Exception
+    {
+        ProjectModelCache cache = new ProjectModelCache( repository );
+        assertNull( cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+        cache.store( createProject() );
+        cache.save();
+
+        cache = new ProjectModelCache( repository );
+        MavenProject cached = cache.lookup( "org.sakaiproject", "tool", "1.0" );
+        assertNotNull( cached );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( "pom", cached.getPackaging() );
+        assertEquals( "sakai-tool", cached.getBuild().getFinalName() );
+        assertEquals( "shared", cached.getProperties().getProperty( "deploy.target" ) );
+        assertNull( cached.getProperties().getProperty( "unrelated" ) );
+
+        List dependencies = cached.getDependencies();
+        assertEquals( 2, dependencies.size() );
+        Dependency api = (Dependency) dependencies.get( 0 );
+        assertEquals( "tool-api", api.getArtifactId() );
+        assertNull( api.getScope() );
+        assertNull( api.getSystemPath() );
+        assertEquals( 2, api.getExclusions().size() );
+        Exclusion logging = (Exclusion) api.getExclusions().get( 0 );
+        assertEquals( "commons-logging", logging.getGroupId() );
+        assertEquals( "commons-logging", logging.getArtifactId() );
+        assertEquals( "*", ( (Exclusion) api.getExclusions().get( 1 ) ).getArtifactId() );
+
+        Dependency tools = (Dependency) dependencies.get( 1 );
+        assertEquals( "system", tools.getScope() );
+        assertEquals( "jdk", tools.getClassifier() );
+        assertTrue( tools.isOptional() );
+        assertEquals( "C:\\jdk\\lib\\tools.jar", tools.getSystemPath() );
+        assertTrue( tools.getExclusions() == null || tools.getExclusions().isEmpty() );
+    }
+
+    public void testChangedPomsInvalidate()
+        throws Exception
+    {
+        ProjectModelCache cache = new ProjectModelCache( repository );
+        cache.store( createProject() );
+        assertNotNull( cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+
+        writePom( "org.sakaiproject", "tool", "1.0", "child, edited" );
+        assertNull( "the POM of the project changed", cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+
+        writePom( "org.sakaiproject", "tool", "1.0", "child" );
+        assertNotNull( cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+        writePom( "org.sakaiproject", "master", "1.0", "parent, edited" );
+        assertNull( "the POM of the parent changed", cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+
+        new File( repository, "org/sakaiproject/master/1.0/master-1.0.pom" ).delete();
+        assertNull( "the POM of the parent is gone", cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+        assertEquals( 2, cache.getHitCount() );
+        assertEquals( 3, cache.getMissCount() );
+
+        // a project whose POMs are not all in the repository is not cached
+        cache = new ProjectModelCache( repository );
+        cache.store( createProject() );
+        cache.save();
+        assertFalse( new File( repository, ProjectModelCache.CACHE_NAME ).exists() );
+    }
+
+    public void testEntryWithoutExclusionsIsRebuilt()
+        throws Exception
+    {
+        try
+        {
+            ProjectModelCache.parseDependency( "org.sakaiproject:tool-api:1.0:jar::compile:false" );
+            fail( "A dependency cached without its exclusions was used" );
+        }
+        catch ( IOException e )
+        {
+            // the caller builds the model from the POM instead
+        }
+        Dependency dependency = createDependency( "tool-api", "compile" );
+        assertEquals( "org.sakaiproject:tool-api:1.0:jar::compile:false::",
+                      ProjectModelCache.formatDependency( dependency ) );
+    }
+
+    public void testSnapshotsAreNotCached()
+        throws Exception
+    {
+        writePom( "org.sakaiproject", "tool", "1.1-SNAPSHOT", "snapshot" );
+        MavenProject snapshot = createProject();
+        snapshot.setVersion( "1.1-SNAPSHOT" );
+        ProjectModelCache cache = new ProjectModelCache( repository );
+        cache.store( snapshot );
+        assertNull( "a snapshot is checked for updates", cache.lookup( "org.sakaiproject", "tool", "1.1-SNAPSHOT" ) );
+        cache.save();
+        assertFalse( new File( repository, ProjectModelCache.CACHE_NAME ).exists() );
+
+        // nor are projects inheriting from a snapshot
+        writePom( "org.sakaiproject", "master", "1.1-SNAPSHOT", "snapshot parent" );
+        MavenProject child = createProject();
+        child.getParent().setVersion( "1.1-SNAPSHOT" );
+        cache.store( child );
+        assertNull( cache.lookup( "org.sakaiproject", "tool", "1.0" ) );
+    }
+}
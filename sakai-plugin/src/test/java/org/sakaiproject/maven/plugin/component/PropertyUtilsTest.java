@@ -22,7 +22,9 @@ package org.sakaiproject.maven.plugin.component;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.util.Enumeration;
 import java.util.Properties;
 
 public class PropertyUtilsTest
@@ -75,6 +77,183 @@ public class PropertyUtilsTest
         assertTrue( prop.getProperty( "key" ).equals( System.getProperty( "user.dir" ) ) );
     }
 
+    private File writeProperties( String name, String[] lines )
+        throws Exception
+    {
+        File file = new File( testDirectory, name );
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter( file );
+        for ( int i = 0; i < lines.length; i++ )
+        {
+            writer.write( lines[i] + "\n" );
+        }
+        writer.close();
+        return file;
+    }
+
+    public void testChains()
+        throws Exception
+    {
+        File file = writeProperties( "chains.properties", new String[] {
+            "url=${scheme}://${host}:${port}/${path}", "scheme=http", "host=${name}.${domain}", "name=sakai",
+            "domain=example.org", "port=8080", "path=${name}/portal", "twice=${port}${port}",
+            "unclosed=a${b", "empty=", "blank=[${empty}]" } );
+
+        Properties prop = PropertyUtils.loadPropertyFile( file, true, false );
+        assertEquals( "http://sakai.example.org:8080/sakai/portal", prop.getProperty( "url" ) );
+        assertEquals( "sakai.example.org", prop.getProperty( "host" ) );
+        assertEquals( "80808080", prop.getProperty( "twice" ) );
+        assertEquals( "the opening of an unclosed reference is dropped", "ab", prop.getProperty( "unclosed" ) );
+        assertEquals( "[]", prop.getProperty( "blank" ) );
+    }
+
+    public void testCycles()
+        throws Exception
+    {
+        File file = writeProperties( "cycles.properties", new String[] {
+            "self=${self}", "self.text=x${self.text}y", "a=${b}", "b=${a}", "before=<${a}>" } );
+
+        Properties prop = PropertyUtils.loadPropertyFile( file, true, false );
+        assertEquals( "${self}", prop.getProperty( "self" ) );
+        assertEquals( "x${self.text}y", prop.getProperty( "self.text" ) );
+        String a = prop.getProperty( "a" );
+        assertTrue( a, a.equals( "${a}" ) || a.equals( "${b}" ) );
+        assertEquals( a, prop.getProperty( "b" ) );
+        assertEquals( "<" + a + ">", prop.getProperty( "before" ) );
+    }
+
+    public void testDeepChain()
+        throws Exception
+    {
+        String[] lines = new String[10000];
+        lines[0] = "link.0=end";
+        for ( int i = 1; i < lines.length; i++ )
+        {
+            lines[i] = "link." + i + "=${link." + ( i - 1 ) + "}";
+        }
+        File file = writeProperties( "deep.properties", lines );
+
+        Properties prop = PropertyUtils.loadPropertyFile( file, true, false );
+        assertEquals( "end", prop.getProperty( "link.9999" ) );
+    }
+
+    /**
+     * Writes a property file of 10000 keys, in chains up to 50 deep.
+     */
+    private File writeLongChains( String name )
+        throws Exception
+    {
+        String[] lines = new String[10000];
+        for ( int i = 0; i < lines.length; i++ )
+        {
+            StringBuffer sb = new StringBuffer( "key." ).append( i ).append( "=" );
+            sb.append( "a value of some length for the key " ).append( i );
+            if ( i % 50 != 0 )
+            {
+                sb.append( ", after ${key." ).append( i - 1 ).append( "}" );
+            }
+            if ( i % 7 == 0 && i % 50 != 0 )
+            {
+                sb.append( " in ${key." ).append( i - i % 50 ).append( "} ${not.there}" );
+            }
+            lines[i] = sb.toString();
+        }
+        return writeProperties( name, lines );
+    }
+
+    /**
+     * Compares the resolution of long chains with the resolution by string
+     * concatenation the file was resolved with before.
+     */
+    public void testLongChains()
+        throws Exception
+    {
+        File file = writeLongChains( "chains.properties" );
+        Properties expected = loadByConcatenation( file );
+        assertEquals( expected, PropertyUtils.loadPropertyFile( file, true, false ) );
+    }
+
+    /**
+     * Times the resolver against the resolution by string concatenation.
+     * Only runs with <code>-Dsakai.benchmark=true</code>, as the timings
+     * depend on the machine.
+     */
+    public void testBenchmark()
+        throws Exception
+    {
+        if ( !Boolean.getBoolean( "sakai.benchmark" ) )
+        {
+            return;
+        }
+        File file = writeLongChains( "benchmark.properties" );
+
+        // warm up both before timing
+        Properties expected = loadByConcatenation( file );
+        assertEquals( expected, PropertyUtils.loadPropertyFile( file, true, false ) );
+
+        long start = System.nanoTime();
+        loadByConcatenation( file );
+        long concatenationNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        PropertyUtils.loadPropertyFile( file, true, false );
+        long resolverNanos = System.nanoTime() - start;
+
+        System.out.println( "Resolving " + expected.size() + " keys: " + concatenationNanos / 1000000
+            + " ms by concatenation, " + resolverNanos / 1000000 + " ms with the resolver" );
+    }
+
+    /**
+     * Loads a property file the way PropertyUtils did before, reparsing each
+     * value with every reference it resolves.
+     */
+    private static Properties loadByConcatenation( File file )
+        throws Exception
+    {
+        Properties props = new Properties();
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+            props.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        for ( Enumeration n = props.propertyNames(); n.hasMoreElements(); )
+        {
+            String k = (String) n.nextElement();
+            String v = props.getProperty( k );
+            String ret = "";
+            int idx, idx2;
+            while ( ( idx = v.indexOf( "${" ) ) >= 0 )
+            {
+                ret += v.substring( 0, idx );
+                v = v.substring( idx + 2 );
+                if ( ( idx2 = v.indexOf( '}' ) ) < 0 )
+                {
+                    break;
+                }
+                String nk = v.substring( 0, idx2 );
+                v = v.substring( idx2 + 1 );
+                String nv = props.getProperty( nk );
+                if ( nv == null )
+                {
+                    nv = System.getProperty( nk );
+                }
+                if ( nv == null || nv.equals( k ) )
+                {
+                    ret += "${" + nk + "}";
+                }
+                else
+                {
+                    v = nv + v;
+                }
+            }
+            props.setProperty( k, ret + v );
+        }
+        return props;
+    }
+
     public void testException()
         throws Exception
     {
@@ -0,0 +1,108 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.MavenProject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReflectionPropertiesTest
+    extends AbstractMojoTestCase
+{
+    /**
+     * A project counting how often its version is asked for.
+     */
+    public static class CountingProject
+        extends MavenProject
+    {
+        private int calls;
+
+        public CountingProject()
+        {
+            super( new Model() );
+        }
+
+        public synchronized String getVersion()
+        {
+            calls++;
+            return "2.6.0";
+        }
+
+        public synchronized int getCalls()
+        {
+            return calls;
+        }
+    }
+
+    public void testValuesAndMissesAreKept()
+    {
+        CountingProject project = new CountingProject();
+        ReflectionProperties properties = new ReflectionProperties( project );
+
+        assertEquals( "2.6.0", properties.get( "project.version" ) );
+        assertEquals( "2.6.0", properties.get( "project.version" ) );
+        assertEquals( 1, project.getCalls() );
+
+        assertNull( properties.get( "project.noSuchProperty" ) );
+        assertNull( properties.get( "project.noSuchProperty" ) );
+        assertNull( properties.get( "mail@example.com" ) );
+    }
+
+    public void testConcurrentLookups()
+        throws Exception
+    {
+        final CountingProject project = new CountingProject();
+        final ReflectionProperties properties = new ReflectionProperties( project );
+        final List<Object> wrong = new ArrayList<Object>();
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for ( int j = 0; j < 1000; j++ )
+                    {
+                        Object version = properties.get( "project.version" );
+                        Object missing = properties.get( "project.missing" + ( j % 10 ) );
+                        if ( !"2.6.0".equals( version ) || missing != null )
+                        {
+                            synchronized ( wrong )
+                            {
+                                wrong.add( version );
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i].join();
+        }
+        assertTrue( wrong.isEmpty() );
+        assertTrue( "the version is looked up once, or once by each thread racing for it",
+                    project.getCalls() <= threads.length );
+    }
+}
@@ -0,0 +1,115 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+public class ReleaseManagerTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/releasemanager-test" );
+
+    public void testReleaseLifecycle()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        FileUtils.deleteDirectory( testDirectory );
+        File live = new File( testDirectory, "components/sample/component.xml" );
+        live.getParentFile().mkdirs();
+        FileUtils.fileWrite( live.getAbsolutePath(), "live" );
+
+        ReleaseManager releases = new ReleaseManager( testDirectory );
+        assertNull( releases.getCurrentRelease() );
+
+        // the first release is seeded from the live tree
+        File first = releases.createRelease( Collections.singletonList( "components/" ) );
+        assertEquals( 1, releases.getLinkedCount() );
+        File firstFile = new File( first, "components/sample/component.xml" );
+        assertEquals( "live", FileUtils.fileRead( firstFile.getAbsolutePath() ) );
+        releases.activate( first );
+        assertEquals( first.getCanonicalFile(), releases.getCurrentRelease() );
+
+        // the next release starts from the current one
+        File second = releases.createRelease( Collections.<String>emptyList() );
+        File secondFile = new File( second, "components/sample/component.xml" );
+        assertEquals( "live", FileUtils.fileRead( secondFile.getAbsolutePath() ) );
+        FileTransfer.copy( live, secondFile );
+        releases.activate( second );
+        assertEquals( second.getCanonicalFile(), releases.getCurrentRelease() );
+
+        // rolling back switches the link to the previous release
+        assertEquals( first.getCanonicalFile(), releases.rollback() );
+        assertEquals( first.getCanonicalFile(), releases.getCurrentRelease() );
+
+        // pruning keeps the live release
+        releases.activate( second );
+        List removed = releases.prune( 0 );
+        assertEquals( 1, removed.size() );
+        assertFalse( first.exists() );
+        assertTrue( secondFile.exists() );
+    }
+
+    public void testDirectoryLinksAreKeptAsLinks()
+        throws Exception
+    {
+        if ( !FileTransfer.isLinkingSupported() )
+        {
+            return;
+        }
+        FileUtils.deleteDirectory( testDirectory );
+        File logs = new File( testDirectory, "var/log/tomcat" );
+        logs.mkdirs();
+        File log = new File( logs, "catalina.out" );
+        FileUtils.fileWrite( log.getAbsolutePath(), "log" );
+        File component = new File( testDirectory, "components/sample/component.xml" );
+        component.getParentFile().mkdirs();
+        FileUtils.fileWrite( component.getAbsolutePath(), "live" );
+        assertTrue( FileTransfer.symLink( logs, new File( testDirectory, "components/logs" ) ) );
+
+        ReleaseManager releases = new ReleaseManager( testDirectory );
+        File first = releases.createRelease( Collections.singletonList( "components/" ) );
+        File firstLink = new File( first, "components/logs" );
+        assertTrue( FileTransfer.isSymbolicLink( firstLink ) );
+        assertEquals( logs.getCanonicalFile(), firstLink.getCanonicalFile() );
+        releases.activate( first );
+
+        File second = releases.createRelease( Collections.<String>emptyList() );
+        assertTrue( FileTransfer.isSymbolicLink( new File( second, "components/logs" ) ) );
+        releases.activate( second );
+
+        // removing the old release removes its link, not the logs
+        assertEquals( 1, releases.prune( 0 ).size() );
+        assertFalse( first.exists() );
+        assertTrue( log.isFile() );
+        assertEquals( "log", FileUtils.fileRead( new File( second, "components/logs/catalina.out" ).getAbsolutePath() ) );
+
+        releases.discard( second );
+        assertFalse( second.exists() );
+        assertTrue( log.isFile() );
+    }
+}
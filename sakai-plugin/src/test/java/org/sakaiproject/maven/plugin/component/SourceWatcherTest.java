@@ -0,0 +1,90 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SourceWatcherTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/watcher-test" );
+
+    /**
+     * Collects the changes until the file system has reported all of them.
+     */
+    private static Set waitForChanges( SourceWatcher watcher )
+        throws Exception
+    {
+        Set changed = new HashSet();
+        Set more = watcher.take( 10000 );
+        while ( more != null && !more.isEmpty() )
+        {
+            changed.addAll( more );
+            more = watcher.take( 500 );
+        }
+        assertNotNull( "Changes were lost", more );
+        return changed;
+    }
+
+    public void testChangedDirectories()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File classes = new File( testDirectory, "classes" ).getAbsoluteFile();
+        File sample = new File( classes, "org/sample" );
+        sample.mkdirs();
+        FileUtils.fileWrite( new File( sample, "A.class" ).getAbsolutePath(), "a" );
+
+        SourceWatcher watcher = SourceWatcher.open( Collections.singletonList( classes ) );
+        if ( watcher == null )
+        {
+            // no watch service before Java 7, the watch goal polls instead
+            return;
+        }
+        try
+        {
+            assertTrue( watcher.take( 100 ).isEmpty() );
+
+            FileUtils.fileWrite( new File( sample, "B.class" ).getAbsolutePath(), "b" );
+            assertEquals( Collections.singleton( sample ), waitForChanges( watcher ) );
+
+            File created = new File( classes, "org/created/deep" );
+            created.mkdirs();
+            FileUtils.fileWrite( new File( created, "C.class" ).getAbsolutePath(), "c" );
+            Set changed = waitForChanges( watcher );
+            assertTrue( changed.toString(), changed.contains( created ) );
+            assertFalse( changed.contains( sample ) );
+
+            FileUtils.deleteDirectory( created.getParentFile() );
+            changed = waitForChanges( watcher );
+            assertTrue( changed.toString(), changed.contains( created.getParentFile() ) );
+        }
+        finally
+        {
+            watcher.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+public class SyncStateTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/syncstate-test" );
+
+    public void testChangedAndRemovedSources()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        testDirectory.mkdirs();
+        File source = new File( testDirectory, "index.jsp" );
+        File target = new File( testDirectory, "deployed/index.jsp" );
+        FileUtils.fileWrite( source.getAbsolutePath(), "<p/>" );
+        SyncState state = new SyncState();
+
+        state.begin();
+        assertTrue( "a source newer than its target is copied", state.isChanged( source, target ) );
+        assertTrue( state.end().isEmpty() );
+
+        state.begin();
+        assertFalse( state.isChanged( source, target ) );
+        state.end();
+
+        source.setLastModified( source.lastModified() - 10000 );
+        state.begin();
+        assertTrue( "any change of time is a change", state.isChanged( source, target ) );
+        state.end();
+
+        state.begin();
+        List removed = state.end();
+        assertEquals( 1, removed.size() );
+        assertEquals( target, removed.get( 0 ) );
+    }
+}
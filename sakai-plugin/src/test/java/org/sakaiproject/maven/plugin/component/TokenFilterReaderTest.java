@@ -0,0 +1,205 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.InterpolationFilterReader;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class TokenFilterReaderTest
+    extends AbstractMojoTestCase
+{
+    private Map<String, String> variables = new HashMap<String, String>();
+
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        variables.put( "a", "A" );
+        variables.put( "b", "" );
+        variables.put( "ab", "@a@" );
+        variables.put( "dollar", "${a}" );
+        variables.put( "project.version", "2.6.0" );
+        variables.put( "a}", "brace" );
+        variables.put( "$", "cash" );
+        variables.put( "\n", "newline" );
+    }
+
+    /**
+     * Filters the way the webapp build did before, with one reader for each
+     * kind of token.
+     */
+    private String chained( String text )
+        throws Exception
+    {
+        Reader reader = new BufferedReader( new StringReader( text ) );
+        reader = new InterpolationFilterReader( reader, variables, "${", "}" );
+        reader = new InterpolationFilterReader( reader, variables, "@", "@" );
+        return copy( reader );
+    }
+
+    private String fused( String text )
+        throws Exception
+    {
+        return copy( new TokenFilterReader( new BufferedReader( new StringReader( text ) ), variables ) );
+    }
+
+    private static String copy( Reader reader )
+        throws Exception
+    {
+        StringWriter out = new StringWriter();
+        IOUtil.copy( reader, out );
+        return out.toString();
+    }
+
+    private void assertSame( String text )
+        throws Exception
+    {
+        assertEquals( "filtering " + text, chained( text ), fused( text ) );
+    }
+
+    public void testTokens()
+        throws Exception
+    {
+        assertEquals( "version=2.6.0 A", fused( "version=${project.version} @a@" ) );
+        assertEquals( "the value of a ${ token is searched for @ tokens", "A", fused( "${ab}" ) );
+        assertEquals( "${a}", fused( "@dollar@" ) );
+        assertEquals( "empty values are removed", "xy", fused( "x${b}@b@y" ) );
+        assertEquals( "mail@example.com", fused( "mail@example.com" ) );
+    }
+
+    public void testSameAsChainedReaders()
+        throws Exception
+    {
+        String[] texts = {
+            "", "$", "@", "$$", "@@", "${", "${}", "${a", "$${a}", "${${a}}", "${a}}", "${dollar}", "@dollar@",
+            "@ab@", "${ab}", "a@b@c@d", "@x@a@", "x@@a@", "@a@@a@", "${b}@a@${b}", "user@host and @a@",
+            "line one @\nline two @a@", "${\n}", "@\n@", "${a}${a}${a", "${$}", "$@a@", "@${a}@", "${@a@}",
+            "${a}}@a}@", "caf\u00e9 ${a} \u00fcn\u00efcode @a@", "${project.version}\r\n@project.version@\r\n" };
+        for ( int i = 0; i < texts.length; i++ )
+        {
+            assertSame( texts[i] );
+        }
+    }
+
+    public void testSameAsChainedReadersOnRandomText()
+        throws Exception
+    {
+        char[] alphabet = { '$', '{', '}', '@', 'a', 'b', '\n', ' ' };
+        Random random = new Random( 20130601 );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            char[] text = new char[random.nextInt( 24 )];
+            for ( int j = 0; j < text.length; j++ )
+            {
+                text[j] = alphabet[random.nextInt( alphabet.length )];
+            }
+            assertSame( new String( text ) );
+        }
+    }
+
+    public void testSameAcrossBufferBoundaries()
+        throws Exception
+    {
+        StringBuffer sb = new StringBuffer();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            sb.append( i % 7 == 0 ? "${a}" : i % 11 == 0 ? "@ab@" : i % 13 == 0 ? "$" : "xy" );
+        }
+        assertSame( sb.toString() );
+
+        // a reader handing out a character at a time
+        Reader slow = new StringReader( "${project.version} @a@ ${dollar}" )
+        {
+            public int read( char[] cbuf, int off, int len )
+                throws java.io.IOException
+            {
+                return super.read( cbuf, off, Math.min( len, 1 ) );
+            }
+        };
+        assertEquals( "2.6.0 A ${a}", copy( new TokenFilterReader( slow, variables ) ) );
+    }
+
+    /**
+     * Returns a properties file of at least the given length, a few tokens in
+     * a lot of plain text as in the configuration of a webapp.
+     */
+    private static String createLargeFile( int length )
+    {
+        StringBuffer sb = new StringBuffer();
+        for ( int i = 0; sb.length() < length; i++ )
+        {
+            sb.append( "# setting number " ).append( i ).append( " of the tool, see the admin guide\n" );
+            sb.append( "tool.setting." ).append( i ).append( '=' );
+            sb.append( i % 10 == 0 ? "${project.version}" : i % 25 == 0 ? "@a@" : "value-" + i ).append( '\n' );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Filters a large properties file with both readers.
+     */
+    public void testLargeFile()
+        throws Exception
+    {
+        String text = createLargeFile( 1024 * 1024 );
+        String expected = chained( text );
+        assertTrue( expected.indexOf( "tool.setting.10=2.6.0\n" ) >= 0 );
+        assertTrue( expected.indexOf( "tool.setting.25=A\n" ) >= 0 );
+        assertEquals( expected, fused( text ) );
+    }
+
+    /**
+     * Times both readers on a 4 MB file. Only runs with
+     * <code>-Dsakai.benchmark=true</code>, as the timings depend on the
+     * machine.
+     */
+    public void testBenchmark()
+        throws Exception
+    {
+        if ( !Boolean.getBoolean( "sakai.benchmark" ) )
+        {
+            return;
+        }
+        String text = createLargeFile( 4 * 1024 * 1024 );
+
+        // warm up both before timing
+        String expected = chained( text );
+        assertEquals( expected, fused( text ) );
+
+        long start = System.nanoTime();
+        chained( text );
+        long chainedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        fused( text );
+        long fusedNanos = System.nanoTime() - start;
+
+        System.out.println( "Filtering " + text.length() / 1024 + " KB: " + chainedNanos / 1000000
+            + " ms with the chained readers, " + fusedNanos / 1000000 + " ms in one pass" );
+    }
+}
@@ -0,0 +1,65 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class TrashCanTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/trashcan-test" );
+
+    public void testDiscardMovesTreeAndPurges()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File component = new File( testDirectory, "components/sample" );
+        File file = new File( component, "WEB-INF/components.xml" );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getAbsolutePath(), "<beans/>" );
+
+        File trashDirectory = new File( testDirectory, TrashCan.TRASH_NAME );
+        TrashCan trash = new TrashCan( trashDirectory );
+        assertTrue( trash.discard( component ) );
+        assertFalse( component.exists() );
+        assertTrue( trash.discard( new File( testDirectory, "missing" ) ) );
+
+        assertTrue( trash.await( 10000 ) );
+        assertEquals( 1, trash.getDiscardedCount() );
+        assertEquals( 0, trashDirectory.listFiles().length );
+    }
+
+    public void testLeftoversArePurged()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File trashDirectory = new File( testDirectory, TrashCan.TRASH_NAME );
+        File leftover = new File( trashDirectory, "old-component/file.txt" );
+        leftover.getParentFile().mkdirs();
+        FileUtils.fileWrite( leftover.getAbsolutePath(), "old" );
+
+        TrashCan trash = new TrashCan( trashDirectory );
+        assertTrue( trash.await( 10000 ) );
+        assertEquals( 0, trashDirectory.listFiles().length );
+    }
+}
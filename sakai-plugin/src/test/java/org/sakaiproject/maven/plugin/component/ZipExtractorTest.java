@@ -0,0 +1,198 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipExtractorTest
+    extends AbstractMojoTestCase
+{
+    private static File sampleWars = new File( getBasedir(), "target/test-classes/unit/sample_wars" );
+
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/zipextractor-test" );
+
+    public void testDeltaOnEmptyDirectory()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "empty" );
+        FileUtils.deleteDirectory( destination );
+
+        ZipExtractor extractor = new ZipExtractor( new File( sampleWars, "simple.war" ) );
+        extractor.extractDelta( destination );
+
+        assertTrue( new File( destination, "org/sample/company/test.jsp" ).exists() );
+        assertTrue( new File( destination, "META-INF/MANIFEST.MF" ).exists() );
+        assertEquals( 3, extractor.getWrittenCount() );
+        assertEquals( 0, extractor.getUnchangedCount() );
+    }
+
+    public void testDeltaOnlyWritesChangedEntries()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "updated" );
+        FileUtils.deleteDirectory( destination );
+
+        new ZipExtractor( new File( sampleWars, "simple.war" ) ).extractDelta( destination );
+        File manifest = new File( destination, "META-INF/MANIFEST.MF" );
+        manifest.setLastModified( 1000000000000L );
+
+        ZipExtractor extractor = new ZipExtractor( new File( sampleWars, "simple-updated.war" ) );
+        extractor.extractDelta( destination );
+
+        assertEquals( 1, extractor.getWrittenCount() );
+        assertEquals( 2, extractor.getUnchangedCount() );
+        assertEquals( 0, extractor.getRemovedCount() );
+        assertEquals( 1000000000000L, manifest.lastModified() );
+        assertEquals( 8, new File( destination, "org/sample/company/test.jsp" ).length() );
+    }
+
+    public void testDeltaRemovesStaleFiles()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "stale" );
+        FileUtils.deleteDirectory( destination );
+
+        new ZipExtractor( new File( sampleWars, "include-exclude.war" ) ).extractDelta( destination );
+        assertTrue( new File( destination, "org/sample/companyExclude/test.jsp" ).exists() );
+
+        ZipExtractor extractor = new ZipExtractor( new File( sampleWars, "simple.war" ) );
+        extractor.extractDelta( destination );
+
+        assertTrue( new File( destination, "org/sample/company/test.jsp" ).exists() );
+        assertFalse( new File( destination, "org/sample/company/testInclude.jsp" ).exists() );
+        assertFalse( new File( destination, "org/sample/companyExclude" ).exists() );
+        assertEquals( 2, extractor.getRemovedCount() );
+    }
+
+    public void testConcurrentExtract()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "concurrent" );
+        FileUtils.deleteDirectory( destination );
+
+        ZipExtractor extractor = new ZipExtractor( new File( sampleWars, "include-exclude.war" ) );
+        extractor.extract( destination, true, 4 );
+
+        assertTrue( new File( destination, "WEB-INF/web.xml" ).exists() );
+        assertTrue( new File( destination, "org/sample/company/testInclude.jsp" ).exists() );
+        assertTrue( new File( destination, "org/sample/companyExclude/test.jsp" ).exists() );
+        assertEquals( 4, extractor.getWrittenCount() );
+        assertEquals( 0, extractor.getUnchangedCount() );
+    }
+
+    public void testExtractKeepsNewerFilesWithoutOverwrite()
+        throws Exception
+    {
+        File destination = new File( testDirectory, "overwrite" );
+        FileUtils.deleteDirectory( destination );
+
+        new ZipExtractor( new File( sampleWars, "simple.war" ) ).extract( destination, true, 2 );
+        File jsp = new File( destination, "org/sample/company/test.jsp" );
+        FileUtils.fileWrite( jsp.getAbsolutePath(), "local" );
+
+        ZipExtractor extractor = new ZipExtractor( new File( sampleWars, "simple-updated.war" ) );
+        extractor.extract( destination, false, 2 );
+        assertEquals( "local", FileUtils.fileRead( jsp.getAbsolutePath() ) );
+
+        extractor.extract( destination, true, 2 );
+        assertEquals( 8, jsp.length() );
+        assertEquals( 0, extractor.getUnchangedCount() );
+    }
+
+    public void testRejectsEntriesOutsideDestination()
+        throws Exception
+    {
+        testDirectory.mkdirs();
+        File archive = new File( testDirectory, "evil.zip" );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( archive ) );
+        out.putNextEntry( new ZipEntry( "../evil.txt" ) );
+        out.write( "evil".getBytes() );
+        out.closeEntry();
+        out.close();
+
+        try
+        {
+            new ZipExtractor( archive ).extractDelta( new File( testDirectory, "evil" ) );
+            fail( "Entry outside the destination was extracted" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        try
+        {
+            new ZipExtractor( archive ).extract( new File( testDirectory, "evil" ), true, 2 );
+            fail( "Entry outside the destination was extracted" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertFalse( new File( testDirectory, "evil.txt" ).exists() );
+    }
+
+    public void testCorruptEntryIsNotWritten()
+        throws Exception
+    {
+        testDirectory.mkdirs();
+        File archive = new File( testDirectory, "corrupt.zip" );
+        byte[] data = "original".getBytes( "UTF-8" );
+        CRC32 crc = new CRC32();
+        crc.update( data );
+        ZipEntry entry = new ZipEntry( "data.txt" );
+        entry.setMethod( ZipEntry.STORED );
+        entry.setSize( data.length );
+        entry.setCrc( crc.getValue() );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( archive ) );
+        out.putNextEntry( entry );
+        out.write( data );
+        out.closeEntry();
+        out.close();
+
+        // the stored bytes follow the local header and its name
+        RandomAccessFile file = new RandomAccessFile( archive, "rw" );
+        file.seek( 30 + "data.txt".length() );
+        file.write( "damaged!".getBytes( "UTF-8" ) );
+        file.close();
+
+        File destination = new File( testDirectory, "corrupt" );
+        FileUtils.deleteDirectory( destination );
+        try
+        {
+            new ZipExtractor( archive ).extract( destination, true, 1 );
+            fail( "Corrupt entry was extracted" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage().indexOf( "CRC" ) != -1 );
+        }
+        assertFalse( new File( destination, "data.txt" ).exists() );
+        assertFalse( new File( destination, ".data.txt.tmp" ).exists() );
+    }
+}